@@ -0,0 +1,149 @@
+package org.example;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.Arrays;
+
+// SIMD direct convolution. Each band of rows is first widened into zero- or edge-padded float rows,
+// so every tap becomes a streak of vector loads and FMAs over the row with no bounds checks.
+// Accumulates in float, so results can differ from the double path by one level.
+public final class VectorConvolution implements SimdConvolution.Backend {
+
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS = VectorSpecies.of(int.class, FLOATS.vectorShape());
+    // One byte per float lane, but no byte vector is narrower than 64 bits: with 128-bit floats the
+    // narrowed levels fill the low lanes only and are stored under STORED
+    private static final VectorSpecies<Byte> BYTES = VectorSpecies.of(byte.class,
+            VectorShape.forBitSize(Math.max(VectorShape.S_64_BIT.vectorBitSize(), FLOATS.length() * Byte.SIZE)));
+    private static final VectorMask<Byte> STORED = BYTES.indexInRange(0, FLOATS.length());
+    private static final boolean PARTIAL = BYTES.length() > FLOATS.length();
+    private static final int BAND_ROWS = 32;
+
+    private static final ThreadLocal<float[]> PADDED = ThreadLocal.withInitial(() -> new float[0]);
+    private static final ThreadLocal<float[]> ACCUMULATOR = ThreadLocal.withInitial(() -> new float[0]);
+
+    @Override
+    public String describe() {
+        return FLOATS.length() + " x float lanes (" + FLOATS.vectorBitSize() + "-bit)";
+    }
+
+    @Override
+    public void convolveRegion(PixelPlanes src, PixelPlanes dst, double[][] kernel, ConvolutionEngine.EdgeMode edges,
+                               ConvolutionEngine.Rounding rounding, int x0, int y0, int x1, int y1) {
+        int kernelWidth = kernel.length;
+        int kernelHeight = kernel[0].length;
+        float[] weights = new float[kernelWidth * kernelHeight];
+        for (int i = 0; i < kernelWidth; i++) {
+            for (int j = 0; j < kernelHeight; j++) {
+                weights[j * kernelWidth + i] = (float) kernel[i][j];
+            }
+        }
+
+        byte[][] in = {src.getRed(), src.getGreen(), src.getBlue()};
+        byte[][] out = {dst.getRed(), dst.getGreen(), dst.getBlue()};
+        for (int band = y0; band < y1; band += BAND_ROWS) {
+            int bandEnd = Math.min(y1, band + BAND_ROWS);
+            for (int c = 0; c < 3; c++) {
+                convolveBand(in[c], out[c], src.getWidth(), src.getHeight(), weights, kernelWidth, kernelHeight,
+                        edges, rounding, x0, band, x1, bandEnd);
+            }
+        }
+    }
+
+    private static void convolveBand(byte[] in, byte[] out, int width, int height, float[] weights,
+                                     int kernelWidth, int kernelHeight, ConvolutionEngine.EdgeMode edges,
+                                     ConvolutionEngine.Rounding rounding, int x0, int y0, int x1, int y1) {
+        int kx = kernelWidth / 2;
+        int ky = kernelHeight / 2;
+        int span = x1 - x0;
+        int paddedWidth = span + kernelWidth - 1;
+        int paddedRows = (y1 - y0) + kernelHeight - 1;
+
+        float[] padded = buffer(PADDED, paddedWidth * paddedRows);
+        boolean zero = edges == ConvolutionEngine.EdgeMode.ZERO;
+        for (int r = 0; r < paddedRows; r++) {
+            int pixelY = y0 - ky + r;
+            int row = r * paddedWidth;
+            if (zero && (pixelY < 0 || pixelY >= height)) {
+                Arrays.fill(padded, row, row + paddedWidth, 0f);
+                continue;
+            }
+            int source = ConvolutionEngine.clamp(pixelY, 0, height - 1) * width;
+            // Columns left of the image, inside it, and right of it
+            int first = ConvolutionEngine.clamp(kx - x0, 0, paddedWidth);
+            int last = ConvolutionEngine.clamp(width - x0 + kx, first, paddedWidth);
+            float left = zero ? 0f : in[source] & 0xFF;
+            float right = zero ? 0f : in[source + width - 1] & 0xFF;
+            Arrays.fill(padded, row, row + first, left);
+            for (int u = first, p = source + x0 - kx + first; u < last; u++, p++) {
+                padded[row + u] = in[p] & 0xFF;
+            }
+            Arrays.fill(padded, row + last, row + paddedWidth, right);
+        }
+
+        float[] acc = buffer(ACCUMULATOR, span);
+        int lanes = FLOATS.length();
+        int vectorEnd = FLOATS.loopBound(span);
+        boolean round = rounding == ConvolutionEngine.Rounding.ROUND;
+
+        for (int y = y0; y < y1; y++) {
+            int top = (y - y0) * paddedWidth;
+            Arrays.fill(acc, 0, span, 0f);
+            // One tap at a time across the whole row keeps the accumulator row in L1
+            for (int j = 0; j < kernelHeight; j++) {
+                for (int i = 0; i < kernelWidth; i++) {
+                    float weight = weights[j * kernelWidth + i];
+                    if (weight == 0f) {
+                        continue;
+                    }
+                    FloatVector w = FloatVector.broadcast(FLOATS, weight);
+                    int row = top + j * paddedWidth + i;
+                    int x = 0;
+                    for (; x < vectorEnd; x += lanes) {
+                        FloatVector.fromArray(FLOATS, padded, row + x)
+                                .fma(w, FloatVector.fromArray(FLOATS, acc, x))
+                                .intoArray(acc, x);
+                    }
+                    for (; x < span; x++) {
+                        acc[x] = Math.fma(padded[row + x], weight, acc[x]);
+                    }
+                }
+            }
+
+            int outRow = y * width + x0;
+            int x = 0;
+            for (; x < vectorEnd; x += lanes) {
+                FloatVector sum = FloatVector.fromArray(FLOATS, acc, x);
+                if (round) {
+                    sum = sum.add(0.5f);
+                }
+                IntVector levels = (IntVector) sum.convertShape(VectorOperators.F2I, INTS, 0);
+                ByteVector bytes = (ByteVector) levels.max(0).min(255).convertShape(VectorOperators.I2B, BYTES, 0);
+                if (PARTIAL) {
+                    bytes.intoArray(out, outRow + x, STORED);
+                } else {
+                    bytes.intoArray(out, outRow + x);
+                }
+            }
+            for (; x < span; x++) {
+                float sum = round ? acc[x] + 0.5f : acc[x];
+                out[outRow + x] = (byte) ConvolutionEngine.clamp((int) sum, 0, 255);
+            }
+        }
+    }
+
+    private static float[] buffer(ThreadLocal<float[]> holder, int size) {
+        float[] buffer = holder.get();
+        if (buffer.length < size) {
+            buffer = new float[size];
+            holder.set(buffer);
+        }
+        return buffer;
+    }
+}
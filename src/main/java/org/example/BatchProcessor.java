@@ -0,0 +1,319 @@
+package org.example;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Many images through many operations in one JVM, as three stages joined by bounded queues:
+//   decode pool  -> decoded queue -> compute (caller thread, parallel engine) -> encode queue -> encode pool
+// Every image is decoded once whatever the number of operations. A full queue blocks the stage
+// feeding it, so at most DECODED_QUEUE images wait for compute and ENCODE_QUEUE results wait for
+// the JPEG writers while the codecs keep the cores busy between convolutions. Files are read and
+// written on ImageIOExecutor's I/O threads; the decode and encode threads only run the codecs.
+public final class BatchProcessor {
+
+    public static final int DEFAULT_DECODE_THREADS = 2;
+    public static final int DEFAULT_ENCODE_THREADS = 2;
+
+    private static final int DECODED_QUEUE = 2;
+    private static final int ENCODE_QUEUE = 4;
+    private static final String IMAGE_GLOB = "*.{jpg,jpeg,png,bmp,gif,tif,tiff,raw}";
+
+    public static final class Summary {
+        private final int images;
+        private final int outputs;
+        private final int failures;
+        private final double wallMs;
+        private final double decodeMs;
+        private final double computeMs;
+        private final double encodeMs;
+        private final double ioMs;
+
+        Summary(int images, int outputs, int failures, double wallMs, double decodeMs, double computeMs,
+                double encodeMs, double ioMs) {
+            this.images = images;
+            this.outputs = outputs;
+            this.failures = failures;
+            this.wallMs = wallMs;
+            this.decodeMs = decodeMs;
+            this.computeMs = computeMs;
+            this.encodeMs = encodeMs;
+            this.ioMs = ioMs;
+        }
+
+        public int getFailures() {
+            return failures;
+        }
+
+        // Stage times are summed over their threads; overlap shows as stages adding up to more than wall time
+        public String describe() {
+            return String.format("%d images, %d outputs, %d failures in %.1f ms (decode %.1f ms, compute %.1f ms, "
+                    + "encode %.1f ms, file I/O %.1f ms)", images, outputs, failures, wallMs, decodeMs, computeMs,
+                    encodeMs, ioMs);
+        }
+    }
+
+    private interface Operation {
+        BufferedImage apply(BufferedImage image);
+    }
+
+    private static final class Decoded {
+        final File file;
+        final BufferedImage image;
+        final String error;
+
+        Decoded(File file, BufferedImage image, String error) {
+            this.file = file;
+            this.image = image;
+            this.error = error;
+        }
+    }
+
+    private static final class Encoded {
+        final BufferedImage image;
+        final File file;
+
+        Encoded(BufferedImage image, File file) {
+            this.image = image;
+            this.file = file;
+        }
+    }
+
+    private static final Encoded END = new Encoded(null, null);
+
+    private BatchProcessor() {
+    }
+
+    // A directory (its images) or a glob such as test_images/*.jpg, sorted by name
+    public static List<File> listInputs(String dirOrGlob) throws IOException {
+        Path path = Paths.get(dirOrGlob);
+        Path directory;
+        String glob;
+        if (Files.isDirectory(path)) {
+            directory = path;
+            glob = IMAGE_GLOB;
+        } else {
+            directory = path.getParent() != null ? path.getParent() : Paths.get(".");
+            glob = path.getFileName().toString();
+        }
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob.toLowerCase());
+        List<File> files = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                if (Files.isRegularFile(entry) && matcher.matches(Paths.get(entry.getFileName().toString().toLowerCase()))) {
+                    files.add(entry.toFile());
+                }
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    // Writes outputDir/<operation>/<image>_<operation>_parallel.jpg; log, if not null, gets a
+    // processing_times.csv row per output
+    public static Summary run(List<File> inputs, File outputDir, List<String> operations, Map<String, String> options,
+                              int decodeThreads, int encodeThreads, File log)
+            throws IOException, InterruptedException {
+        if (decodeThreads < 1 || encodeThreads < 1) {
+            throw new IllegalArgumentException("Decode and encode threads must be at least 1");
+        }
+        List<Operation> prepared = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        for (String operation : operations) {
+            prepared.add(prepare(operation, options));
+            String name = directoryName(operation);
+            File directory = new File(outputDir, name);
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create " + directory);
+            }
+            names.add(name);
+        }
+
+        long start = System.nanoTime();
+        double decodeStart = ImageIOExecutor.decodeMillis();
+        double encodeStart = ImageIOExecutor.encodeMillis();
+        double ioStart = ImageIOExecutor.ioMillis();
+        AtomicInteger failures = new AtomicInteger();
+        BlockingQueue<Decoded> decoded = new ArrayBlockingQueue<>(DECODED_QUEUE);
+        BlockingQueue<Encoded> encoded = new ArrayBlockingQueue<>(ENCODE_QUEUE);
+        Queue<CompletableFuture<Void>> writes = new ConcurrentLinkedQueue<>();
+
+        // Every file is queued for reading right away, ImageIOExecutor admits a bounded number at a time;
+        // the put blocks a decoder while compute is behind. Failed reads complete on an I/O thread, so the
+        // put always runs on a decoder
+        ExecutorService decoders = Executors.newFixedThreadPool(decodeThreads);
+        for (File file : inputs) {
+            ImageIOExecutor.read(file, decoders).handleAsync((image, error) -> {
+                try {
+                    decoded.put(new Decoded(file, image, error == null ? null : message(error)));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            }, decoders);
+        }
+
+        Thread[] encoders = new Thread[encodeThreads];
+        for (int i = 0; i < encodeThreads; i++) {
+            encoders[i] = new Thread(() -> encodeLoop(encoded, writes), "batch-encode-" + i);
+            encoders[i].start();
+        }
+
+        long computeNanos = 0;
+        int outputs = 0;
+        String timestamp = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss").format(new Date());
+        try (PrintWriter timing = log == null ? null : openLog(log)) {
+            for (int i = 0; i < inputs.size(); i++) {
+                Decoded input = decoded.take();
+                if (input.image == null) {
+                    System.err.println("Skipping " + input.file + ": " + input.error);
+                    failures.incrementAndGet();
+                    continue;
+                }
+                String name = baseName(input.file);
+                for (int k = 0; k < prepared.size(); k++) {
+                    String operation = names.get(k);
+                    long t0 = System.nanoTime();
+                    BufferedImage result;
+                    // One output failing (e.g. out of memory on a huge input) costs only that output
+                    try {
+                        result = prepared.get(k).apply(input.image);
+                    } catch (RuntimeException | OutOfMemoryError e) {
+                        System.err.println("Cannot apply " + operation + " to " + input.file + ": " + e);
+                        failures.incrementAndGet();
+                        continue;
+                    }
+                    long elapsed = System.nanoTime() - t0;
+                    computeNanos += elapsed;
+                    File file = new File(new File(outputDir, operation), name + "_" + operation + "_parallel.jpg");
+                    encoded.put(new Encoded(result, file));
+                    outputs++;
+                    if (timing != null) {
+                        timing.printf("%s,%s,batch,%.3f,%d,%d,%s%n", name, operation, elapsed / 1e6,
+                                input.image.getWidth(), input.image.getHeight(), timestamp);
+                    }
+                }
+            }
+        } finally {
+            // Decoders still running only if compute failed; they may be blocked on the full queue
+            decoders.shutdownNow();
+            for (int i = 0; i < encodeThreads; i++) {
+                encoded.put(END);
+            }
+            for (Thread encoder : encoders) {
+                encoder.join();
+            }
+        }
+        for (CompletableFuture<Void> write : writes) {
+            try {
+                ImageIOExecutor.join(write);
+            } catch (IOException e) {
+                System.err.println("Cannot write: " + e.getMessage());
+                failures.incrementAndGet();
+            }
+        }
+        return new Summary(inputs.size(), outputs, failures.get(), (System.nanoTime() - start) / 1e6,
+                ImageIOExecutor.decodeMillis() - decodeStart, computeNanos / 1e6,
+                ImageIOExecutor.encodeMillis() - encodeStart, ImageIOExecutor.ioMillis() - ioStart);
+    }
+
+    // Encodes on this thread and hands the bytes to an I/O thread
+    private static void encodeLoop(BlockingQueue<Encoded> encoded, Queue<CompletableFuture<Void>> writes) {
+        try {
+            while (true) {
+                Encoded output = encoded.take();
+                if (output == END) {
+                    return;
+                }
+                writes.add(ImageIOExecutor.write(output.image, "jpg", output.file, Runnable::run));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String message(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof UncheckedIOException) {
+            cause = cause.getCause();
+        }
+        return cause.getMessage();
+    }
+
+    // Parses the operation once; runs like Main's parallel mode with the same --radius, --sigma and
+    // --percentile options
+    private static Operation prepare(String operation, Map<String, String> options) throws IOException {
+        GradientOperator.Type gradient = GradientOperator.Type.forOperation(operation);
+        GeometricTransform.Type transform = GeometricTransform.Type.forOperation(operation);
+        int radius = Main.intOption(options, "radius", 0);
+        double sigma = options.containsKey("sigma") ? Double.parseDouble(options.get("sigma")) : 0;
+        double rank = Main.rankPercentile(operation, options);
+        if (ImagePipeline.isPipeline(operation)) {
+            ImagePipeline pipeline = ImagePipeline.parse(operation);
+            return image -> pipeline.apply(image, true);
+        }
+        if (rank >= 0) {
+            int rankRadius = Math.max(1, radius);
+            return image -> ConvolutionProcessor.applyRankFilterParallel(image, rankRadius, rank);
+        }
+        if (operation.equals("blur") && sigma > 0) {
+            return image -> ConvolutionProcessor.applyBoxGaussianParallel(image, sigma);
+        }
+        if (operation.equals("blur") && radius > 1) {
+            return image -> ConvolutionProcessor.applyBoxBlurParallel(image, radius);
+        }
+        if (gradient != null) {
+            return image -> ConvolutionProcessor.applyGradientParallel(image, gradient, null);
+        }
+        if (transform != null) {
+            return image -> ConvolutionProcessor.applyTransform(image, transform, true);
+        }
+        // Row bands on the common pool; in whole batches this ran faster than the tiled driver
+        double[][] kernel = KernelFactory.forOperation(operation);
+        return image -> ConvolutionProcessor.applyConvolutionParallel(image, kernel);
+    }
+
+    private static PrintWriter openLog(File log) throws IOException {
+        boolean header = !log.exists() || log.length() == 0;
+        PrintWriter writer = new PrintWriter(new FileWriter(log, true));
+        if (header) {
+            writer.println("image_name,operation,mode,execution_time_ms,image_width,image_height,timestamp");
+        }
+        return writer;
+    }
+
+    private static String baseName(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    // Kernel specs and pipelines carry ':', ',' and path separators
+    private static String directoryName(String operation) {
+        return operation.replaceAll("[^A-Za-z0-9.+-]", "_");
+    }
+}
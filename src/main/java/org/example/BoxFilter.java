@@ -0,0 +1,198 @@
+package org.example;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+// Box blur with running sums: each output row adds one horizontal row sum to the column totals and
+// drops another, and each row sum slides along x the same way, so the cost per pixel does not depend
+// on the radius. Column totals are longs, row sums ints (255 * width fits for any real kernel).
+//
+// Normalized boxes divide the exact integer sum by the area, so where the double path lands a hair
+// below a whole level (TRUNCATE) the result can be one level higher. Repeating the box three times
+// approximates a Gaussian (central limit theorem); gaussianRadii picks the box sizes for a sigma.
+public final class BoxFilter {
+
+    private static final int BAND_ROWS = 64;
+
+    private static final ThreadLocal<long[]> COLUMNS = ThreadLocal.withInitial(() -> new long[0]);
+    private static final ThreadLocal<int[]> ROW = ThreadLocal.withInitial(() -> new int[0]);
+
+    private BoxFilter() {
+    }
+
+    // Kernels the engine hands over: every weight equal and positive, and big enough to be worth it
+    public static boolean isBox(double[][] kernel, int minSize) {
+        if (Math.max(kernel.length, kernel[0].length) < minSize) {
+            return false;
+        }
+        double weight = kernel[0][0];
+        if (!(weight > 0)) {
+            return false;
+        }
+        for (double[] column : kernel) {
+            for (double w : column) {
+                if (w != weight) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    public static PixelPlanes blur(PixelPlanes src, int radius, ConvolutionEngine.EdgeMode edges,
+                                   ConvolutionEngine.Rounding rounding, boolean parallel) {
+        if (radius < 0) {
+            throw new IllegalArgumentException("Box radius must not be negative");
+        }
+        int size = 2 * radius + 1;
+        int width = src.getWidth();
+        int height = src.getHeight();
+        PixelPlanes dst = new PixelPlanes(width, height);
+        double weight = 1.0 / ((double) size * size);
+        if (!parallel) {
+            boxRegion(src, dst, size, size, weight, edges, rounding, 0, 0, width, height);
+            return dst;
+        }
+        // Every band pays for warming up its column totals, so bands grow with the radius, but not past
+        // two bands per worker: for large radii the extra warm-up rows are cheaper than idle cores
+        int perWorker = (height + 2 * ForkJoinPool.getCommonPoolParallelism() - 1)
+                / (2 * ForkJoinPool.getCommonPoolParallelism());
+        int band = Math.max(BAND_ROWS, Math.min(8 * size, perWorker));
+        int bands = (height + band - 1) / band;
+        IntStream.range(0, bands).parallel().forEach(b ->
+                boxRegion(src, dst, size, size, weight, edges, rounding,
+                        0, b * band, width, Math.min(height, (b + 1) * band)));
+        return dst;
+    }
+
+    // Three box passes with the radii from gaussianRadii
+    public static PixelPlanes gaussian(PixelPlanes src, double sigma, ConvolutionEngine.EdgeMode edges,
+                                       ConvolutionEngine.Rounding rounding, boolean parallel) {
+        PixelPlanes result = src;
+        for (int radius : gaussianRadii(sigma, 3)) {
+            result = blur(result, radius, edges, rounding, parallel);
+        }
+        return result;
+    }
+
+    // Box radii whose repeated application has the variance of a Gaussian with this sigma:
+    // the widths are the odd numbers around sqrt(12 sigma^2 / passes + 1), mixed to match the variance
+    public static int[] gaussianRadii(double sigma, int passes) {
+        if (!(sigma > 0) || passes < 1) {
+            throw new IllegalArgumentException("sigma must be positive and passes at least 1");
+        }
+        double ideal = Math.sqrt(12 * sigma * sigma / passes + 1);
+        int lower = (int) Math.floor(ideal);
+        if (lower % 2 == 0) {
+            lower--;
+        }
+        int upper = lower + 2;
+        double lowerPasses = (12 * sigma * sigma - passes * lower * lower - 4.0 * passes * lower - 3.0 * passes)
+                / (-4.0 * lower - 4);
+        int m = (int) Math.round(lowerPasses);
+        int[] radii = new int[passes];
+        for (int i = 0; i < passes; i++) {
+            radii[i] = ((i < m ? lower : upper) - 1) / 2;
+        }
+        return radii;
+    }
+
+    // Box of boxWidth x boxHeight, all weights equal to weight, centered like ConvolutionEngine's kernels
+    public static void boxRegion(PixelPlanes src, PixelPlanes dst, int boxWidth, int boxHeight, double weight,
+                                 ConvolutionEngine.EdgeMode edges, ConvolutionEngine.Rounding rounding,
+                                 int x0, int y0, int x1, int y1) {
+        if (x0 >= x1 || y0 >= y1) {
+            return;
+        }
+        int width = src.getWidth();
+        int top = boxHeight / 2;
+        int bottom = boxHeight - 1 - top;
+        int span = x1 - x0;
+        long area = (long) boxWidth * boxHeight;
+        boolean normalized = Math.abs(weight * area - 1) < 1e-12;
+        boolean round = rounding == ConvolutionEngine.Rounding.ROUND;
+
+        long[] columns = COLUMNS.get();
+        if (columns.length < span) {
+            columns = new long[span];
+            COLUMNS.set(columns);
+        }
+        int[] row = ROW.get();
+        if (row.length < span) {
+            row = new int[span];
+            ROW.set(row);
+        }
+
+        byte[][] in = {src.getRed(), src.getGreen(), src.getBlue()};
+        byte[][] out = {dst.getRed(), dst.getGreen(), dst.getBlue()};
+        for (int c = 0; c < 3; c++) {
+            byte[] plane = in[c];
+            byte[] target = out[c];
+            Arrays.fill(columns, 0, span, 0L);
+            for (int pixelY = y0 - top; pixelY <= y0 + bottom; pixelY++) {
+                addRow(plane, src, pixelY, boxWidth, edges, x0, x1, row, columns, 1);
+            }
+            for (int y = y0; y < y1; y++) {
+                if (y > y0) {
+                    addRow(plane, src, y + bottom, boxWidth, edges, x0, x1, row, columns, 1);
+                    addRow(plane, src, y - 1 - top, boxWidth, edges, x0, x1, row, columns, -1);
+                }
+                int outRow = y * width + x0;
+                for (int x = 0; x < span; x++) {
+                    long sum = columns[x];
+                    if (!normalized) {
+                        target[outRow + x] = ConvolutionEngine.toByte(sum * weight, rounding);
+                    } else if (round) {
+                        target[outRow + x] = (byte) ((2 * sum + area) / (2 * area));
+                    } else {
+                        target[outRow + x] = (byte) (sum / area);
+                    }
+                }
+            }
+        }
+    }
+
+    // Adds sign times the horizontal box sums of one source row to the column totals
+    private static void addRow(byte[] plane, PixelPlanes src, int pixelY, int boxWidth,
+                               ConvolutionEngine.EdgeMode edges, int x0, int x1, int[] row, long[] columns, int sign) {
+        int width = src.getWidth();
+        int height = src.getHeight();
+        boolean zero = edges == ConvolutionEngine.EdgeMode.ZERO;
+        if (zero && (pixelY < 0 || pixelY >= height)) {
+            return;
+        }
+        int start = ConvolutionEngine.clamp(pixelY, 0, height - 1) * width;
+        int left = boxWidth / 2;
+        int right = boxWidth - 1 - left;
+
+        int sum = 0;
+        for (int x = x0 - left; x <= x0 + right; x++) {
+            sum += sample(plane, start, x, width, zero);
+        }
+        row[0] = sum;
+        int span = x1 - x0;
+        for (int u = 1; u < span; u++) {
+            int x = x0 + u;
+            // Only the window ends that fall outside the row need the edge policy
+            int enter = x + right;
+            int leave = x - 1 - left;
+            sum += enter < width ? plane[start + enter] & 0xFF : sample(plane, start, enter, width, zero);
+            sum -= leave >= 0 ? plane[start + leave] & 0xFF : sample(plane, start, leave, width, zero);
+            row[u] = sum;
+        }
+        for (int u = 0; u < span; u++) {
+            columns[u] += sign * row[u];
+        }
+    }
+
+    private static int sample(byte[] plane, int start, int x, int width, boolean zero) {
+        if (x < 0 || x >= width) {
+            if (zero) {
+                return 0;
+            }
+            x = ConvolutionEngine.clamp(x, 0, width - 1);
+        }
+        return plane[start + x] & 0xFF;
+    }
+}
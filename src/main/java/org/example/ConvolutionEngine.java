@@ -0,0 +1,338 @@
+package org.example;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+// Convolution over PixelPlanes. For each EdgeMode the taps are summed in the same order
+// and rounded the same way as the original getRGB loops, so the output is bit-identical.
+// Large kernels are routed to the running-sum box, separable or FFT paths, and the opt-in integer and SIMD
+// backends quantize or accumulate in float; those may differ by one level.
+public final class ConvolutionEngine {
+
+    // Rank-1 kernels at least this wide or tall run as a horizontal and a vertical 1D pass.
+    // Smaller ones keep the exact 2D path, which the 3x3 legacy kernels rely on bit for bit.
+    private static final int SEPARABLE_MIN_SIZE = 5;
+    // Output rows per separable step, keeps the intermediate buffer small for whole-image calls
+    private static final int SEPARABLE_BAND_ROWS = 64;
+    // Bands of a whole-image parallel run: about this many per common-pool worker, and never fewer rows
+    // than MIN_BAND_ROWS or than the halo times HALO_BAND_FACTOR
+    private static final int BANDS_PER_WORKER = 4;
+    private static final int MIN_BAND_ROWS = 16;
+    private static final int HALO_BAND_FACTOR = 4;
+
+    // Intermediate rows of the separable path, reused across calls on the same thread
+    private static final ThreadLocal<double[]> INTERMEDIATE = ThreadLocal.withInitial(() -> new double[0]);
+
+    public enum EdgeMode {
+        ZERO,  // taps outside the image are skipped (sequential path)
+        CLAMP  // taps are clamped to the nearest edge pixel (parallel path)
+    }
+
+    public enum Rounding {
+        TRUNCATE,
+        ROUND
+    }
+
+    private ConvolutionEngine() {
+    }
+
+    public static PixelPlanes convolve(PixelPlanes src, double[][] kernel, EdgeMode edges, Rounding rounding) {
+        PixelPlanes dst = new PixelPlanes(src.getWidth(), src.getHeight());
+        convolveRegion(src, dst, kernel, edges, rounding, 0, 0, src.getWidth(), src.getHeight());
+        return dst;
+    }
+
+    // Rows per band when a parallel stream cuts a whole image into horizontal bands. Each band repeats the
+    // separable pass over its vertical halo and the FFT path pads it to whole blocks, so bands stay several
+    // halos and at least one FFT block tall even if that leaves cores idle.
+    public static int bandRows(double[][] kernel, int width, int height) {
+        int minimum = Math.max(MIN_BAND_ROWS, HALO_BAND_FACTOR * (kernel[0].length - 1));
+        int fftRows = FftConvolution.blockHeight(kernel);
+        if (FftConvolution.isPreferred(kernel, width, fftRows)) {
+            minimum = Math.max(minimum, fftRows);
+        }
+        int workers = BANDS_PER_WORKER * ForkJoinPool.getCommonPoolParallelism();
+        return Math.max(minimum, (height + workers - 1) / workers);
+    }
+
+    // Computes dst for x0 <= x < x1, y0 <= y < y1. Regions never overlap, so callers may run them concurrently.
+    public static void convolveRegion(PixelPlanes src, PixelPlanes dst, double[][] kernel, EdgeMode edges,
+                                      Rounding rounding, int x0, int y0, int x1, int y1) {
+        if (x0 >= x1 || y0 >= y1) {
+            return;
+        }
+        if (BoxFilter.isBox(kernel, SEPARABLE_MIN_SIZE)) {
+            BoxFilter.boxRegion(src, dst, kernel.length, kernel[0].length, kernel[0][0], edges, rounding, x0, y0, x1, y1);
+            return;
+        }
+        SeparableKernel separable = useSeparable(kernel) ? SeparableKernel.detect(kernel) : null;
+        if (separable != null) {
+            for (int band = y0; band < y1; band += SEPARABLE_BAND_ROWS) {
+                convolveSeparable(src, dst, separable, edges, rounding, x0, band, x1, Math.min(y1, band + SEPARABLE_BAND_ROWS));
+            }
+            return;
+        }
+        if (FftConvolution.isPreferred(kernel, x1 - x0, y1 - y0)) {
+            FftConvolution.convolveRegion(src, dst, kernel, edges, rounding, x0, y0, x1, y1);
+            return;
+        }
+        if (FixedPointConvolution.isEnabled()
+                && FixedPointConvolution.convolveRegion(src, dst, kernel, edges, rounding, x0, y0, x1, y1)) {
+            return;
+        }
+        SimdConvolution.Backend simd = SimdConvolution.backend();
+        if (simd != null) {
+            simd.convolveRegion(src, dst, kernel, edges, rounding, x0, y0, x1, y1);
+            return;
+        }
+
+        Taps taps = new Taps(kernel, edges, src.getWidth());
+        int width = src.getWidth();
+        int height = src.getHeight();
+
+        // Pixels whose whole neighbourhood lies inside the image need no bounds checks
+        int innerX0 = Math.max(x0, taps.kx);
+        int innerX1 = Math.min(x1, width - (taps.kernelWidth - 1 - taps.kx));
+        int innerY0 = Math.max(y0, taps.ky);
+        int innerY1 = Math.min(y1, height - (taps.kernelHeight - 1 - taps.ky));
+
+        for (int y = y0; y < y1; y++) {
+            boolean innerRow = y >= innerY0 && y < innerY1 && innerX0 < innerX1;
+            if (!innerRow) {
+                for (int x = x0; x < x1; x++) {
+                    convolveBorderPixel(src, dst, taps, rounding, x, y);
+                }
+                continue;
+            }
+            for (int x = x0; x < innerX0; x++) {
+                convolveBorderPixel(src, dst, taps, rounding, x, y);
+            }
+            convolveInnerRow(src, dst, taps, rounding, innerX0, innerX1, y);
+            for (int x = innerX1; x < x1; x++) {
+                convolveBorderPixel(src, dst, taps, rounding, x, y);
+            }
+        }
+    }
+
+    private static void convolveInnerRow(PixelPlanes src, PixelPlanes dst, Taps taps, Rounding rounding,
+                                         int xStart, int xEnd, int y) {
+        byte[] red = src.getRed();
+        byte[] green = src.getGreen();
+        byte[] blue = src.getBlue();
+        byte[] outRed = dst.getRed();
+        byte[] outGreen = dst.getGreen();
+        byte[] outBlue = dst.getBlue();
+        int[] offsets = taps.offsets;
+        double[] weights = taps.weights;
+        int count = weights.length;
+
+        int rowBase = y * src.getWidth();
+        for (int x = xStart; x < xEnd; x++) {
+            int base = rowBase + x;
+            double r = 0, g = 0, b = 0;
+            for (int t = 0; t < count; t++) {
+                int p = base + offsets[t];
+                double weight = weights[t];
+                r += (red[p] & 0xFF) * weight;
+                g += (green[p] & 0xFF) * weight;
+                b += (blue[p] & 0xFF) * weight;
+            }
+            outRed[base] = toByte(r, rounding);
+            outGreen[base] = toByte(g, rounding);
+            outBlue[base] = toByte(b, rounding);
+        }
+    }
+
+    private static void convolveBorderPixel(PixelPlanes src, PixelPlanes dst, Taps taps, Rounding rounding, int x, int y) {
+        int width = src.getWidth();
+        int height = src.getHeight();
+        byte[] red = src.getRed();
+        byte[] green = src.getGreen();
+        byte[] blue = src.getBlue();
+        double r = 0, g = 0, b = 0;
+
+        for (int t = 0; t < taps.weights.length; t++) {
+            int pixelX = x + taps.dx[t];
+            int pixelY = y + taps.dy[t];
+            if (taps.edges == EdgeMode.ZERO) {
+                if (pixelX < 0 || pixelX >= width || pixelY < 0 || pixelY >= height) {
+                    continue;
+                }
+            } else {
+                pixelX = clamp(pixelX, 0, width - 1);
+                pixelY = clamp(pixelY, 0, height - 1);
+            }
+            int p = pixelY * width + pixelX;
+            double weight = taps.weights[t];
+            r += (red[p] & 0xFF) * weight;
+            g += (green[p] & 0xFF) * weight;
+            b += (blue[p] & 0xFF) * weight;
+        }
+
+        int index = y * width + x;
+        dst.getRed()[index] = toByte(r, rounding);
+        dst.getGreen()[index] = toByte(g, rounding);
+        dst.getBlue()[index] = toByte(b, rounding);
+    }
+
+    static boolean useSeparable(double[][] kernel) {
+        int kernelWidth = kernel.length;
+        int kernelHeight = kernel[0].length;
+        return kernelWidth > 1 && kernelHeight > 1 && Math.max(kernelWidth, kernelHeight) >= SEPARABLE_MIN_SIZE;
+    }
+
+    // Horizontal pass into an intermediate buffer covering the region plus its vertical halo,
+    // then a vertical pass from that buffer: K + K taps per pixel instead of K * K
+    private static void convolveSeparable(PixelPlanes src, PixelPlanes dst, SeparableKernel kernel, EdgeMode edges,
+                                          Rounding rounding, int x0, int y0, int x1, int y1) {
+        int width = src.getWidth();
+        int height = src.getHeight();
+        double[] horizontal = kernel.getHorizontal();
+        double[] vertical = kernel.getVertical();
+        int kx = horizontal.length / 2;
+        int ky = vertical.length / 2;
+
+        // Every source row the vertical pass can touch, clipped (ZERO) or clamped (CLAMP) to the image
+        int rowFrom = clamp(y0 - ky, 0, height - 1);
+        int rowTo = clamp(y1 - 1 + vertical.length - 1 - ky, 0, height - 1) + 1;
+        int span = x1 - x0;
+        int plane = span * (rowTo - rowFrom);
+
+        double[] buffer = INTERMEDIATE.get();
+        if (buffer.length < 3 * plane + span) {
+            buffer = new double[3 * plane + span];
+            INTERMEDIATE.set(buffer);
+        }
+
+        byte[][] channels = {src.getRed(), src.getGreen(), src.getBlue()};
+        for (int c = 0; c < 3; c++) {
+            byte[] in = channels[c];
+            int base = c * plane;
+            for (int row = rowFrom; row < rowTo; row++) {
+                int rowStart = row * width;
+                int out = base + (row - rowFrom) * span - x0;
+                // Interior columns tap by tap over the whole run, border columns one at a time
+                int innerFrom = clamp(kx, x0, x1);
+                int innerTo = clamp(width - (horizontal.length - 1 - kx), innerFrom, x1);
+                Arrays.fill(buffer, out + innerFrom, out + innerTo, 0);
+                for (int i = 0; i < horizontal.length; i++) {
+                    double weight = horizontal[i];
+                    if (weight == 0) {
+                        continue;
+                    }
+                    int shift = rowStart + i - kx;
+                    for (int x = innerFrom; x < innerTo; x++) {
+                        buffer[out + x] += (in[shift + x] & 0xFF) * weight;
+                    }
+                }
+                for (int x = x0; x < innerFrom; x++) {
+                    buffer[out + x] = horizontalBorderTap(in, rowStart, width, horizontal, kx, edges, x);
+                }
+                for (int x = innerTo; x < x1; x++) {
+                    buffer[out + x] = horizontalBorderTap(in, rowStart, width, horizontal, kx, edges, x);
+                }
+            }
+        }
+
+        byte[][] outputs = {dst.getRed(), dst.getGreen(), dst.getBlue()};
+        int accumulator = 3 * plane;
+        for (int c = 0; c < 3; c++) {
+            byte[] out = outputs[c];
+            int base = c * plane;
+            for (int y = y0; y < y1; y++) {
+                Arrays.fill(buffer, accumulator, accumulator + span, 0);
+                for (int j = 0; j < vertical.length; j++) {
+                    double weight = vertical[j];
+                    int pixelY = y + j - ky;
+                    if (weight == 0 || (edges == EdgeMode.ZERO && (pixelY < 0 || pixelY >= height))) {
+                        continue;
+                    }
+                    int row = base + (clamp(pixelY, 0, height - 1) - rowFrom) * span;
+                    for (int x = 0; x < span; x++) {
+                        buffer[accumulator + x] += buffer[row + x] * weight;
+                    }
+                }
+                int outRow = y * width + x0;
+                for (int x = 0; x < span; x++) {
+                    out[outRow + x] = toByte(buffer[accumulator + x], rounding);
+                }
+            }
+        }
+    }
+
+    private static double horizontalBorderTap(byte[] in, int rowStart, int width, double[] horizontal, int kx,
+                                              EdgeMode edges, int x) {
+        double sum = 0;
+        for (int i = 0; i < horizontal.length; i++) {
+            double weight = horizontal[i];
+            int pixelX = x + i - kx;
+            if (weight == 0 || (edges == EdgeMode.ZERO && (pixelX < 0 || pixelX >= width))) {
+                continue;
+            }
+            sum += (in[rowStart + clamp(pixelX, 0, width - 1)] & 0xFF) * weight;
+        }
+        return sum;
+    }
+
+    static byte toByte(double value, Rounding rounding) {
+        int v = rounding == Rounding.ROUND ? (int) Math.round(value) : (int) value;
+        return (byte) clamp(v, 0, 255);
+    }
+
+    static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    // Flattened kernel. kernel[i][j] weighs the pixel at (x + i - kx, y + j - ky); ZERO walks i then j,
+    // CLAMP walks j then i, as the two original loops did. Zero weights never change a sum and are dropped.
+    private static final class Taps {
+        final EdgeMode edges;
+        final int kernelWidth;
+        final int kernelHeight;
+        final int kx;
+        final int ky;
+        final double[] weights;
+        final int[] dx;
+        final int[] dy;
+        final int[] offsets;
+
+        Taps(double[][] kernel, EdgeMode edges, int imageWidth) {
+            this.edges = edges;
+            kernelWidth = kernel.length;
+            kernelHeight = kernel[0].length;
+            kx = kernelWidth / 2;
+            ky = kernelHeight / 2;
+
+            int count = 0;
+            for (double[] column : kernel) {
+                for (double weight : column) {
+                    if (weight != 0) {
+                        count++;
+                    }
+                }
+            }
+            weights = new double[count];
+            dx = new int[count];
+            dy = new int[count];
+            offsets = new int[count];
+
+            int t = 0;
+            int outer = edges == EdgeMode.ZERO ? kernelWidth : kernelHeight;
+            int inner = edges == EdgeMode.ZERO ? kernelHeight : kernelWidth;
+            for (int a = 0; a < outer; a++) {
+                for (int c = 0; c < inner; c++) {
+                    int i = edges == EdgeMode.ZERO ? a : c;
+                    int j = edges == EdgeMode.ZERO ? c : a;
+                    if (kernel[i][j] == 0) {
+                        continue;
+                    }
+                    weights[t] = kernel[i][j];
+                    dx[t] = i - kx;
+                    dy[t] = j - ky;
+                    offsets[t] = dy[t] * imageWidth + dx[t];
+                    t++;
+                }
+            }
+        }
+    }
+}
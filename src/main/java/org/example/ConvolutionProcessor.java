@@ -3,112 +3,302 @@ package org.example;
 import java.awt.image.BufferedImage;
 import java.util.stream.IntStream;
 
+// Filters go through ResultCache when it is enabled; the key names the edge and rounding semantics,
+// so the parallel and tiled modes, which compute the same result, share entries
 public class ConvolutionProcessor {
 
-    public static BufferedImage applyConvolution(BufferedImage inputImage, double[][] kernel) {
-        int width = inputImage.getWidth();
-        int height = inputImage.getHeight();
-        int kernelWidth = kernel.length;
-        int kernelHeight = kernel[0].length;
-
-        BufferedImage outputImage = new BufferedImage(width, height, inputImage.getType());
-
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                double red = 0, green = 0, blue = 0;
-
-                for (int i = 0; i < kernelWidth; i++) {
-                    for (int j = 0; j < kernelHeight; j++) {
-                        int pixelX = x + i - kernelWidth / 2;
-                        int pixelY = y + j - kernelHeight / 2;
-
-                        if (pixelX >= 0 && pixelX < width && pixelY >= 0 && pixelY < height) {
-                            int rgb = inputImage.getRGB(pixelX, pixelY);
-                            red += ((rgb >> 16) & 0xFF) * kernel[i][j];
-                            green += ((rgb >> 8) & 0xFF) * kernel[i][j];
-                            blue += (rgb & 0xFF) * kernel[i][j];
-                        }
-                    }
-                }
+    // Told about every finished tile of a progressive run, from the thread that computed it
+    public interface TileListener {
+        void tileDone(PixelPlanes result, int x0, int y0, int x1, int y1);
+    }
 
-                int r = clamp((int) red, 0, 255);
-                int g = clamp((int) green, 0, 255);
-                int b = clamp((int) blue, 0, 255);
+    private interface RegionFilter {
+        void run(PixelPlanes src, PixelPlanes dst, int x0, int y0, int x1, int y1);
+    }
 
-                outputImage.setRGB(x, y, (r << 16) | (g << 8) | b);
-            }
-        }
+    public static BufferedImage applyConvolution(BufferedImage inputImage, double[][] kernel) {
+        String key = convolutionKey(kernel, ConvolutionEngine.EdgeMode.ZERO, ConvolutionEngine.Rounding.TRUNCATE);
+        return ResultCache.apply(inputImage, key, () -> {
+            PixelPlanes source = PixelPlanes.fromImage(inputImage);
+            PixelPlanes result = ConvolutionEngine.convolve(source, kernel,
+                    ConvolutionEngine.EdgeMode.ZERO, ConvolutionEngine.Rounding.TRUNCATE);
 
-        return outputImage;
+            return result.toImage(inputImage.getType());
+        });
     }
 
     public static BufferedImage applyConvolutionParallel(BufferedImage inputImage, double[][] kernel) {
-        int width = inputImage.getWidth();
-        int height = inputImage.getHeight();
-        int kernelWidth = kernel.length;
-        int kernelHeight = kernel[0].length;
-        int kx = kernelWidth / 2;
-        int ky = kernelHeight / 2;
-
-        BufferedImage outputImage = new BufferedImage(width, height, inputImage.getType());
-
-        IntStream.range(0, height).parallel().forEach(y -> {
-            for (int x = 0; x < width; x++) {
-                double red = 0, green = 0, blue = 0;
-
-                for (int j = 0; j < kernelHeight; j++) {
-                    int pixelY = clamp(y + j - ky, 0, height - 1);
-                    for (int i = 0; i < kernelWidth; i++) {
-                        int pixelX = clamp(x + i - kx, 0, width - 1);
-                        int rgb = inputImage.getRGB(pixelX, pixelY);
-                        double weight = kernel[i][j];
-                        red += ((rgb >> 16) & 0xFF) * weight;
-                        green += ((rgb >> 8) & 0xFF) * weight;
-                        blue += (rgb & 0xFF) * weight;
-                    }
-                }
+        String key = convolutionKey(kernel, ConvolutionEngine.EdgeMode.CLAMP, ConvolutionEngine.Rounding.ROUND);
+        return ResultCache.apply(inputImage, key, () -> {
+            int width = inputImage.getWidth();
+            int height = inputImage.getHeight();
 
-                int r = clamp((int) Math.round(red), 0, 255);
-                int g = clamp((int) Math.round(green), 0, 255);
-                int b = clamp((int) Math.round(blue), 0, 255);
+            PixelPlanes source = PixelPlanes.fromImage(inputImage);
+            PixelPlanes result = new PixelPlanes(width, height);
 
-                outputImage.setRGB(x, y, (r << 16) | (g << 8) | b);
-            }
+            int band = ConvolutionEngine.bandRows(kernel, width, height);
+
+            IntStream.range(0, (height + band - 1) / band).parallel().forEach(b ->
+                    ConvolutionEngine.convolveRegion(source, result, kernel,
+                            ConvolutionEngine.EdgeMode.CLAMP, ConvolutionEngine.Rounding.ROUND,
+                            0, b * band, width, Math.min(height, (b + 1) * band)));
+
+            return result.toImage(inputImage.getType());
+        });
+    }
+
+    // Same result as applyConvolutionParallel, computed tile by tile on TiledExecutor's pool
+    public static BufferedImage applyConvolutionTiled(BufferedImage inputImage, double[][] kernel) {
+        String key = convolutionKey(kernel, ConvolutionEngine.EdgeMode.CLAMP, ConvolutionEngine.Rounding.ROUND);
+        return ResultCache.apply(inputImage, key, () -> {
+            int width = inputImage.getWidth();
+            int height = inputImage.getHeight();
+            int tile = TiledExecutor.tileSizeFor(kernel.length / 2, kernel[0].length / 2);
+
+            PixelPlanes source = PixelPlanes.fromImage(inputImage);
+            PixelPlanes result = new PixelPlanes(width, height);
+
+            TiledExecutor.forEachTile(width, height, tile, tile, (x0, y0, x1, y1) ->
+                    ConvolutionEngine.convolveRegion(source, result, kernel,
+                            ConvolutionEngine.EdgeMode.CLAMP, ConvolutionEngine.Rounding.ROUND, x0, y0, x1, y1));
+
+            return result.toImage(inputImage.getType());
         });
+    }
 
-        return outputImage;
+    // Tile by tile, so listener can show the result as it forms; the result and cache entry are those of
+    // applyConvolution (parallel false) or applyConvolutionParallel. Tile sides are multiples of align
+    public static BufferedImage applyConvolutionProgressive(BufferedImage inputImage, double[][] kernel,
+                                                            boolean parallel, int align, TileListener listener) {
+        ConvolutionEngine.EdgeMode edges = parallel ? ConvolutionEngine.EdgeMode.CLAMP : ConvolutionEngine.EdgeMode.ZERO;
+        ConvolutionEngine.Rounding rounding = parallel ? ConvolutionEngine.Rounding.ROUND
+                : ConvolutionEngine.Rounding.TRUNCATE;
+        int tile = alignUp(TiledExecutor.tileSizeFor(kernel.length / 2, kernel[0].length / 2), align);
+        return progressive(inputImage, convolutionKey(kernel, edges, rounding), tile, tile, parallel, listener,
+                (src, dst, x0, y0, x1, y1) -> ConvolutionEngine.convolveRegion(src, dst, kernel, edges, rounding,
+                        x0, y0, x1, y1));
     }
 
-    public static BufferedImage applyMirror(BufferedImage inputImage) {
-        int width = inputImage.getWidth();
-        int height = inputImage.getHeight();
-        BufferedImage outputImage = new BufferedImage(width, height, inputImage.getType());
+    private static String convolutionKey(double[][] kernel, ConvolutionEngine.EdgeMode edges,
+                                         ConvolutionEngine.Rounding rounding) {
+        return "convolve " + ResultCache.kernelKey(kernel, edges, rounding);
+    }
+
+    // Box blur of any radius at a fixed cost per pixel
+    public static BufferedImage applyBoxBlur(BufferedImage inputImage, int radius) {
+        return ResultCache.apply(inputImage, "box " + radius + " ZERO TRUNCATE", () -> {
+            PixelPlanes result = BoxFilter.blur(PixelPlanes.fromImage(inputImage), radius,
+                    ConvolutionEngine.EdgeMode.ZERO, ConvolutionEngine.Rounding.TRUNCATE, false);
+            return result.toImage(inputImage.getType());
+        });
+    }
+
+    public static BufferedImage applyBoxBlurParallel(BufferedImage inputImage, int radius) {
+        return ResultCache.apply(inputImage, "box " + radius + " CLAMP ROUND", () -> {
+            PixelPlanes result = BoxFilter.blur(PixelPlanes.fromImage(inputImage), radius,
+                    ConvolutionEngine.EdgeMode.CLAMP, ConvolutionEngine.Rounding.ROUND, true);
+            return result.toImage(inputImage.getType());
+        });
+    }
 
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int mirroredX = width - 1 - x;
-                int rgb = inputImage.getRGB(mirroredX, y);
-                outputImage.setRGB(x, y, rgb);
+    // Gaussian approximated by three box blurs
+    public static BufferedImage applyBoxGaussian(BufferedImage inputImage, double sigma) {
+        return ResultCache.apply(inputImage, "box-gaussian " + sigma + " ZERO TRUNCATE", () -> {
+            PixelPlanes result = BoxFilter.gaussian(PixelPlanes.fromImage(inputImage), sigma,
+                    ConvolutionEngine.EdgeMode.ZERO, ConvolutionEngine.Rounding.TRUNCATE, false);
+            return result.toImage(inputImage.getType());
+        });
+    }
+
+    public static BufferedImage applyBoxGaussianParallel(BufferedImage inputImage, double sigma) {
+        return ResultCache.apply(inputImage, "box-gaussian " + sigma + " CLAMP ROUND", () -> {
+            PixelPlanes result = BoxFilter.gaussian(PixelPlanes.fromImage(inputImage), sigma,
+                    ConvolutionEngine.EdgeMode.CLAMP, ConvolutionEngine.Rounding.ROUND, true);
+            return result.toImage(inputImage.getType());
+        });
+    }
+
+    // Median (0.5), min (0), max (1) or any percentile over a (2r + 1)^2 window, in full-height stripes
+    public static BufferedImage applyRankFilter(BufferedImage inputImage, int radius, double percentile) {
+        return ResultCache.apply(inputImage, rankKey(radius, percentile, ConvolutionEngine.EdgeMode.ZERO), () -> {
+            int width = inputImage.getWidth();
+            int height = inputImage.getHeight();
+            int stripe = rankStripeWidth(radius);
+
+            PixelPlanes source = PixelPlanes.fromImage(inputImage);
+            PixelPlanes result = new PixelPlanes(width, height);
+
+            for (int x = 0; x < width; x += stripe) {
+                RankFilter.rankRegion(source, result, radius, percentile, ConvolutionEngine.EdgeMode.ZERO,
+                        x, 0, Math.min(width, x + stripe), height);
             }
+
+            return result.toImage(inputImage.getType());
+        });
+    }
+
+    public static BufferedImage applyRankFilterParallel(BufferedImage inputImage, int radius, double percentile) {
+        return ResultCache.apply(inputImage, rankKey(radius, percentile, ConvolutionEngine.EdgeMode.CLAMP), () -> {
+            int width = inputImage.getWidth();
+            int height = inputImage.getHeight();
+            int stripe = rankStripeWidth(radius);
+
+            PixelPlanes source = PixelPlanes.fromImage(inputImage);
+            PixelPlanes result = new PixelPlanes(width, height);
+
+            TiledExecutor.forEachTile(width, height, stripe, height, (x0, y0, x1, y1) ->
+                    RankFilter.rankRegion(source, result, radius, percentile, ConvolutionEngine.EdgeMode.CLAMP,
+                            x0, y0, x1, y1));
+
+            return result.toImage(inputImage.getType());
+        });
+    }
+
+    // Full-height stripes as in applyRankFilter(Parallel), whose result and cache entry it shares
+    public static BufferedImage applyRankFilterProgressive(BufferedImage inputImage, int radius, double percentile,
+                                                           boolean parallel, int align, TileListener listener) {
+        ConvolutionEngine.EdgeMode edges = parallel ? ConvolutionEngine.EdgeMode.CLAMP : ConvolutionEngine.EdgeMode.ZERO;
+        return progressive(inputImage, rankKey(radius, percentile, edges), alignUp(rankStripeWidth(radius), align),
+                inputImage.getHeight(), parallel, listener, (src, dst, x0, y0, x1, y1) ->
+                        RankFilter.rankRegion(src, dst, radius, percentile, edges, x0, y0, x1, y1));
+    }
+
+    private static String rankKey(int radius, double percentile, ConvolutionEngine.EdgeMode edges) {
+        return "rank " + radius + " " + percentile + " " + edges;
+    }
+
+    // Column histograms cost 1 KB per column; each stripe also carries 2r halo columns
+    private static int rankStripeWidth(int radius) {
+        return Math.max(TiledExecutor.tileSizeFor(radius, radius), 4 * radius);
+    }
+
+    // Gradient magnitude in one pass; orientation, if not null, receives the edge direction and
+    // bypasses the cache
+    public static BufferedImage applyGradient(BufferedImage inputImage, GradientOperator.Type type,
+                                              BufferedImage orientation) {
+        if (orientation == null) {
+            return ResultCache.apply(inputImage,
+                    gradientKey(type, ConvolutionEngine.EdgeMode.ZERO, ConvolutionEngine.Rounding.TRUNCATE),
+                    () -> computeGradient(inputImage, type, null));
         }
+        return computeGradient(inputImage, type, orientation);
+    }
+
+    private static BufferedImage computeGradient(BufferedImage inputImage, GradientOperator.Type type,
+                                                 BufferedImage orientation) {
+        PixelPlanes source = PixelPlanes.fromImage(inputImage);
+        PixelPlanes result = new PixelPlanes(source.getWidth(), source.getHeight());
+        PixelPlanes angles = orientation == null ? null : new PixelPlanes(source.getWidth(), source.getHeight());
 
-        return outputImage;
+        GradientOperator.gradientRegion(source, result, angles, type,
+                ConvolutionEngine.EdgeMode.ZERO, ConvolutionEngine.Rounding.TRUNCATE,
+                0, 0, source.getWidth(), source.getHeight());
+
+        if (angles != null) {
+            angles.writeTo(orientation);
+        }
+        return result.toImage(inputImage.getType());
     }
 
-    public static BufferedImage applyMirrorParallel(BufferedImage inputImage) {
+    public static BufferedImage applyGradientParallel(BufferedImage inputImage, GradientOperator.Type type,
+                                                      BufferedImage orientation) {
+        if (orientation == null) {
+            return ResultCache.apply(inputImage,
+                    gradientKey(type, ConvolutionEngine.EdgeMode.CLAMP, ConvolutionEngine.Rounding.ROUND),
+                    () -> computeGradientParallel(inputImage, type, null));
+        }
+        return computeGradientParallel(inputImage, type, orientation);
+    }
+
+    private static BufferedImage computeGradientParallel(BufferedImage inputImage, GradientOperator.Type type,
+                                                         BufferedImage orientation) {
         int width = inputImage.getWidth();
         int height = inputImage.getHeight();
-        BufferedImage outputImage = new BufferedImage(width, height, inputImage.getType());
 
-        IntStream.range(0, height).parallel().forEach(y -> {
-            for (int x = 0; x < width; x++) {
-                int mirroredX = width - 1 - x;
-                int rgb = inputImage.getRGB(mirroredX, y);
-                outputImage.setRGB(x, y, rgb);
+        PixelPlanes source = PixelPlanes.fromImage(inputImage);
+        PixelPlanes result = new PixelPlanes(width, height);
+        PixelPlanes angles = orientation == null ? null : new PixelPlanes(width, height);
+
+        int band = ConvolutionEngine.bandRows(type.kernelX(), width, height);
+
+        IntStream.range(0, (height + band - 1) / band).parallel().forEach(b ->
+                GradientOperator.gradientRegion(source, result, angles, type,
+                        ConvolutionEngine.EdgeMode.CLAMP, ConvolutionEngine.Rounding.ROUND,
+                        0, b * band, width, Math.min(height, (b + 1) * band)));
+
+        if (angles != null) {
+            angles.writeTo(orientation);
+        }
+        return result.toImage(inputImage.getType());
+    }
+
+    // Magnitude only, like applyGradient(Parallel) without orientation
+    public static BufferedImage applyGradientProgressive(BufferedImage inputImage, GradientOperator.Type type,
+                                                         boolean parallel, int align, TileListener listener) {
+        ConvolutionEngine.EdgeMode edges = parallel ? ConvolutionEngine.EdgeMode.CLAMP : ConvolutionEngine.EdgeMode.ZERO;
+        ConvolutionEngine.Rounding rounding = parallel ? ConvolutionEngine.Rounding.ROUND
+                : ConvolutionEngine.Rounding.TRUNCATE;
+        int tile = alignUp(TiledExecutor.tileSizeFor(1, 1), align);
+        return progressive(inputImage, gradientKey(type, edges, rounding), tile, tile, parallel, listener,
+                (src, dst, x0, y0, x1, y1) -> GradientOperator.gradientRegion(src, dst, null, type, edges, rounding,
+                        x0, y0, x1, y1));
+    }
+
+    private static String gradientKey(GradientOperator.Type type, ConvolutionEngine.EdgeMode edges,
+                                      ConvolutionEngine.Rounding rounding) {
+        return "gradient " + type + " " + edges + " " + rounding;
+    }
+
+    // On TiledExecutor's pool, or tile after tile on this thread when not parallel
+    private static BufferedImage progressive(BufferedImage inputImage, String key, int tileWidth, int tileHeight,
+                                             boolean parallel, TileListener listener, RegionFilter filter) {
+        return ResultCache.apply(inputImage, key, () -> {
+            int width = inputImage.getWidth();
+            int height = inputImage.getHeight();
+
+            PixelPlanes source = PixelPlanes.fromImage(inputImage);
+            PixelPlanes result = new PixelPlanes(width, height);
+
+            TiledExecutor.TileTask task = (x0, y0, x1, y1) -> {
+                filter.run(source, result, x0, y0, x1, y1);
+                listener.tileDone(result, x0, y0, x1, y1);
+            };
+            if (parallel) {
+                TiledExecutor.forEachTile(width, height, tileWidth, tileHeight, task);
+            } else {
+                for (int y = 0; y < height; y += tileHeight) {
+                    for (int x = 0; x < width; x += tileWidth) {
+                        task.run(x, y, Math.min(width, x + tileWidth), Math.min(height, y + tileHeight));
+                    }
+                }
             }
+            return result.toImage(inputImage.getType());
         });
+    }
+
+    private static int alignUp(int size, int align) {
+        return (size + align - 1) / align * align;
+    }
+
+    // Transforms are not cached: they cost less than hashing the input
+    public static BufferedImage applyMirror(BufferedImage inputImage) {
+        return GeometricTransform.apply(inputImage, GeometricTransform.Type.MIRROR, false);
+    }
+
+    public static BufferedImage applyMirrorParallel(BufferedImage inputImage) {
+        return GeometricTransform.apply(inputImage, GeometricTransform.Type.MIRROR, true);
+    }
+
+    // Mirror, flips, rotations and transpose (see GeometricTransform)
+    public static BufferedImage applyTransform(BufferedImage inputImage, GeometricTransform.Type type,
+                                               boolean parallel) {
+        return GeometricTransform.apply(inputImage, type, parallel);
+    }
 
-        return outputImage;
+    // The same in inputImage's own buffer; transpose and the quarter turns need a square image
+    public static void applyTransformInPlace(BufferedImage inputImage, GeometricTransform.Type type,
+                                             boolean parallel) {
+        GeometricTransform.applyInPlace(inputImage, type, parallel);
     }
 
     private static int clamp(int value, int min, int max) {
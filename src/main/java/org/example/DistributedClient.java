@@ -0,0 +1,109 @@
+package org.example;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+// Client side of "RealDistributedConvolution --serve": the service keeps the MPI ranks and their
+// JIT-compiled code alive and takes one job per connection on a localhost port, so a job costs its
+// transfers and compute instead of an mpjrun launch. Requests and replies:
+//   PING                                           -> OK
+//   JOB, operation (UTF), width, height, planes    -> OK, width, height, planes  or  ERROR, message (UTF)
+//   SHUTDOWN                                       -> OK, then the ranks exit
+// where planes are the image in PixelCodec's PLANAR format.
+public final class DistributedClient {
+
+    public static final int DEFAULT_PORT = 47215;
+
+    static final int PING = 0;
+    static final int JOB = 1;
+    static final int SHUTDOWN = 2;
+    static final int OK = 0;
+    static final int ERROR = 1;
+
+    private static final int CONNECT_TIMEOUT_MS = 500;
+
+    private DistributedClient() {
+    }
+
+    public static boolean isRunning(int port) {
+        try (Socket socket = connect(port)) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeInt(PING);
+            out.flush();
+            return new DataInputStream(socket.getInputStream()).readInt() == OK;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // operation is anything RealDistributedConvolution takes on its command line, e.g. "sobel" or "box:5"
+    public static BufferedImage submit(BufferedImage image, String operation, int port) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        byte[] pixels = PixelCodec.encode(PixelPlanes.fromImage(image), 0, height, PixelCodec.Format.PLANAR);
+        try (Socket socket = connect(port)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeInt(JOB);
+            out.writeUTF(operation);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.write(pixels);
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            if (in.readInt() != OK) {
+                throw new IOException("Distributed service: " + in.readUTF());
+            }
+            PixelPlanes result = readPlanes(in);
+            return result.toImage(BufferedImage.TYPE_INT_RGB);
+        }
+    }
+
+    public static void shutdown(int port) throws IOException {
+        try (Socket socket = connect(port)) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeInt(SHUTDOWN);
+            out.flush();
+            new DataInputStream(socket.getInputStream()).readInt();
+        }
+    }
+
+    // Width, height and the PLANAR pixels, as written by writePlanes
+    static PixelPlanes readPlanes(DataInputStream in) throws IOException {
+        int width = in.readInt();
+        int height = in.readInt();
+        if (width <= 0 || height <= 0 || (long) width * height * 3 > Integer.MAX_VALUE) {
+            throw new IOException("Bad image size " + width + "x" + height);
+        }
+        byte[] pixels = new byte[3 * width * height];
+        in.readFully(pixels);
+        PixelPlanes planes = new PixelPlanes(width, height);
+        PixelCodec.decode(pixels, pixels.length, PixelCodec.Format.PLANAR, planes, 0, height);
+        return planes;
+    }
+
+    static void writePlanes(DataOutputStream out, PixelPlanes planes) throws IOException {
+        out.writeInt(planes.getWidth());
+        out.writeInt(planes.getHeight());
+        out.write(PixelCodec.encode(planes, 0, planes.getHeight(), PixelCodec.Format.PLANAR));
+    }
+
+    private static Socket connect(int port) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), CONNECT_TIMEOUT_MS);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
+}
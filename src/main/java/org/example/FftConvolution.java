@@ -0,0 +1,298 @@
+package org.example;
+
+import java.util.Arrays;
+
+// FFT backend for large kernels. The region is extended by the kernel halo, cut into blocks,
+// and each block is convolved in the frequency domain and overlap-added into a band accumulator
+// that only holds one row of blocks plus the kernel overlap.
+public final class FftConvolution {
+
+    private static final int MIN_FFT_SIZE = 64;
+    // Cost of one complex butterfly in direct multiply-adds; puts the crossover near 9x9 on a single core
+    private static final double BUTTERFLY_COST = 6.0;
+
+    // Plan and kernel spectrum of the last kernel on this thread; band and tile drivers convolve many
+    // regions with the same kernel
+    private static final ThreadLocal<Prepared> PREPARED = new ThreadLocal<>();
+
+    private FftConvolution() {
+    }
+
+    // True when the estimated FFT cost per pixel of a width x height region is below the direct tap count.
+    // The region is padded to whole blocks and the kernel transformed once per call, so thin or small
+    // regions fall back to direct taps.
+    public static boolean isPreferred(double[][] kernel, int width, int height) {
+        int kernelWidth = kernel.length;
+        int kernelHeight = kernel[0].length;
+        int taps = 0;
+        for (double[] column : kernel) {
+            for (double weight : column) {
+                if (weight != 0) {
+                    taps++;
+                }
+            }
+        }
+        int n = fftSize(kernelWidth, kernelHeight);
+        int blockWidth = n - kernelWidth + 1;
+        int blockHeight = n - kernelHeight + 1;
+        long blocks = (long) ((width + kernelWidth - 2) / blockWidth + 1) * ((height + kernelHeight - 2) / blockHeight + 1);
+        // Two forward and two inverse n x n transforms per block cover the three channels
+        double butterflies = (4.0 * blocks + 1) * n * n * log2(n);
+        double perPixel = butterflies * BUTTERFLY_COST / (3.0 * width * height);
+        return perPixel < taps;
+    }
+
+    // Output rows one block covers; a band driver should not cut regions shorter than this
+    public static int blockHeight(double[][] kernel) {
+        return fftSize(kernel.length, kernel[0].length) - kernel[0].length + 1;
+    }
+
+    public static void convolveRegion(PixelPlanes src, PixelPlanes dst, double[][] kernel,
+                                      ConvolutionEngine.EdgeMode edges, ConvolutionEngine.Rounding rounding,
+                                      int x0, int y0, int x1, int y1) {
+        int width = src.getWidth();
+        int height = src.getHeight();
+        int kernelWidth = kernel.length;
+        int kernelHeight = kernel[0].length;
+        int kx = kernelWidth / 2;
+        int ky = kernelHeight / 2;
+
+        Prepared prepared = PREPARED.get();
+        if (prepared == null || !Arrays.deepEquals(prepared.kernel, kernel)) {
+            prepared = new Prepared(kernel);
+            PREPARED.set(prepared);
+        }
+        Plan plan = prepared.plan;
+        int n = plan.n;
+        double[] kernelRe = prepared.kernelRe;
+        double[] kernelIm = prepared.kernelIm;
+        int blockWidth = n - kernelWidth + 1;
+        int blockHeight = n - kernelHeight + 1;
+
+        // Extended input: output region plus halo, sampled with the engine's edge policy
+        int extX = x0 - kx;
+        int extY = y0 - ky;
+        int extWidth = (x1 - x0) + kernelWidth - 1;
+        int extHeight = (y1 - y0) + kernelHeight - 1;
+
+        int accWidth = extWidth + kernelWidth - 1;
+        int accHeight = blockHeight + kernelHeight - 1;
+        double[][] acc = new double[3][accWidth * accHeight];
+        double[] re = new double[n * n];
+        double[] im = new double[n * n];
+        byte[][] in = {src.getRed(), src.getGreen(), src.getBlue()};
+        byte[][] out = {dst.getRed(), dst.getGreen(), dst.getBlue()};
+
+        for (int by = 0; by < extHeight; by += blockHeight) {
+            int bh = Math.min(blockHeight, extHeight - by);
+            for (int bx = 0; bx < extWidth; bx += blockWidth) {
+                int bw = Math.min(blockWidth, extWidth - bx);
+                // Red and green share one complex transform, blue takes the second
+                for (int pass = 0; pass < 2; pass++) {
+                    Arrays.fill(re, 0);
+                    Arrays.fill(im, 0);
+                    for (int v = 0; v < bh; v++) {
+                        int pixelY = extY + by + v;
+                        if (edges == ConvolutionEngine.EdgeMode.ZERO && (pixelY < 0 || pixelY >= height)) {
+                            continue;
+                        }
+                        int row = ConvolutionEngine.clamp(pixelY, 0, height - 1) * width;
+                        for (int u = 0; u < bw; u++) {
+                            int pixelX = extX + bx + u;
+                            if (edges == ConvolutionEngine.EdgeMode.ZERO && (pixelX < 0 || pixelX >= width)) {
+                                continue;
+                            }
+                            int p = row + ConvolutionEngine.clamp(pixelX, 0, width - 1);
+                            if (pass == 0) {
+                                re[v * n + u] = in[0][p] & 0xFF;
+                                im[v * n + u] = in[1][p] & 0xFF;
+                            } else {
+                                re[v * n + u] = in[2][p] & 0xFF;
+                            }
+                        }
+                    }
+
+                    plan.forward(re, im, bh);
+                    for (int i = 0; i < n * n; i++) {
+                        double r = re[i] * kernelRe[i] - im[i] * kernelIm[i];
+                        double m = re[i] * kernelIm[i] + im[i] * kernelRe[i];
+                        re[i] = r;
+                        im[i] = m;
+                    }
+                    int usedHeight = bh + kernelHeight - 1;
+                    int usedWidth = bw + kernelWidth - 1;
+                    plan.inverse(re, im, usedHeight);
+
+                    for (int v = 0; v < usedHeight; v++) {
+                        int accRow = v * accWidth + bx;
+                        for (int u = 0; u < usedWidth; u++) {
+                            if (pass == 0) {
+                                acc[0][accRow + u] += re[v * n + u];
+                                acc[1][accRow + u] += im[v * n + u];
+                            } else {
+                                acc[2][accRow + u] += re[v * n + u];
+                            }
+                        }
+                    }
+                }
+            }
+
+            // Rows [by, by + blockHeight) of the full convolution are complete; output row y sits at
+            // y - y0 + kernelHeight - 1 and column x at x - x0 + kernelWidth - 1
+            for (int v = 0; v < blockHeight; v++) {
+                int y = by + v - (kernelHeight - 1) + y0;
+                if (y < y0 || y >= y1) {
+                    continue;
+                }
+                int accRow = v * accWidth + kernelWidth - 1;
+                int outRow = y * width + x0;
+                for (int c = 0; c < 3; c++) {
+                    for (int x = 0; x < x1 - x0; x++) {
+                        out[c][outRow + x] = ConvolutionEngine.toByte(acc[c][accRow + x], rounding);
+                    }
+                }
+            }
+            // Carry the overlap into the next band
+            for (int c = 0; c < 3; c++) {
+                System.arraycopy(acc[c], blockHeight * accWidth, acc[c], 0, (kernelHeight - 1) * accWidth);
+                Arrays.fill(acc[c], (kernelHeight - 1) * accWidth, acc[c].length, 0);
+            }
+        }
+    }
+
+    static int fftSize(int kernelWidth, int kernelHeight) {
+        int needed = 2 * Math.max(kernelWidth, kernelHeight);
+        int n = MIN_FFT_SIZE;
+        while (n < needed) {
+            n <<= 1;
+        }
+        return n;
+    }
+
+    private static int log2(int n) {
+        return 31 - Integer.numberOfLeadingZeros(n);
+    }
+
+    private static final class Prepared {
+        final double[][] kernel;
+        final Plan plan;
+        final double[] kernelRe;
+        final double[] kernelIm;
+
+        Prepared(double[][] kernel) {
+            int kernelWidth = kernel.length;
+            int kernelHeight = kernel[0].length;
+            this.kernel = new double[kernelWidth][];
+            for (int a = 0; a < kernelWidth; a++) {
+                this.kernel[a] = kernel[a].clone();
+            }
+            int n = fftSize(kernelWidth, kernelHeight);
+            plan = new Plan(n);
+
+            // The engine correlates; convolving with the flipped kernel gives the same sums
+            kernelRe = new double[n * n];
+            kernelIm = new double[n * n];
+            for (int a = 0; a < kernelWidth; a++) {
+                for (int b = 0; b < kernelHeight; b++) {
+                    kernelRe[b * n + a] = kernel[kernelWidth - 1 - a][kernelHeight - 1 - b];
+                }
+            }
+            plan.forward(kernelRe, kernelIm, kernelHeight);
+        }
+    }
+
+    // Radix-2 transforms of an n x n row-major grid with precomputed twiddles
+    static final class Plan {
+        private final int n;
+        private final int[] reversed;
+        private final double[] cos;
+        private final double[] sin;
+        private final double[] columnRe;
+        private final double[] columnIm;
+
+        Plan(int n) {
+            this.n = n;
+            int bits = log2(n);
+            reversed = new int[n];
+            for (int i = 0; i < n; i++) {
+                reversed[i] = Integer.reverse(i) >>> (32 - bits);
+            }
+            cos = new double[n / 2];
+            sin = new double[n / 2];
+            for (int i = 0; i < n / 2; i++) {
+                cos[i] = Math.cos(2 * Math.PI * i / n);
+                sin[i] = Math.sin(2 * Math.PI * i / n);
+            }
+            columnRe = new double[n];
+            columnIm = new double[n];
+        }
+
+        // Rows at or past nonZeroRows are known to be zero and skip their row transform
+        void forward(double[] re, double[] im, int nonZeroRows) {
+            for (int row = 0; row < nonZeroRows; row++) {
+                transform(re, im, row * n, false);
+            }
+            columns(re, im, false);
+        }
+
+        // Only the first usedRows rows are transformed back; the caller ignores the rest
+        void inverse(double[] re, double[] im, int usedRows) {
+            columns(re, im, true);
+            double scale = 1.0 / ((double) n * n);
+            for (int row = 0; row < usedRows; row++) {
+                transform(re, im, row * n, true);
+                for (int i = row * n; i < (row + 1) * n; i++) {
+                    re[i] *= scale;
+                    im[i] *= scale;
+                }
+            }
+        }
+
+        private void columns(double[] re, double[] im, boolean inverse) {
+            for (int col = 0; col < n; col++) {
+                for (int row = 0; row < n; row++) {
+                    columnRe[row] = re[row * n + col];
+                    columnIm[row] = im[row * n + col];
+                }
+                transform(columnRe, columnIm, 0, inverse);
+                for (int row = 0; row < n; row++) {
+                    re[row * n + col] = columnRe[row];
+                    im[row * n + col] = columnIm[row];
+                }
+            }
+        }
+
+        private void transform(double[] re, double[] im, int offset, boolean inverse) {
+            for (int i = 0; i < n; i++) {
+                int j = reversed[i];
+                if (j > i) {
+                    double t = re[offset + i];
+                    re[offset + i] = re[offset + j];
+                    re[offset + j] = t;
+                    t = im[offset + i];
+                    im[offset + i] = im[offset + j];
+                    im[offset + j] = t;
+                }
+            }
+            double sign = inverse ? 1 : -1;
+            for (int size = 2; size <= n; size <<= 1) {
+                int half = size >> 1;
+                int step = n / size;
+                for (int start = 0; start < n; start += size) {
+                    for (int k = 0; k < half; k++) {
+                        double wr = cos[k * step];
+                        double wi = sign * sin[k * step];
+                        int a = offset + start + k;
+                        int b = a + half;
+                        double tr = re[b] * wr - im[b] * wi;
+                        double ti = re[b] * wi + im[b] * wr;
+                        re[b] = re[a] - tr;
+                        im[b] = im[a] - ti;
+                        re[a] += tr;
+                        im[a] += ti;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package org.example;
+
+import java.util.Arrays;
+
+// Integer convolution for 8-bit planes. Weights are quantized to w * 2^shift, with the largest
+// shift up to 16 (Q16) for which 255 * sum|q| still fits an int; sums stay in int and are
+// normalized with an arithmetic shift.
+//
+// Error bound: each quantized weight is off by at most 2^-(shift+1), so before the final rounding
+// the sum differs from the double path by at most 255 * sum|w - q / 2^shift| levels (errorBound).
+// For the 3x3 kernels that is below 0.01 levels, so results only differ, by one level, where the
+// double sum lies that close to a rounding boundary. With TRUNCATE that includes sums such as
+// 9 * (v / 9) that the double path lands a hair below v; the integer path gets v exactly.
+public final class FixedPointConvolution {
+
+    private static final int MAX_SHIFT = 16;
+
+    private static volatile boolean enabled = false;
+
+    private static final ThreadLocal<int[]> ACCUMULATOR = ThreadLocal.withInitial(() -> new int[0]);
+
+    private FixedPointConvolution() {
+    }
+
+    public static void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    // Quantized kernel, or null when the weights are too large for int sums at any shift
+    public static Quantized quantize(double[][] kernel) {
+        for (int shift = MAX_SHIFT; shift >= 0; shift--) {
+            double scale = 1 << shift;
+            long sumAbs = 0;
+            int[][] weights = new int[kernel.length][kernel[0].length];
+            boolean fits = true;
+            for (int i = 0; i < kernel.length && fits; i++) {
+                for (int j = 0; j < kernel[0].length; j++) {
+                    double scaled = Math.rint(kernel[i][j] * scale);
+                    if (Double.isNaN(scaled) || Math.abs(scaled) > Integer.MAX_VALUE) {
+                        fits = false;
+                        break;
+                    }
+                    weights[i][j] = (int) scaled;
+                    sumAbs += Math.abs(weights[i][j]);
+                }
+            }
+            // The rounding bias is added on top of the largest possible sum
+            if (fits && 255L * sumAbs + (1L << shift) <= Integer.MAX_VALUE) {
+                return new Quantized(weights, shift, kernel);
+            }
+        }
+        return null;
+    }
+
+    public static final class Quantized {
+        final int[][] weights;
+        final int shift;
+        final double errorBound;
+
+        private Quantized(int[][] weights, int shift, double[][] kernel) {
+            this.weights = weights;
+            this.shift = shift;
+            double error = 0;
+            for (int i = 0; i < kernel.length; i++) {
+                for (int j = 0; j < kernel[0].length; j++) {
+                    error += Math.abs(kernel[i][j] - weights[i][j] / (double) (1 << shift));
+                }
+            }
+            this.errorBound = 255 * error;
+        }
+
+        public int getShift() {
+            return shift;
+        }
+
+        // Largest difference from the exact double sum, in levels, before rounding
+        public double getErrorBound() {
+            return errorBound;
+        }
+    }
+
+    // Returns false (leaving dst untouched) if the kernel cannot be quantized
+    public static boolean convolveRegion(PixelPlanes src, PixelPlanes dst, double[][] kernel,
+                                         ConvolutionEngine.EdgeMode edges, ConvolutionEngine.Rounding rounding,
+                                         int x0, int y0, int x1, int y1) {
+        Quantized quantized = quantize(kernel);
+        if (quantized == null) {
+            return false;
+        }
+        int width = src.getWidth();
+        int height = src.getHeight();
+        int kernelWidth = kernel.length;
+        int kernelHeight = kernel[0].length;
+        int kx = kernelWidth / 2;
+        int ky = kernelHeight / 2;
+        int span = x1 - x0;
+        int shift = quantized.shift;
+        int bias = rounding == ConvolutionEngine.Rounding.ROUND && shift > 0 ? 1 << (shift - 1) : 0;
+        boolean zero = edges == ConvolutionEngine.EdgeMode.ZERO;
+
+        int[] acc = ACCUMULATOR.get();
+        if (acc.length < span) {
+            acc = new int[span];
+            ACCUMULATOR.set(acc);
+        }
+
+        byte[][] in = {src.getRed(), src.getGreen(), src.getBlue()};
+        byte[][] out = {dst.getRed(), dst.getGreen(), dst.getBlue()};
+        for (int c = 0; c < 3; c++) {
+            byte[] plane = in[c];
+            for (int y = y0; y < y1; y++) {
+                Arrays.fill(acc, 0, span, bias);
+                for (int j = 0; j < kernelHeight; j++) {
+                    int pixelY = y + j - ky;
+                    if (zero && (pixelY < 0 || pixelY >= height)) {
+                        continue;
+                    }
+                    int rowStart = ConvolutionEngine.clamp(pixelY, 0, height - 1) * width;
+                    for (int i = 0; i < kernelWidth; i++) {
+                        int weight = quantized.weights[i][j];
+                        if (weight == 0) {
+                            continue;
+                        }
+                        // Columns whose tap lands inside the row, then the clamped or skipped edges
+                        int from = ConvolutionEngine.clamp(kx - i, x0, x1);
+                        int to = ConvolutionEngine.clamp(width + kx - i, from, x1);
+                        int shiftX = rowStart + i - kx;
+                        for (int x = from; x < to; x++) {
+                            acc[x - x0] += weight * (plane[shiftX + x] & 0xFF);
+                        }
+                        if (!zero) {
+                            int left = weight * (plane[rowStart] & 0xFF);
+                            for (int x = x0; x < from; x++) {
+                                acc[x - x0] += left;
+                            }
+                            int right = weight * (plane[rowStart + width - 1] & 0xFF);
+                            for (int x = to; x < x1; x++) {
+                                acc[x - x0] += right;
+                            }
+                        }
+                    }
+                }
+                // Arithmetic shift floors; negative sums clamp to 0 either way, so this matches
+                // truncation (TRUNCATE) and Math.round (ROUND) for every level that survives
+                byte[] target = out[c];
+                int outRow = y * width + x0;
+                for (int x = 0; x < span; x++) {
+                    target[outRow + x] = (byte) ConvolutionEngine.clamp(acc[x] >> shift, 0, 255);
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,549 @@
+package org.example;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+// Mirror, flips, rotations and transpose. Every one of them is an optional transpose followed by an
+// optional flip of x (each row reversed) and of y (row order reversed):
+//   MIRROR         flip x
+//   FLIP_VERTICAL  flip y
+//   ROTATE_180     flip x and y
+//   TRANSPOSE      transpose
+//   ROTATE_90      transpose, flip x (clockwise)
+//   ROTATE_270     transpose, flip y
+// which is what lets the distributed code run them on row bands: the flips stay inside a band (flip y
+// also moves the band), only the transpose needs pixels from other bands.
+//
+// Images are transformed in their DataBuffer: whole pixels (alpha and padding included) move as
+// System.arraycopy row copies, reversed rows or blocks of a transpose, and applyInPlace allocates
+// no image (Main's --in-place). Layouts with more than one bank go through the Raster instead.
+public final class GeometricTransform {
+
+    // Transpose blocks are split until both sides fit; 32 x 32 ints is a quarter of a 16 KB L1
+    private static final int BLOCK = 32;
+    private static final int BAND_ROWS = 64;
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INTS = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    // One row of an in-place reversal or row swap, reused across calls on the same thread
+    private static final ThreadLocal<int[]> INT_ROW = ThreadLocal.withInitial(() -> new int[0]);
+    private static final ThreadLocal<byte[]> BYTE_ROW = ThreadLocal.withInitial(() -> new byte[0]);
+
+    public enum Type {
+        MIRROR(false, true, false),
+        FLIP_VERTICAL(false, false, true),
+        ROTATE_90(true, true, false),
+        ROTATE_180(false, true, true),
+        ROTATE_270(true, false, true),
+        TRANSPOSE(true, false, false);
+
+        private final boolean transpose;
+        private final boolean flipX;
+        private final boolean flipY;
+
+        Type(boolean transpose, boolean flipX, boolean flipY) {
+            this.transpose = transpose;
+            this.flipX = flipX;
+            this.flipY = flipY;
+        }
+
+        public boolean transposes() {
+            return transpose;
+        }
+
+        public boolean flipsX() {
+            return flipX;
+        }
+
+        public boolean flipsY() {
+            return flipY;
+        }
+
+        public int outputWidth(int width, int height) {
+            return transpose ? height : width;
+        }
+
+        public int outputHeight(int width, int height) {
+            return transpose ? width : height;
+        }
+
+        public static Type forOperation(String operation) {
+            switch (operation.toLowerCase()) {
+                case "mirror":
+                case "flip-horizontal":
+                    return MIRROR;
+                case "flip":
+                case "flip-vertical":
+                    return FLIP_VERTICAL;
+                case "rotate90":
+                    return ROTATE_90;
+                case "rotate180":
+                    return ROTATE_180;
+                case "rotate270":
+                    return ROTATE_270;
+                case "transpose":
+                    return TRANSPOSE;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    private GeometricTransform() {
+    }
+
+    // A new image of the same layout holding the transformed pixels
+    public static BufferedImage apply(BufferedImage image, Type type, boolean parallel) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int outputHeight = type.outputHeight(width, height);
+        ColorModel cm = image.getColorModel();
+        WritableRaster raster = image.getRaster().createCompatibleWritableRaster(type.outputWidth(width, height),
+                outputHeight);
+        BufferedImage result = new BufferedImage(cm, raster, cm.isAlphaPremultiplied(), null);
+
+        Layout src = Layout.of(image.getRaster());
+        Layout dst = Layout.of(raster);
+        if (src == null || !src.matches(dst)) {
+            transformElements(image.getRaster(), raster, type);
+            return result;
+        }
+        forBands(outputHeight, parallel, (y0, y1) -> transformRows(src, dst, type, width, height, y0, y1));
+        return result;
+    }
+
+    // Transforms the image in its own buffer; transpose and the quarter turns need a square image
+    public static void applyInPlace(BufferedImage image, Type type, boolean parallel) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (type.transposes() && width != height) {
+            throw new IllegalArgumentException(type + " in place needs a square image, got " + width + "x" + height);
+        }
+        Layout layout = Layout.of(image.getRaster());
+        if (layout == null) {
+            image.getRaster().setDataElements(0, 0, apply(image, type, parallel).getRaster());
+            return;
+        }
+        if (type.transposes()) {
+            int blocks = (width + BLOCK - 1) / BLOCK;
+            IntStream rows = IntStream.range(0, blocks);
+            (parallel ? rows.parallel() : rows).forEach(b -> transposeInPlace(layout, width, b, blocks));
+        }
+        boolean flipX = type.flipsX();
+        if (type.flipsY()) {
+            forBands(height / 2, parallel, (y0, y1) -> {
+                for (int y = y0; y < y1; y++) {
+                    layout.swapRows(y, height - 1 - y, width, flipX);
+                }
+            });
+            if (flipX && height % 2 == 1) {
+                layout.reverseRow(height / 2, width);
+            }
+        } else if (flipX) {
+            forBands(height, parallel, (y0, y1) -> {
+                for (int y = y0; y < y1; y++) {
+                    layout.reverseRow(y, width);
+                }
+            });
+        }
+    }
+
+    public static PixelPlanes apply(PixelPlanes src, Type type) {
+        int width = src.getWidth();
+        int height = src.getHeight();
+        PixelPlanes result = src;
+        if (type.transposes()) {
+            result = new PixelPlanes(height, width);
+            byte[] block = new byte[3 * width * height];
+            transposeBlock(src, 0, 0, width, height, block, 0);
+            placeBlock(block, 0, result, 0, 0, width, height);
+        } else {
+            result = new PixelPlanes(width, height);
+            copyPlanes(src, result);
+        }
+        flipRows(result, 0, result.getHeight(), type.flipsX(), type.flipsY());
+        return result;
+    }
+
+    // Rows [y0, y1) of planes in place: each row reversed (flipX) and/or the row order reversed (flipY)
+    public static void flipRows(PixelPlanes planes, int y0, int y1, boolean flipX, boolean flipY) {
+        int width = planes.getWidth();
+        byte[][] data = {planes.getRed(), planes.getGreen(), planes.getBlue()};
+        for (byte[] plane : data) {
+            if (flipY) {
+                for (int top = y0, bottom = y1 - 1; top < bottom; top++, bottom--) {
+                    int a = top * width;
+                    int b = bottom * width;
+                    for (int x = 0; x < width; x++) {
+                        byte swap = plane[a + x];
+                        plane[a + x] = plane[b + x];
+                        plane[b + x] = swap;
+                    }
+                }
+            }
+            if (flipX) {
+                for (int y = y0; y < y1; y++) {
+                    for (int left = y * width, right = left + width - 1; left < right; left++, right--) {
+                        byte swap = plane[left];
+                        plane[left] = plane[right];
+                        plane[right] = swap;
+                    }
+                }
+            }
+        }
+    }
+
+    // The region [x0, x1) x [y0, y1) of src, transposed, as three planes of (x1 - x0) rows of (y1 - y0)
+    // pixels starting at offset in block
+    public static void transposeBlock(PixelPlanes src, int x0, int y0, int x1, int y1, byte[] block, int offset) {
+        int width = src.getWidth();
+        int rows = x1 - x0;
+        int columns = y1 - y0;
+        byte[][] data = {src.getRed(), src.getGreen(), src.getBlue()};
+        for (int c = 0; c < 3; c++) {
+            byte[] plane = data[c];
+            int base = offset + c * rows * columns;
+            for (int y = y0; y < y1; y++) {
+                int in = y * width + x0;
+                int out = base + (y - y0);
+                for (int i = 0; i < rows; i++, out += columns) {
+                    block[out] = plane[in + i];
+                }
+            }
+        }
+    }
+
+    // Writes a block laid out like transposeBlock's (three planes of rows x columns) into dst at (x, y)
+    public static void placeBlock(byte[] block, int offset, PixelPlanes dst, int x, int y, int rows, int columns) {
+        int width = dst.getWidth();
+        byte[][] data = {dst.getRed(), dst.getGreen(), dst.getBlue()};
+        for (int c = 0; c < 3; c++) {
+            int base = offset + c * rows * columns;
+            for (int i = 0; i < rows; i++) {
+                System.arraycopy(block, base + i * columns, data[c], (y + i) * width + x, columns);
+            }
+        }
+    }
+
+    // Output rows [y0, y1). Output pixel (x, y) is source (sx, sy) with, when transposing,
+    // sx = y (W - 1 - y under flip y) and sy = x (H - 1 - x under flip x)
+    private static void transformRows(Layout src, Layout dst, Type type, int width, int height, int y0, int y1) {
+        if (type.transposes()) {
+            transposeRegion(src, dst, type, width, height, 0, y0, height, y1);
+            return;
+        }
+        for (int y = y0; y < y1; y++) {
+            int sourceY = type.flipsY() ? height - 1 - y : y;
+            if (type.flipsX()) {
+                src.reverseRow(sourceY, dst, y, width);
+            } else {
+                src.copyRow(sourceY, dst, y, width);
+            }
+        }
+    }
+
+    // Halves the longer side until the block fits in cache, whatever its size (cache-oblivious)
+    private static void transposeRegion(Layout src, Layout dst, Type type, int width, int height,
+                                        int x0, int y0, int x1, int y1) {
+        if (x1 - x0 > BLOCK || y1 - y0 > BLOCK) {
+            if (x1 - x0 >= y1 - y0) {
+                int middle = (x0 + x1) >>> 1;
+                transposeRegion(src, dst, type, width, height, x0, y0, middle, y1);
+                transposeRegion(src, dst, type, width, height, middle, y0, x1, y1);
+            } else {
+                int middle = (y0 + y1) >>> 1;
+                transposeRegion(src, dst, type, width, height, x0, y0, x1, middle);
+                transposeRegion(src, dst, type, width, height, x0, middle, x1, y1);
+            }
+            return;
+        }
+        int step = type.flipsX() ? -1 : 1;
+        int sourceY = type.flipsX() ? height - 1 - x0 : x0;
+        for (int y = y0; y < y1; y++) {
+            int sourceX = type.flipsY() ? width - 1 - y : y;
+            src.copyColumn(sourceX, sourceY, step, dst, dst.index(x0, y), x1 - x0);
+        }
+    }
+
+    // Swaps (x, y) and (y, x) for y < x in block row b, from the diagonal block to the right
+    private static void transposeInPlace(Layout layout, int size, int b, int blocks) {
+        int y0 = b * BLOCK;
+        int y1 = Math.min(size, y0 + BLOCK);
+        for (int column = b; column < blocks; column++) {
+            int x0 = column * BLOCK;
+            int x1 = Math.min(size, x0 + BLOCK);
+            for (int y = y0; y < y1; y++) {
+                for (int x = Math.max(x0, y + 1); x < x1; x++) {
+                    layout.swap(layout.index(x, y), layout.index(y, x));
+                }
+            }
+        }
+    }
+
+    // Any other layout, one pixel's data elements at a time
+    private static void transformElements(WritableRaster src, WritableRaster dst, Type type) {
+        int width = src.getWidth();
+        int height = src.getHeight();
+        int minX = src.getMinX();
+        int minY = src.getMinY();
+        Object pixel = null;
+        for (int y = 0; y < dst.getHeight(); y++) {
+            for (int x = 0; x < dst.getWidth(); x++) {
+                int sourceX = type.transposes() ? y : x;
+                int sourceY = type.transposes() ? x : y;
+                if (type.transposes() ? type.flipsY() : type.flipsX()) {
+                    sourceX = width - 1 - sourceX;
+                }
+                if (type.transposes() ? type.flipsX() : type.flipsY()) {
+                    sourceY = height - 1 - sourceY;
+                }
+                pixel = src.getDataElements(minX + sourceX, minY + sourceY, pixel);
+                dst.setDataElements(x, y, pixel);
+            }
+        }
+    }
+
+    private interface RowRange {
+        void run(int y0, int y1);
+    }
+
+    private static void forBands(int rows, boolean parallel, RowRange range) {
+        int bands = (rows + BAND_ROWS - 1) / BAND_ROWS;
+        IntStream stream = IntStream.range(0, bands);
+        (parallel ? stream.parallel() : stream).forEach(b ->
+                range.run(b * BAND_ROWS, Math.min(rows, (b + 1) * BAND_ROWS)));
+    }
+
+    // A raster whose pixels are groups of stride elements in a single int[] (packed, stride 1) or
+    // byte[] (interleaved) bank
+    private static final class Layout {
+        private final int[] ints;
+        private final byte[] bytes;
+        private final int offset;
+        private final int scanline;
+        private final int stride;
+        private final int[] bands;
+
+        private Layout(int[] ints, byte[] bytes, int offset, int scanline, int stride, int[] bands) {
+            this.ints = ints;
+            this.bytes = bytes;
+            this.offset = offset;
+            this.scanline = scanline;
+            this.stride = stride;
+            this.bands = bands;
+        }
+
+        static Layout of(WritableRaster raster) {
+            SampleModel sm = raster.getSampleModel();
+            DataBuffer db = raster.getDataBuffer();
+            int scanline;
+            int stride;
+            int[] bands;
+            if (sm instanceof SinglePixelPackedSampleModel) {
+                scanline = ((SinglePixelPackedSampleModel) sm).getScanlineStride();
+                stride = 1;
+                bands = ((SinglePixelPackedSampleModel) sm).getBitMasks();
+            } else if (sm instanceof ComponentSampleModel && db instanceof DataBufferByte && db.getNumBanks() == 1) {
+                ComponentSampleModel csm = (ComponentSampleModel) sm;
+                scanline = csm.getScanlineStride();
+                stride = csm.getPixelStride();
+                bands = csm.getBandOffsets();
+                for (int band : bands) {
+                    if (band < 0 || band >= stride) {
+                        return null;
+                    }
+                }
+            } else {
+                return null;
+            }
+            int smX = raster.getMinX() - raster.getSampleModelTranslateX();
+            int smY = raster.getMinY() - raster.getSampleModelTranslateY();
+            int offset = db.getOffset() + smY * scanline + smX * stride;
+            if (db instanceof DataBufferInt) {
+                return new Layout(((DataBufferInt) db).getData(), null, offset, scanline, stride, bands);
+            }
+            if (db instanceof DataBufferByte) {
+                return new Layout(null, ((DataBufferByte) db).getData(), offset, scanline, stride, bands);
+            }
+            return null;
+        }
+
+        boolean matches(Layout other) {
+            return other != null && (ints == null) == (other.ints == null) && stride == other.stride
+                    && Arrays.equals(bands, other.bands);
+        }
+
+        int index(int x, int y) {
+            return offset + y * scanline + x * stride;
+        }
+
+        void copyRow(int sourceY, Layout dst, int y, int width) {
+            System.arraycopy(ints != null ? ints : bytes, index(0, sourceY),
+                    dst.ints != null ? dst.ints : dst.bytes, dst.index(0, y), width * stride);
+        }
+
+        // Row sourceY reversed into row y of dst
+        void reverseRow(int sourceY, Layout dst, int y, int width) {
+            if (ints != null) {
+                reverseInts(ints, index(width - 1, sourceY), dst.ints, dst.index(0, y), width);
+            } else {
+                reverseBytes(bytes, index(width - 1, sourceY), dst.bytes, dst.index(0, y), width);
+            }
+        }
+
+        // width pixels, the first of them at last and the rest before it, into to onwards; the ranges
+        // must not overlap
+        private static void reverseInts(int[] from, int last, int[] to, int first, int width) {
+            for (int x = 0; x < width; x++) {
+                to[first + x] = from[last - x];
+            }
+        }
+
+        // As reverseInts for pixels of stride bytes. Three-byte pixels go eight at a time as three
+        // little-endian longs, pixel k of a group at bits 24k; four-byte pixels move as one int
+        private void reverseBytes(byte[] from, int last, byte[] to, int first, int width) {
+            int x = 0;
+            if (stride == 3) {
+                for (; x + 8 <= width; x += 8) {
+                    // Source pixels of output pixels x + 7 down to x, in ascending order
+                    int group = last - 3 * x - 21;
+                    long a0 = (long) LONGS.get(from, group);
+                    long a1 = (long) LONGS.get(from, group + 8);
+                    long a2 = (long) LONGS.get(from, group + 16);
+                    long p0 = a0 & 0xFFFFFF;
+                    long p1 = (a0 >>> 24) & 0xFFFFFF;
+                    long p2 = ((a0 >>> 48) | (a1 << 16)) & 0xFFFFFF;
+                    long p3 = (a1 >>> 8) & 0xFFFFFF;
+                    long p4 = (a1 >>> 32) & 0xFFFFFF;
+                    long p5 = ((a1 >>> 56) | (a2 << 8)) & 0xFFFFFF;
+                    long p6 = (a2 >>> 16) & 0xFFFFFF;
+                    long p7 = (a2 >>> 40) & 0xFFFFFF;
+                    int out = first + 3 * x;
+                    LONGS.set(to, out, p7 | (p6 << 24) | (p5 << 48));
+                    LONGS.set(to, out + 8, (p5 >>> 16) | (p4 << 8) | (p3 << 32) | (p2 << 56));
+                    LONGS.set(to, out + 16, (p2 >>> 8) | (p1 << 16) | (p0 << 40));
+                }
+            } else if (stride == 4) {
+                for (; x < width; x++) {
+                    INTS.set(to, first + 4 * x, (int) INTS.get(from, last - 4 * x));
+                }
+            }
+            for (int in = last - x * stride, out = first + x * stride; x < width; x++, in -= stride, out += stride) {
+                for (int k = 0; k < stride; k++) {
+                    to[out + k] = from[in + k];
+                }
+            }
+        }
+
+        // count pixels of column sourceX from row sourceY on, moving step rows at a time, into one dst row
+        void copyColumn(int sourceX, int sourceY, int step, Layout dst, int to, int count) {
+            int from = index(sourceX, sourceY);
+            int advance = step * scanline;
+            if (ints != null) {
+                for (int i = 0; i < count; i++, from += advance) {
+                    dst.ints[to + i] = ints[from];
+                }
+                return;
+            }
+            for (int i = 0; i < count; i++, from += advance, to += stride) {
+                for (int k = 0; k < stride; k++) {
+                    dst.bytes[to + k] = bytes[from + k];
+                }
+            }
+        }
+
+        // In place: the row goes to a buffer first, so the reversal can read and write whole words
+        void reverseRow(int y, int width) {
+            int start = index(0, y);
+            int length = width * stride;
+            if (ints != null) {
+                int[] row = intRow(length);
+                System.arraycopy(ints, start, row, 0, length);
+                reverseInts(row, length - 1, ints, start, width);
+                return;
+            }
+            byte[] row = byteRow(length);
+            System.arraycopy(bytes, start, row, 0, length);
+            reverseBytes(row, length - stride, bytes, start, width);
+        }
+
+        // Rows a and b exchanged, each reversed on the way if reversed is set
+        void swapRows(int a, int b, int width, boolean reversed) {
+            int startA = index(0, a);
+            int startB = index(0, b);
+            int length = width * stride;
+            if (ints != null) {
+                int[] row = intRow(length);
+                System.arraycopy(ints, startA, row, 0, length);
+                if (reversed) {
+                    reverseInts(ints, startB + length - 1, ints, startA, width);
+                    reverseInts(row, length - 1, ints, startB, width);
+                } else {
+                    System.arraycopy(ints, startB, ints, startA, length);
+                    System.arraycopy(row, 0, ints, startB, length);
+                }
+                return;
+            }
+            byte[] row = byteRow(length);
+            System.arraycopy(bytes, startA, row, 0, length);
+            if (reversed) {
+                reverseBytes(bytes, startB + length - stride, bytes, startA, width);
+                reverseBytes(row, length - stride, bytes, startB, width);
+            } else {
+                System.arraycopy(bytes, startB, bytes, startA, length);
+                System.arraycopy(row, 0, bytes, startB, length);
+            }
+        }
+
+        private static int[] intRow(int length) {
+            int[] row = INT_ROW.get();
+            if (row.length < length) {
+                row = new int[length];
+                INT_ROW.set(row);
+            }
+            return row;
+        }
+
+        private static byte[] byteRow(int length) {
+            byte[] row = BYTE_ROW.get();
+            if (row.length < length) {
+                row = new byte[length];
+                BYTE_ROW.set(row);
+            }
+            return row;
+        }
+
+        void swap(int a, int b) {
+            if (ints != null) {
+                int value = ints[a];
+                ints[a] = ints[b];
+                ints[b] = value;
+                return;
+            }
+            for (int k = 0; k < stride; k++) {
+                byte value = bytes[a + k];
+                bytes[a + k] = bytes[b + k];
+                bytes[b + k] = value;
+            }
+        }
+    }
+
+    private static void copyPlanes(PixelPlanes src, PixelPlanes dst) {
+        System.arraycopy(src.getRed(), 0, dst.getRed(), 0, src.getRed().length);
+        System.arraycopy(src.getGreen(), 0, dst.getGreen(), 0, src.getGreen().length);
+        System.arraycopy(src.getBlue(), 0, dst.getBlue(), 0, src.getBlue().length);
+    }
+}
@@ -0,0 +1,121 @@
+package org.example;
+
+// Sobel and Prewitt gradients in one pass. Both X and Y kernels factor into a [1 w 1] smoothing and a
+// [-1 0 1] difference (w = 2 for Sobel, 1 for Prewitt), so each row keeps two column sums per pixel,
+// the smoothed column and the vertical difference, and Gx and Gy come out of the same three rows:
+//   Gx(x) = smooth(x + 1) - smooth(x - 1)
+//   Gy(x) = diff(x - 1) + w * diff(x) + diff(x + 1)
+// The magnitude sqrt(Gx^2 + Gy^2) is written per channel and clamped to 0..255, like the other
+// kernels. The optional orientation is the edge direction mod 180 degrees, scaled to 0..255.
+public final class GradientOperator {
+
+    public enum Type {
+        SOBEL(2), PREWITT(1);
+
+        private final int centerWeight;
+
+        Type(int centerWeight) {
+            this.centerWeight = centerWeight;
+        }
+
+        // The X kernel as an ordinary 3x3 kernel, e.g. for code that only needs its size
+        public double[][] kernelX() {
+            return new double[][]{
+                    {-1, -centerWeight, -1},
+                    {0, 0, 0},
+                    {1, centerWeight, 1}
+            };
+        }
+
+        public static Type forOperation(String operation) {
+            switch (operation.toLowerCase()) {
+                case "sobel":
+                    return SOBEL;
+                case "prewitt":
+                    return PREWITT;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    private static final ThreadLocal<int[][]> COLUMNS = ThreadLocal.withInitial(() -> new int[2][0]);
+
+    private GradientOperator() {
+    }
+
+    // orientation may be null
+    public static void gradientRegion(PixelPlanes src, PixelPlanes magnitude, PixelPlanes orientation, Type type,
+                                      ConvolutionEngine.EdgeMode edges, ConvolutionEngine.Rounding rounding,
+                                      int x0, int y0, int x1, int y1) {
+        if (x0 >= x1 || y0 >= y1) {
+            return;
+        }
+        int width = src.getWidth();
+        int height = src.getHeight();
+        int w = type.centerWeight;
+        boolean zero = edges == ConvolutionEngine.EdgeMode.ZERO;
+
+        // Columns x0 - 1 .. x1, stored at index x - x0 + 1
+        int span = x1 - x0 + 2;
+        int[][] columns = COLUMNS.get();
+        if (columns[0].length < span) {
+            columns = new int[][]{new int[span], new int[span]};
+            COLUMNS.set(columns);
+        }
+        int[] smooth = columns[0];
+        int[] diff = columns[1];
+
+        byte[][] in = {src.getRed(), src.getGreen(), src.getBlue()};
+        byte[][] out = {magnitude.getRed(), magnitude.getGreen(), magnitude.getBlue()};
+        byte[][] angles = orientation == null ? null
+                : new byte[][]{orientation.getRed(), orientation.getGreen(), orientation.getBlue()};
+        for (int c = 0; c < 3; c++) {
+            byte[] plane = in[c];
+            for (int y = y0; y < y1; y++) {
+                int above = y - 1;
+                int below = y + 1;
+                boolean hasAbove = !zero || above >= 0;
+                boolean hasBelow = !zero || below < height;
+                int rowAbove = ConvolutionEngine.clamp(above, 0, height - 1) * width;
+                int row = y * width;
+                int rowBelow = ConvolutionEngine.clamp(below, 0, height - 1) * width;
+
+                for (int u = 0; u < span; u++) {
+                    int x = x0 - 1 + u;
+                    if (x < 0 || x >= width) {
+                        if (zero) {
+                            smooth[u] = 0;
+                            diff[u] = 0;
+                            continue;
+                        }
+                        x = ConvolutionEngine.clamp(x, 0, width - 1);
+                    }
+                    int a = hasAbove ? plane[rowAbove + x] & 0xFF : 0;
+                    int b = plane[row + x] & 0xFF;
+                    int d = hasBelow ? plane[rowBelow + x] & 0xFF : 0;
+                    smooth[u] = a + w * b + d;
+                    diff[u] = d - a;
+                }
+
+                byte[] target = out[c];
+                for (int x = x0, u = 1; x < x1; x++, u++) {
+                    int gx = smooth[u + 1] - smooth[u - 1];
+                    int gy = diff[u - 1] + w * diff[u] + diff[u + 1];
+                    target[row + x] = ConvolutionEngine.toByte(Math.sqrt((double) gx * gx + (double) gy * gy),
+                            rounding);
+                    if (angles != null) {
+                        // The edge runs across the gradient; fold both directions onto 0..180 degrees
+                        double angle = Math.atan2(gy, gx) + Math.PI / 2;
+                        if (angle < 0) {
+                            angle += Math.PI;
+                        } else if (angle >= Math.PI) {
+                            angle -= Math.PI;
+                        }
+                        angles[c][row + x] = ConvolutionEngine.toByte(angle * (255 / Math.PI), rounding);
+                    }
+                }
+            }
+        }
+    }
+}
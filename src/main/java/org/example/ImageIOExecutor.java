@@ -0,0 +1,236 @@
+package org.example;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Image loads and saves split into blocking file I/O and codec work. The file I/O runs on virtual
+// threads when VirtualThreads is there (src/main/java21, compiled only by the 'java21' Maven profile)
+// and the JVM is 21 or newer, otherwise on a fixed platform pool. Decoding and encoding run on a pool
+// of one thread per core, so thousands of files waiting on the disk cost parked virtual threads rather
+// than OS threads. At most MAX_PENDING_READS read files wait in memory for a decoder; further reads are
+// queued without holding a thread and start as decodes finish. Writes have their own executor, so a
+// batch's output never waits behind its queued reads.
+// RawImage files (.raw) skip the codec: they are mapped and copied on the I/O thread.
+public final class ImageIOExecutor {
+
+    public interface IoThreads {
+        ExecutorService newExecutor();
+
+        String describe();
+    }
+
+    private static final int PLATFORM_IO_THREADS = 16;
+    private static final int MAX_PENDING_READS = 64;
+
+    private static final IoThreads VIRTUAL = load();
+    private static final ExecutorService READS = VIRTUAL != null ? VIRTUAL.newExecutor()
+            : Executors.newFixedThreadPool(PLATFORM_IO_THREADS, daemonThreads("image-read-"));
+    private static final ExecutorService WRITES = VIRTUAL != null ? READS
+            : Executors.newFixedThreadPool(PLATFORM_IO_THREADS, daemonThreads("image-write-"));
+    private static final ExecutorService CODEC = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), daemonThreads("image-codec-"));
+    private static final Semaphore PENDING_READS = new Semaphore(MAX_PENDING_READS);
+    // Reads waiting for a PENDING_READS permit
+    private static final Queue<Runnable> WAITING_READS = new ConcurrentLinkedQueue<>();
+
+    private static final LongAdder IO_NANOS = new LongAdder();
+    private static final LongAdder DECODE_NANOS = new LongAdder();
+    private static final LongAdder ENCODE_NANOS = new LongAdder();
+
+    private ImageIOExecutor() {
+    }
+
+    public static String describe() {
+        return (VIRTUAL != null ? VIRTUAL.describe() + " for file I/O"
+                : PLATFORM_IO_THREADS + " platform threads each for file reads and writes (build with -Pjava21 "
+                + "and run on Java 21 for virtual threads)") + ", "
+                + Runtime.getRuntime().availableProcessors() + " codec threads";
+    }
+
+    public static BufferedImage readImage(File file) throws IOException {
+        return join(read(file, CODEC));
+    }
+
+    public static void writeImage(BufferedImage image, String format, File file) throws IOException {
+        join(write(image, format, file, CODEC));
+    }
+
+    // The file is read on an I/O thread once a permit is free, and decoded on codec
+    public static CompletableFuture<BufferedImage> read(File file, Executor codec) {
+        if (RawImage.isRaw(file)) {
+            return CompletableFuture.supplyAsync(() -> {
+                long start = System.nanoTime();
+                try {
+                    return RawImage.read(file);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } finally {
+                    IO_NANOS.add(System.nanoTime() - start);
+                }
+            }, READS);
+        }
+        CompletableFuture<byte[]> data = new CompletableFuture<>();
+        WAITING_READS.add(() -> {
+            long start = System.nanoTime();
+            try {
+                data.complete(Files.readAllBytes(file.toPath()));
+            } catch (IOException | RuntimeException e) {
+                data.completeExceptionally(e instanceof IOException ? new UncheckedIOException((IOException) e) : e);
+            } finally {
+                IO_NANOS.add(System.nanoTime() - start);
+            }
+        });
+        startWaitingReads();
+        // The permit goes back however the stage ends: decoded, failed, or rejected by a shut down codec
+        return data.thenApplyAsync(bytes -> decode(bytes, file), codec).whenComplete((image, error) -> releaseRead());
+    }
+
+    private static void releaseRead() {
+        PENDING_READS.release();
+        startWaitingReads();
+    }
+
+    // Called after every queued read and every returned permit, so no read keeps waiting while a permit is free
+    private static void startWaitingReads() {
+        while (!WAITING_READS.isEmpty() && PENDING_READS.tryAcquire()) {
+            Runnable read = WAITING_READS.poll();
+            if (read == null) {
+                PENDING_READS.release();
+            } else {
+                READS.execute(read);
+            }
+        }
+    }
+
+    // Encoded on codec, then written on an I/O thread; a .raw file is written as a RawImage whatever format says
+    public static CompletableFuture<Void> write(BufferedImage image, String format, File file, Executor codec) {
+        if (RawImage.isRaw(file)) {
+            return CompletableFuture.runAsync(() -> {
+                long start = System.nanoTime();
+                try {
+                    RawImage.write(image, file);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } finally {
+                    IO_NANOS.add(System.nanoTime() - start);
+                }
+            }, WRITES);
+        }
+        return CompletableFuture.supplyAsync(() -> encode(image, format), codec).thenAcceptAsync(data -> {
+            long start = System.nanoTime();
+            try {
+                Files.write(file.toPath(), data);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                IO_NANOS.add(System.nanoTime() - start);
+            }
+        }, WRITES);
+    }
+
+    // Totals over all threads since startup
+    public static double ioMillis() {
+        return IO_NANOS.sum() / 1e6;
+    }
+
+    public static double decodeMillis() {
+        return DECODE_NANOS.sum() / 1e6;
+    }
+
+    public static double encodeMillis() {
+        return ENCODE_NANOS.sum() / 1e6;
+    }
+
+    // The IOException behind a failed read or write
+    public static <T> T join(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    // In-memory streams: ImageIO's default cache would spill to temporary files
+    private static BufferedImage decode(byte[] data, File file) {
+        long start = System.nanoTime();
+        try {
+            // ImageIO.read closes the stream itself
+            ImageInputStream in = new MemoryCacheImageInputStream(new ByteArrayInputStream(data));
+            BufferedImage image = ImageIO.read(in);
+            if (image == null) {
+                throw new IOException("No image reader for " + file);
+            }
+            return image;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            DECODE_NANOS.add(System.nanoTime() - start);
+        }
+    }
+
+    private static byte[] encode(BufferedImage image, String format) {
+        long start = System.nanoTime();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ImageOutputStream out = new MemoryCacheImageOutputStream(bytes)) {
+            if (!ImageIO.write(image, format, out)) {
+                throw new IOException("No " + format + " writer for image type " + image.getType());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            ENCODE_NANOS.add(System.nanoTime() - start);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, prefix + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static IoThreads load() {
+        if (Runtime.version().feature() < 21) {
+            return null;
+        }
+        try {
+            return (IoThreads) Class.forName("org.example.VirtualThreads").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package org.example;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// A chain of operations such as "blur,edge,mirror", run as few passes as possible:
+//   - mirrors move to the end of the chain (every later kernel is flipped horizontally instead) and
+//     are applied as an x remap while the final tile is written out
+//   - a kernel whose output can never clip (non-negative weights summing to at most 1) is composed
+//     with the next kernel when the composed kernel is cheaper than running both
+//   - whatever remains is streamed tile by tile: each tile is pushed through every stage while its
+//     intermediate planes are still in cache
+//
+// Streaming is exact: every stage still rounds and clamps its own output, and the halo a tile needs
+// is clipped to the image, so edges see the same pixels as in a stage-by-stage run. Composed kernels
+// skip the rounding of the intermediate; the next kernel scales that half-level error by the sum of
+// its absolute weights (8 for edge after blur, so a few levels), which is why composing is limited
+// to pairs that are cheaper together. Near the image border a
+// composed kernel would also see edge pixels the stage-by-stage run filters first, so tiles there run
+// the uncomposed stages.
+public final class ImagePipeline {
+
+    private static final double SUM_TOLERANCE = 1e-9;
+    // Named stages; KernelFactory.preset would turn anything else into edge detection
+    private static final List<String> PRESETS = List.of("blur", "sharpen", "edge");
+
+    private final List<String> names;
+    private final List<double[][]> kernels;
+    private final List<double[][]> borderKernels;
+    private final boolean mirror;
+
+    private ImagePipeline(List<String> names, List<double[][]> kernels, List<double[][]> borderKernels,
+                          boolean mirror) {
+        this.names = names;
+        this.kernels = kernels;
+        this.borderKernels = borderKernels;
+        this.mirror = mirror;
+    }
+
+    public static boolean isPipeline(String operation) {
+        return operation.indexOf(',') > 0;
+    }
+
+    // Comma separated operations, each a preset name, "mirror", or a kernel spec; any other stage
+    // (a typo, or an operation with no kernel such as median or rotate90) is an error
+    public static ImagePipeline parse(String spec) throws IOException {
+        List<String> names = new ArrayList<>();
+        List<double[][]> kernels = new ArrayList<>();
+        List<double[][]> borderKernels = new ArrayList<>();
+        boolean mirrored = false;
+        for (String part : spec.split(",")) {
+            String operation = part.trim();
+            if (operation.isEmpty()) {
+                throw new IllegalArgumentException("Empty stage in pipeline " + spec);
+            }
+            if (!KernelFactory.isSpec(operation)) {
+                operation = operation.toLowerCase();
+            }
+            if (operation.equals("mirror")) {
+                mirrored = !mirrored;
+                continue;
+            }
+            if (!KernelFactory.isSpec(operation) && !PRESETS.contains(operation)) {
+                throw new IllegalArgumentException("Unknown stage '" + part.trim() + "' in pipeline " + spec
+                        + ", use blur, sharpen, edge, mirror or a kernel spec");
+            }
+            double[][] kernel = KernelFactory.forOperation(operation);
+            if (mirrored) {
+                kernel = mirrorKernel(kernel);
+            }
+            borderKernels.add(kernel);
+
+            int last = kernels.size() - 1;
+            if (last >= 0 && canCompose(kernels.get(last), kernel)) {
+                double[][] composed = compose(kernels.get(last), kernel);
+                if (cost(composed) < cost(kernels.get(last)) + cost(kernel)) {
+                    kernels.set(last, composed);
+                    names.set(last, names.get(last) + "+" + operation);
+                    continue;
+                }
+            }
+            kernels.add(kernel);
+            names.add(operation);
+        }
+        return new ImagePipeline(names, kernels, borderKernels, mirrored);
+    }
+
+    // Sequential mode keeps zero edges and truncation, parallel mode clamps and rounds
+    public BufferedImage apply(BufferedImage inputImage, boolean parallel) {
+        ConvolutionEngine.EdgeMode edges = parallel ? ConvolutionEngine.EdgeMode.CLAMP : ConvolutionEngine.EdgeMode.ZERO;
+        ConvolutionEngine.Rounding rounding = parallel ? ConvolutionEngine.Rounding.ROUND
+                : ConvolutionEngine.Rounding.TRUNCATE;
+        // The stages before fusion decide the result
+        StringBuilder key = new StringBuilder(mirror ? "pipeline mirror" : "pipeline");
+        for (double[][] kernel : borderKernels) {
+            key.append(' ').append(ResultCache.kernelKey(kernel, edges, rounding));
+        }
+        return ResultCache.apply(inputImage, key.toString(), () -> run(inputImage, edges, rounding, parallel));
+    }
+
+    private BufferedImage run(BufferedImage inputImage, ConvolutionEngine.EdgeMode edges,
+                              ConvolutionEngine.Rounding rounding, boolean parallel) {
+        int width = inputImage.getWidth();
+        int height = inputImage.getHeight();
+
+        PixelPlanes source = PixelPlanes.fromImage(inputImage);
+        PixelPlanes result = new PixelPlanes(width, height);
+
+        // Halo of the uncomposed stages on each side; tiles closer than that to an edge run them
+        int left = 0;
+        int top = 0;
+        int right = 0;
+        int bottom = 0;
+        for (double[][] kernel : borderKernels) {
+            left += kernel.length / 2;
+            top += kernel[0].length / 2;
+            right += kernel.length - 1 - kernel.length / 2;
+            bottom += kernel[0].length - 1 - kernel[0].length / 2;
+        }
+        int marginLeft = left;
+        int marginTop = top;
+        int marginRight = width - right;
+        int marginBottom = height - bottom;
+
+        int tile = TiledExecutor.tileSizeFor(left + right, top + bottom);
+        TiledExecutor.TileTask task = (x0, y0, x1, y1) -> {
+            boolean interior = x0 >= marginLeft && y0 >= marginTop && x1 <= marginRight && y1 <= marginBottom;
+            runTile(interior ? kernels : borderKernels, source, result, edges, rounding, x0, y0, x1, y1);
+        };
+        if (parallel) {
+            TiledExecutor.forEachTile(width, height, tile, tile, task);
+        } else {
+            for (int y = 0; y < height; y += tile) {
+                for (int x = 0; x < width; x += tile) {
+                    task.run(x, y, Math.min(width, x + tile), Math.min(height, y + tile));
+                }
+            }
+        }
+        return result.toImage(inputImage.getType());
+    }
+
+    // Passes after fusion, e.g. "blur+blur -> edge -> mirror (on write)"
+    public String describe() {
+        StringBuilder plan = new StringBuilder(names.isEmpty() ? "copy" : String.join(" -> ", names));
+        if (mirror) {
+            plan.append(" -> mirror (on write)");
+        }
+        return plan.toString();
+    }
+
+    public int getPassCount() {
+        return kernels.size();
+    }
+
+    // The kernels before composition, in order and already flipped for earlier mirrors: running them
+    // one after the other and then isMirrored() gives the stage-by-stage result
+    List<double[][]> getStageKernels() {
+        return borderKernels;
+    }
+
+    boolean isMirrored() {
+        return mirror;
+    }
+
+    private void runTile(List<double[][]> kernels, PixelPlanes source, PixelPlanes result,
+                         ConvolutionEngine.EdgeMode edges, ConvolutionEngine.Rounding rounding, int x0, int y0, int x1, int y1) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int stages = kernels.size();
+
+        // Region each stage has to produce, from the last stage back to the input, clipped to the image
+        int[][] regions = new int[stages + 1][];
+        regions[stages] = new int[]{x0, y0, x1, y1};
+        for (int s = stages - 1; s >= 0; s--) {
+            double[][] kernel = kernels.get(s);
+            int kx = kernel.length / 2;
+            int ky = kernel[0].length / 2;
+            int[] next = regions[s + 1];
+            regions[s] = new int[]{
+                    Math.max(0, next[0] - kx), Math.max(0, next[1] - ky),
+                    Math.min(width, next[2] + kernel.length - 1 - kx), Math.min(height, next[3] + kernel[0].length - 1 - ky)};
+        }
+
+        // Every stage works inside the input window; where the window meets an image edge the engine's
+        // edge handling applies, and on every other side the halo keeps taps inside valid pixels
+        int[] window = regions[0];
+        int windowWidth = window[2] - window[0];
+        int windowHeight = window[3] - window[1];
+        PixelPlanes current = new PixelPlanes(windowWidth, windowHeight);
+        copyRegion(source, window[0], window[1], current, 0, 0, windowWidth, windowHeight, false);
+        PixelPlanes next = stages > 0 ? new PixelPlanes(windowWidth, windowHeight) : null;
+        for (int s = 0; s < stages; s++) {
+            int[] region = regions[s + 1];
+            ConvolutionEngine.convolveRegion(current, next, kernels.get(s), edges, rounding,
+                    region[0] - window[0], region[1] - window[1], region[2] - window[0], region[3] - window[1]);
+            PixelPlanes done = next;
+            next = current;
+            current = done;
+        }
+
+        int targetX = mirror ? width - x1 : x0;
+        copyRegion(current, x0 - window[0], y0 - window[1], result, targetX, y0, x1 - x0, y1 - y0, mirror);
+    }
+
+    private static void copyRegion(PixelPlanes from, int fromX, int fromY, PixelPlanes to, int toX, int toY,
+                                   int regionWidth, int regionHeight, boolean reverse) {
+        byte[][] in = {from.getRed(), from.getGreen(), from.getBlue()};
+        byte[][] out = {to.getRed(), to.getGreen(), to.getBlue()};
+        for (int c = 0; c < 3; c++) {
+            for (int y = 0; y < regionHeight; y++) {
+                int src = (fromY + y) * from.getWidth() + fromX;
+                int dst = (toY + y) * to.getWidth() + toX;
+                if (!reverse) {
+                    System.arraycopy(in[c], src, out[c], dst, regionWidth);
+                    continue;
+                }
+                for (int x = 0; x < regionWidth; x++) {
+                    out[c][dst + regionWidth - 1 - x] = in[c][src + x];
+                }
+            }
+        }
+    }
+
+    // mirror then k equals k' then mirror, with k' the horizontally flipped kernel. An even-width kernel
+    // is off-center by one column, so it gets a zero column in front to stay aligned
+    static double[][] mirrorKernel(double[][] kernel) {
+        int kernelWidth = kernel.length;
+        int pad = kernelWidth % 2 == 0 ? 1 : 0;
+        double[][] flipped = new double[kernelWidth + pad][];
+        flipped[0] = new double[kernel[0].length];
+        for (int i = 0; i < kernelWidth; i++) {
+            flipped[i + pad] = kernel[kernelWidth - 1 - i].clone();
+        }
+        return flipped;
+    }
+
+    // The first kernel must not clip (its output always stays within 0..255) and the composed kernel
+    // must keep the same center, which fails when both sizes are even along an axis
+    private static boolean canCompose(double[][] first, double[][] second) {
+        if ((first.length % 2 == 0 && second.length % 2 == 0)
+                || (first[0].length % 2 == 0 && second[0].length % 2 == 0)) {
+            return false;
+        }
+        double sum = 0;
+        for (double[] column : first) {
+            for (double weight : column) {
+                if (weight < 0) {
+                    return false;
+                }
+                sum += weight;
+            }
+        }
+        return sum <= 1 + SUM_TOLERANCE;
+    }
+
+    // Applying first, then second, as one kernel of size w1 + w2 - 1
+    static double[][] compose(double[][] first, double[][] second) {
+        double[][] composed = new double[first.length + second.length - 1][first[0].length + second[0].length - 1];
+        for (int a = 0; a < first.length; a++) {
+            for (int b = 0; b < first[0].length; b++) {
+                double weight = first[a][b];
+                if (weight == 0) {
+                    continue;
+                }
+                for (int i = 0; i < second.length; i++) {
+                    for (int j = 0; j < second[0].length; j++) {
+                        composed[a + i][b + j] += weight * second[i][j];
+                    }
+                }
+            }
+        }
+        return composed;
+    }
+
+    // Multiply-adds per pixel and channel on the path the engine would pick
+    private static int cost(double[][] kernel) {
+        if (ConvolutionEngine.useSeparable(kernel) && SeparableKernel.detect(kernel) != null) {
+            return kernel.length + kernel[0].length;
+        }
+        int taps = 0;
+        for (double[] column : kernel) {
+            for (double weight : column) {
+                if (weight != 0) {
+                    taps++;
+                }
+            }
+        }
+        return taps;
+    }
+}
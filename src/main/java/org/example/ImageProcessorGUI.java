@@ -1,6 +1,5 @@
 package org.example;
 
-import javax.imageio.ImageIO;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.datatransfer.DataFlavor;
@@ -8,24 +7,36 @@ import java.awt.datatransfer.Transferable;
 import java.awt.dnd.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.util.List;
 
 public class ImageProcessorGUI extends JFrame {
 
+    // MPI bootstrap plus the service's warm-up jobs
+    private static final long SERVICE_START_TIMEOUT_MS = 60_000;
+    private static final int PREVIEW_SIZE = 400;
+
     private BufferedImage inputImage;
+    private PreviewImage inputPreview;
+    // Bumped by every load and run; results of older runs are not shown
+    private int renderGeneration;
     private JLabel imageLabel;
     private JLabel statusLabel;
     private JComboBox<String> operationBox;
     private JComboBox<String> modeBox;
     private File selectedFile;
     private JProgressBar progressBar;
+    private JSpinner tileSizeSpinner;
+    private JSpinner threadsSpinner;
+    private JSpinner radiusSpinner;
+    private JCheckBox simdBox;
+    private JCheckBox fixedPointBox;
+    private JCheckBox cacheBox;
+    private JCheckBox progressiveBox;
 
     public ImageProcessorGUI() {
         setTitle("Kernel Image Processor - Distributed Computing Demo");
-        setSize(1000, 700);
+        setSize(1500, 700);
         setDefaultCloseOperation(EXIT_ON_CLOSE);
         setLayout(new BorderLayout());
         setLocationRelativeTo(null);
@@ -90,7 +101,7 @@ public class ImageProcessorGUI extends JFrame {
     private boolean isImageFile(File file) {
         String name = file.getName().toLowerCase();
         return name.endsWith(".jpg") || name.endsWith(".jpeg") || 
-               name.endsWith(".png") || name.endsWith(".bmp");
+               name.endsWith(".png") || name.endsWith(".bmp") || name.endsWith(RawImage.EXTENSION);
     }
 
     private JPanel createControlPanel() {
@@ -104,13 +115,40 @@ public class ImageProcessorGUI extends JFrame {
         selectImageButton.addActionListener(e -> chooseImage());
 
         // Operation Selection
-        operationBox = new JComboBox<>(new String[]{"Edge Detection", "Blur", "Sharpen", "Mirror"});
+        operationBox = new JComboBox<>(new String[]{"Edge Detection", "Sobel", "Prewitt", "Blur", "Gaussian Blur", "Median", "Sharpen", "Mirror"});
         operationBox.setPreferredSize(new Dimension(140, 30));
 
         // Mode Selection - Changed "Real MPJ Express" to "Distributed"
-        modeBox = new JComboBox<>(new String[]{"Sequential", "Parallel", "Distributed"});
+        modeBox = new JComboBox<>(new String[]{"Sequential", "Parallel", "Tiled", "Distributed"});
         modeBox.setPreferredSize(new Dimension(160, 30));
 
+        // Tiled mode settings, 0 means automatic
+        tileSizeSpinner = new JSpinner(new SpinnerNumberModel(TiledExecutor.getTileSize(), 0, 4096, 16));
+        tileSizeSpinner.setToolTipText("Tile side in pixels (0 = fit to cache)");
+        threadsSpinner = new JSpinner(new SpinnerNumberModel(TiledExecutor.getParallelism(), 1, 256, 1));
+        threadsSpinner.setToolTipText("Worker threads for tiled mode");
+
+        // Blur radius (Gaussian Blur uses it as sigma); radius 1 keeps the classic 3x3 kernel
+        radiusSpinner = new JSpinner(new SpinnerNumberModel(1, 1, 200, 1));
+        radiusSpinner.setToolTipText("Blur / median radius, or Gaussian sigma, in pixels");
+
+        simdBox = new JCheckBox("SIMD");
+        simdBox.setEnabled(SimdConvolution.isAvailable());
+        simdBox.setToolTipText("Vector API backend: " + SimdConvolution.describe());
+
+        fixedPointBox = new JCheckBox("Integer");
+        fixedPointBox.setToolTipText("Fixed-point weights and int sums (may differ by one level)");
+
+        // Off by default: a hit's time is a hash and a copy, not the time of the selected mode
+        cacheBox = new JCheckBox("Cache");
+        cacheBox.setToolTipText("Reuse results of the same operation on the same image (Parallel and Tiled share "
+                + "results); times of hits are marked");
+
+        // Off by default: progressive runs put every mode on one tiled driver and time the painting too
+        progressiveBox = new JCheckBox("Progressive");
+        progressiveBox.setToolTipText("Show a filtered preview at once, then the full-size result tile by tile "
+                + "(convolutions, gradients and median run tiled in every mode; their times include painting)");
+
         // Process Button
         JButton processButton = new JButton("▶️ Run Processing");
         processButton.setPreferredSize(new Dimension(140, 30));
@@ -135,6 +173,36 @@ public class ImageProcessorGUI extends JFrame {
         controlPanel.add(modeBox, gbc);
         
         gbc.gridx = 5;
+        controlPanel.add(new JLabel("Tile:"), gbc);
+
+        gbc.gridx = 6;
+        controlPanel.add(tileSizeSpinner, gbc);
+
+        gbc.gridx = 7;
+        controlPanel.add(new JLabel("Threads:"), gbc);
+
+        gbc.gridx = 8;
+        controlPanel.add(threadsSpinner, gbc);
+
+        gbc.gridx = 9;
+        controlPanel.add(simdBox, gbc);
+
+        gbc.gridx = 10;
+        controlPanel.add(fixedPointBox, gbc);
+
+        gbc.gridx = 11;
+        controlPanel.add(cacheBox, gbc);
+
+        gbc.gridx = 12;
+        controlPanel.add(progressiveBox, gbc);
+
+        gbc.gridx = 13;
+        controlPanel.add(new JLabel("Radius:"), gbc);
+
+        gbc.gridx = 14;
+        controlPanel.add(radiusSpinner, gbc);
+
+        gbc.gridx = 15;
         controlPanel.add(processButton, gbc);
 
         return controlPanel;
@@ -168,7 +236,7 @@ public class ImageProcessorGUI extends JFrame {
 
             @Override
             public String getDescription() {
-                return "Image files (*.jpg, *.jpeg, *.png, *.bmp)";
+                return "Image files (*.jpg, *.jpeg, *.png, *.bmp, *.raw)";
             }
         });
 
@@ -181,16 +249,11 @@ public class ImageProcessorGUI extends JFrame {
     private void loadImage(File file) {
         try {
             selectedFile = file;
-            inputImage = ImageIO.read(file);
-            if (inputImage == null) {
-                throw new IOException("Unable to read image file - unsupported format or corrupted file");
-            }
-            
-            // Always save a temp copy for distributed processing
-            File tempInput = new File("src/main/resources/gui_input_temp.jpg");
-            ImageIO.write(inputImage, "jpg", tempInput);
-            
-            displayImage(inputImage, "Input: " + file.getName());
+            inputImage = ImageIOExecutor.readImage(file);
+            inputPreview = PreviewImage.of(inputImage, PREVIEW_SIZE);
+            renderGeneration++;
+
+            showPreview(inputPreview.getImage(), "Input: " + file.getName());
             statusLabel.setText("Image loaded: " + file.getName() + " (" + inputImage.getWidth() + "x" + inputImage.getHeight() + ")");
         } catch (Exception ex) {
             JOptionPane.showMessageDialog(this, 
@@ -200,27 +263,19 @@ public class ImageProcessorGUI extends JFrame {
         }
     }
 
+    // Block averages to fit the preview area; getScaledInstance(SCALE_SMOOTH) took seconds on large images
     private void displayImage(BufferedImage image, String title) {
         if (image != null) {
-            // Scale image to fit display while maintaining aspect ratio
-            int maxWidth = 400;
-            int maxHeight = 400;
-            
-            double scale = Math.min(
-                (double) maxWidth / image.getWidth(),
-                (double) maxHeight / image.getHeight()
-            );
-            
-            int scaledWidth = (int) (image.getWidth() * scale);
-            int scaledHeight = (int) (image.getHeight() * scale);
-            
-            Image scaledImage = image.getScaledInstance(scaledWidth, scaledHeight, Image.SCALE_SMOOTH);
-            imageLabel.setIcon(new ImageIcon(scaledImage));
-            imageLabel.setText("");
-            imageLabel.setBorder(BorderFactory.createTitledBorder(title));
+            showPreview(PreviewImage.of(image, PREVIEW_SIZE).getImage(), title);
         }
     }
 
+    private void showPreview(BufferedImage preview, String title) {
+        imageLabel.setIcon(new ImageIcon(preview));
+        imageLabel.setText("");
+        imageLabel.setBorder(BorderFactory.createTitledBorder(title));
+    }
+
     private void processImage() {
         if (inputImage == null) {
             JOptionPane.showMessageDialog(this, "Please select an image first!", "No Image", JOptionPane.WARNING_MESSAGE);
@@ -229,6 +284,22 @@ public class ImageProcessorGUI extends JFrame {
 
         String operation = (String) operationBox.getSelectedItem();
         String mode = (String) modeBox.getSelectedItem();
+        int radius = (Integer) radiusSpinner.getValue();
+        boolean boxBlur = ("Blur".equals(operation) && radius > 1) || "Gaussian Blur".equals(operation);
+        TiledExecutor.configure((Integer) tileSizeSpinner.getValue(), (Integer) threadsSpinner.getValue());
+        SimdConvolution.setEnabled(simdBox.isSelected());
+        FixedPointConvolution.setEnabled(fixedPointBox.isSelected());
+        ResultCache.setEnabled(cacheBox.isSelected());
+        boolean progressive = progressiveBox.isSelected();
+        boolean sequential = "Sequential".equals(mode);
+        int generation = ++renderGeneration;
+        PreviewImage reduced = inputPreview;
+        PreviewImage preview = new PreviewImage(inputImage.getWidth(), inputImage.getHeight(), PREVIEW_SIZE);
+        // Tiles of the full-size result are painted into the preview as they finish
+        ConvolutionProcessor.TileListener tiles = (planes, x0, y0, x1, y1) -> {
+            preview.paint(planes, x0, y0, x1, y1);
+            imageLabel.repaint();
+        };
 
         progressBar.setIndeterminate(true);
         statusLabel.setText("Processing image with " + mode + " mode...");
@@ -237,34 +308,90 @@ public class ImageProcessorGUI extends JFrame {
         SwingWorker<Void, Void> worker = new SwingWorker<Void, Void>() {
             private BufferedImage result;
             private double executionTime;
+            private boolean cacheHit;
             private String outputPath;
 
             @Override
             protected Void doInBackground() throws Exception {
-                if ("Mirror".equals(operation)) {
-                    result = mirrorImage();
+                long hits = ResultCache.getHits();
+                if (progressive) {
+                    long previewStart = System.nanoTime();
+                    preview.show(filterPreview(reduced.toPlanes(), operation, sequential, radius, reduced.getFactor()));
+                    double previewTime = (System.nanoTime() - previewStart) / 1_000_000.0;
+                    SwingUtilities.invokeLater(() -> {
+                        if (generation == renderGeneration) {
+                            showPreview(preview.getImage(), "Preview: " + operation + " (" + mode + ")");
+                            statusLabel.setText(String.format("Preview in %.1f ms, computing full resolution...",
+                                    previewTime));
+                        }
+                    });
+                }
+                if ("Mirror".equals(operation) && !"Distributed".equals(mode)) {
+                    long startTime = System.nanoTime();
+                    result = ConvolutionProcessor.applyTransform(inputImage, GeometricTransform.Type.MIRROR,
+                            !"Sequential".equals(mode));
                     outputPath = "src/main/resources/gui_output.jpg";
+                    executionTime = (System.nanoTime() - startTime) / 1_000_000.0;
+                } else if (GradientOperator.Type.forOperation(operation) != null && !"Distributed".equals(mode)) {
+                    GradientOperator.Type type = GradientOperator.Type.forOperation(operation);
+                    long startTime = System.nanoTime();
+                    if (progressive) {
+                        result = ConvolutionProcessor.applyGradientProgressive(inputImage, type, !sequential,
+                                reduced.getFactor(), tiles);
+                    } else {
+                        result = sequential ? ConvolutionProcessor.applyGradient(inputImage, type, null)
+                                : ConvolutionProcessor.applyGradientParallel(inputImage, type, null);
+                    }
+                    outputPath = "src/main/resources/gui_output.jpg";
+                    executionTime = (System.nanoTime() - startTime) / 1_000_000.0;
+                } else if ("Median".equals(operation)) {
+                    // Rank filters have no distributed path yet, Distributed runs them like Parallel
+                    long startTime = System.nanoTime();
+                    if (progressive) {
+                        result = ConvolutionProcessor.applyRankFilterProgressive(inputImage, radius, RankFilter.MEDIAN,
+                                !sequential, reduced.getFactor(), tiles);
+                    } else {
+                        result = sequential ? ConvolutionProcessor.applyRankFilter(inputImage, radius, RankFilter.MEDIAN)
+                                : ConvolutionProcessor.applyRankFilterParallel(inputImage, radius, RankFilter.MEDIAN);
+                    }
+                    outputPath = "src/main/resources/gui_output.jpg";
+                    executionTime = (System.nanoTime() - startTime) / 1_000_000.0;
+                } else if (boxBlur && !"Distributed".equals(mode)) {
+                    boolean sequential = "Sequential".equals(mode);
+                    long startTime = System.nanoTime();
+                    if ("Blur".equals(operation)) {
+                        result = sequential ? ConvolutionProcessor.applyBoxBlur(inputImage, radius)
+                                : ConvolutionProcessor.applyBoxBlurParallel(inputImage, radius);
+                    } else {
+                        result = sequential ? ConvolutionProcessor.applyBoxGaussian(inputImage, radius)
+                                : ConvolutionProcessor.applyBoxGaussianParallel(inputImage, radius);
+                    }
+                    outputPath = "src/main/resources/gui_output.jpg";
+                    executionTime = (System.nanoTime() - startTime) / 1_000_000.0;
                 } else {
                     double[][] kernel = getKernel(operation);
                     long startTime = System.nanoTime();
                     
-                    switch (mode) {
+                    switch (progressive && !"Distributed".equals(mode) ? "Progressive" : mode) {
+                        case "Progressive":
+                            // One tiled run for every mode; Sequential keeps its edges and rounding on one thread
+                            result = ConvolutionProcessor.applyConvolutionProgressive(inputImage, kernel, !sequential,
+                                    reduced.getFactor(), tiles);
+                            outputPath = "src/main/resources/gui_output.jpg";
+                            break;
                         case "Parallel":
                             result = ConvolutionProcessor.applyConvolutionParallel(inputImage, kernel);
                             outputPath = "src/main/resources/gui_output.jpg";
                             break;
-                        case "Distributed":
-                            if ("Mirror".equals(operation)) {
-                                // Handle mirror separately since it doesn't use convolution
-                                result = mirrorImage();
-                                outputPath = "src/main/resources/gui_output.jpg";
-                                long endTime = System.nanoTime();
-                                executionTime = (endTime - startTime) / 1_000_000.0;
-                            } else {
-                                runDistributed(operation);
-                                return null;
-                            }
+                        case "Tiled":
+                            result = ConvolutionProcessor.applyConvolutionTiled(inputImage, kernel);
+                            outputPath = "src/main/resources/gui_output.jpg";
                             break;
+                        case "Distributed":
+                            // Workers take kernel specs and transforms; box kernels run on the running-sum path there too
+                            runDistributed(!boxBlur ? operation
+                                    : "Blur".equals(operation) ? "box:" + radius : "gaussian:" + radius);
+                            return null;
                         case "Sequential":
                         default:
                             result = ConvolutionProcessor.applyConvolution(inputImage, kernel);
@@ -276,9 +403,15 @@ public class ImageProcessorGUI extends JFrame {
                     executionTime = (endTime - startTime) / 1_000_000.0;
                 }
 
-                // Save result
+                cacheHit = ResultCache.getHits() > hits;
+
+                // Save result; results that were not painted tile by tile (cache hits, box filters,
+                // transforms) go into the preview whole
                 if (result != null) {
-                    ImageIO.write(result, "jpg", new File(outputPath));
+                    ImageIOExecutor.writeImage(result, "jpg", new File(outputPath));
+                    if (!preview.isComplete()) {
+                        preview.paint(PixelPlanes.fromImage(result), 0, 0, result.getWidth(), result.getHeight());
+                    }
                 }
 
                 return null;
@@ -286,15 +419,22 @@ public class ImageProcessorGUI extends JFrame {
 
             @Override
             protected void done() {
+                if (generation != renderGeneration) {
+                    return;
+                }
                 progressBar.setIndeterminate(false);
                 progressBar.setValue(100);
                 
                 try {
                     if (result != null) {
-                        displayImage(result, "Output: " + operation + " (" + mode + ")");
-                        String message = String.format("Processing completed!\nOperation: %s\nMode: %s\nTime: %.3f ms\nSaved: %s",
-                            operation, mode, executionTime, outputPath);
-                        statusLabel.setText("Completed: " + operation + " in " + String.format("%.3f", executionTime) + " ms");
+                        showPreview(preview.getImage(), "Output: " + operation + " (" + mode + ")");
+                        String time = String.format("%.3f ms", executionTime) + (cacheHit ? " (cache hit)" : "");
+                        String message = String.format("Processing completed!\nOperation: %s\nMode: %s\nTime: %s\nSaved: %s",
+                            operation, mode, time, outputPath);
+                        if (ResultCache.isEnabled()) {
+                            message += "\nCache: " + ResultCache.describe();
+                        }
+                        statusLabel.setText("Completed: " + operation + " in " + time);
                         JOptionPane.showMessageDialog(ImageProcessorGUI.this, message, "Success", JOptionPane.INFORMATION_MESSAGE);
                     }
                 } catch (Exception e) {
@@ -310,6 +450,45 @@ public class ImageProcessorGUI extends JFrame {
         worker.execute();
     }
 
+    // The operation on the reduced input. Blur and median radii and the Gaussian sigma are divided by the
+    // reduction factor, so the preview looks like the reduced full-size result; edge, sharpen and the
+    // gradients respond to detail at any scale and run as they are
+    private PixelPlanes filterPreview(PixelPlanes planes, String operation, boolean sequential, int radius,
+                                      int factor) {
+        ConvolutionEngine.EdgeMode edges = sequential ? ConvolutionEngine.EdgeMode.ZERO : ConvolutionEngine.EdgeMode.CLAMP;
+        ConvolutionEngine.Rounding rounding = sequential ? ConvolutionEngine.Rounding.TRUNCATE
+                : ConvolutionEngine.Rounding.ROUND;
+        int width = planes.getWidth();
+        int height = planes.getHeight();
+        int scaledRadius = Math.round((float) radius / factor);
+        PixelPlanes result = new PixelPlanes(width, height);
+        GradientOperator.Type gradient = GradientOperator.Type.forOperation(operation);
+        switch (operation) {
+            case "Mirror":
+                return GeometricTransform.apply(planes, GeometricTransform.Type.MIRROR);
+            case "Blur":
+                // Radius 1 is the 3x3 kernel, a box of radius 1
+                return BoxFilter.blur(planes, scaledRadius, edges, rounding, false);
+            case "Gaussian Blur":
+                double sigma = (double) radius / factor;
+                return sigma < 0.5 ? planes : BoxFilter.gaussian(planes, sigma, edges, rounding, false);
+            case "Median":
+                if (scaledRadius < 1) {
+                    return planes;
+                }
+                RankFilter.rankRegion(planes, result, scaledRadius, RankFilter.MEDIAN, edges, 0, 0, width, height);
+                return result;
+            default:
+                if (gradient != null) {
+                    GradientOperator.gradientRegion(planes, result, null, gradient, edges, rounding, 0, 0, width, height);
+                } else {
+                    ConvolutionEngine.convolveRegion(planes, result, getKernel(operation), edges, rounding,
+                            0, 0, width, height);
+                }
+                return result;
+        }
+    }
+
     private double[][] getKernel(String operation) {
         switch (operation) {
             case "Blur":
@@ -334,29 +513,50 @@ public class ImageProcessorGUI extends JFrame {
         }
     }
 
-    private BufferedImage mirrorImage() {
-        int width = inputImage.getWidth();
-        int height = inputImage.getHeight();
-        BufferedImage mirrored = new BufferedImage(width, height, inputImage.getType());
-        
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                mirrored.setRGB(width - 1 - x, y, inputImage.getRGB(x, y));
-            }
-        }
-        
-        return mirrored;
-    }
-
     private void runDistributed(String operation) throws Exception {
         // Capture start time for distributed processing
         long distributedStartTime = System.nanoTime();
-        
-        // Write operation type to a temporary file for the distributed process to read
-        try (PrintWriter writer = new PrintWriter(new FileWriter("src/main/resources/gui_operation.txt"))) {
-            writer.println(operation);
+
+        if (!ensureDistributedService()) {
+            return;
         }
+
+        // The image goes to the running service over a local socket, no temp files or process launch
+        BufferedImage output;
+        try {
+            output = DistributedClient.submit(inputImage, operation.toLowerCase(), DistributedClient.DEFAULT_PORT);
+        } catch (IOException e) {
+            SwingUtilities.invokeLater(() -> {
+                JOptionPane.showMessageDialog(this, "Error running distributed processing: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                statusLabel.setText("Error in distributed processing");
+            });
+            return;
+        }
+        
+        // Calculate total execution time including the transfers
+        long distributedEndTime = System.nanoTime();
+        double totalExecutionTime = (distributedEndTime - distributedStartTime) / 1_000_000.0;
         
+        SwingUtilities.invokeLater(() -> {
+            try {
+                ImageIOExecutor.writeImage(output, "jpg", new File("src/main/resources/output_real_distributed.jpg"));
+                displayImage(output, "Output: Distributed");
+                String message = String.format("Distributed processing completed!\nOperation: %s\nMode: Distributed (3 workers)\nTotal Time: %.3f ms\nSaved: src/main/resources/output_real_distributed.jpg", 
+                    operation, totalExecutionTime);
+                statusLabel.setText("Completed: " + operation + " (Distributed) in " + String.format("%.3f", totalExecutionTime) + " ms");
+                JOptionPane.showMessageDialog(this, message, "Success", JOptionPane.INFORMATION_MESSAGE);
+            } catch (IOException e) {
+                JOptionPane.showMessageDialog(this, "Error saving distributed output: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+    }
+
+    // Starts the distributed service on first use and keeps it for later jobs; it is shut down with the GUI
+    private boolean ensureDistributedService() throws Exception {
+        if (DistributedClient.isRunning(DistributedClient.DEFAULT_PORT)) {
+            return true;
+        }
+
         // Check if MPJ Express is available
         ProcessBuilder checkPb = new ProcessBuilder("which", "mpjrun.sh");
         Process checkProcess = checkPb.start();
@@ -367,46 +567,41 @@ public class ImageProcessorGUI extends JFrame {
                 JOptionPane.showMessageDialog(this, "MPJ Express not found. Please ensure mpjrun.sh is in your PATH.", "MPJ Express Not Found", JOptionPane.ERROR_MESSAGE);
                 statusLabel.setText("MPJ Express not available");
             });
-            return;
+            return false;
         }
 
-        // Run distributed processing with 4 processes (1 master + 3 workers) with proper ghost cells
+        // 4 processes (1 master + 3 workers) share this machine, so they split the tiled-mode thread count
+        int threadsPerRank = Math.max(1, (Integer) threadsSpinner.getValue() / 4);
         ProcessBuilder pb = new ProcessBuilder(
             "mpjrun.sh", "-np", "4", "-cp", "target/classes", 
             "org.example.RealDistributedConvolution",
-            "src/main/resources/gui_input_temp.jpg",  // input file
-            "src/main/resources/output_real_distributed.jpg",  // output file
-            operation.toLowerCase()  // e.g. "edge"
+            "--serve",
+            "--threads=" + threadsPerRank
         );
-        
         pb.directory(new File("."));
-        
-        Process process = pb.start();
-        int exitCode = process.waitFor();
-        
-        // Calculate total execution time including process overhead
-        long distributedEndTime = System.nanoTime();
-        double totalExecutionTime = (distributedEndTime - distributedStartTime) / 1_000_000.0;
-        
-        if (exitCode == 0) {
-            SwingUtilities.invokeLater(() -> {
-                try {
-                    BufferedImage output = ImageIO.read(new File("src/main/resources/output_real_distributed.jpg"));
-                    displayImage(output, "Output: Distributed");
-                    String message = String.format("Distributed processing completed!\nOperation: %s\nMode: Distributed (3 workers)\nTotal Time: %.3f ms\nSaved: src/main/resources/output_real_distributed.jpg", 
-                        operation, totalExecutionTime);
-                    statusLabel.setText("Completed: " + operation + " (Distributed) in " + String.format("%.3f", totalExecutionTime) + " ms");
-                    JOptionPane.showMessageDialog(this, message, "Success", JOptionPane.INFORMATION_MESSAGE);
-                } catch (IOException e) {
-                    JOptionPane.showMessageDialog(this, "Error loading distributed output: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-                }
-            });
-        } else {
-            SwingUtilities.invokeLater(() -> {
-                JOptionPane.showMessageDialog(this, "Error running distributed processing. Please check your MPJ Express installation.", "Error", JOptionPane.ERROR_MESSAGE);
-                statusLabel.setText("Error in distributed processing");
-            });
+        pb.inheritIO();
+        SwingUtilities.invokeLater(() -> statusLabel.setText("Starting distributed service..."));
+        Process service = pb.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                DistributedClient.shutdown(DistributedClient.DEFAULT_PORT);
+            } catch (IOException e) {
+                service.destroy();
+            }
+        }));
+
+        long deadline = System.currentTimeMillis() + SERVICE_START_TIMEOUT_MS;
+        while (service.isAlive() && System.currentTimeMillis() < deadline) {
+            if (DistributedClient.isRunning(DistributedClient.DEFAULT_PORT)) {
+                return true;
+            }
+            Thread.sleep(100);
         }
+        SwingUtilities.invokeLater(() -> {
+            JOptionPane.showMessageDialog(this, "Distributed service did not start. Please check your MPJ Express installation.", "Error", JOptionPane.ERROR_MESSAGE);
+            statusLabel.setText("Error in distributed processing");
+        });
+        return false;
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,219 @@
+package org.example;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Builds kernels of any size. Kernels are indexed kernel[x][y] like everywhere else in the project.
+//
+// Specs accepted on the command line:
+//   gaussian:<sigma>             normalized Gaussian, 2 * ceil(3 * sigma) + 1 wide
+//   log:<sigma>                  negated, zero-sum Laplacian of Gaussian (edges come out bright)
+//   motion:<length>[:<degrees>]  line of the given length, 0 degrees is horizontal
+//   box:<radius>                 normalized (2r + 1) x (2r + 1) average
+//   file:<path>                  text file, one kernel row per line, weights split by spaces or commas
+public final class KernelFactory {
+
+    private KernelFactory() {
+    }
+
+    // The CLI's named kernels; anything unknown falls back to edge detection, as it always has
+    public static double[][] preset(String operation) {
+        switch (operation) {
+            case "blur":
+                return new double[][]{
+                        {1 / 9.0, 1 / 9.0, 1 / 9.0},
+                        {1 / 9.0, 1 / 9.0, 1 / 9.0},
+                        {1 / 9.0, 1 / 9.0, 1 / 9.0}
+                };
+            case "sharpen":
+                return new double[][]{
+                        {0, -1, 0},
+                        {-1, 5, -1},
+                        {0, -1, 0}
+                };
+            case "edge":
+            default:
+                return new double[][]{
+                        {0, -1, 0},
+                        {-1, 4, -1},
+                        {0, -1, 0}
+                };
+        }
+    }
+
+    // A preset name or a spec
+    public static double[][] forOperation(String operation) throws IOException {
+        return isSpec(operation) ? parse(operation) : preset(operation);
+    }
+
+    public static boolean isSpec(String operation) {
+        return operation.indexOf(':') > 0;
+    }
+
+    public static double[][] parse(String spec) throws IOException {
+        int colon = spec.indexOf(':');
+        String type = spec.substring(0, colon).toLowerCase();
+        String[] params = spec.substring(colon + 1).split(":");
+        switch (type) {
+            case "gaussian":
+                return gaussian(number(params, 0, spec));
+            case "log":
+                return laplacianOfGaussian(number(params, 0, spec));
+            case "motion":
+                return motionBlur((int) number(params, 0, spec), params.length > 1 ? number(params, 1, spec) : 0);
+            case "box":
+                return box((int) number(params, 0, spec));
+            case "file":
+                return load(new File(spec.substring(colon + 1)));
+            default:
+                throw new IllegalArgumentException("Unknown kernel type '" + type + "' in " + spec);
+        }
+    }
+
+    public static double[][] gaussian(double sigma) {
+        requirePositive(sigma, "sigma");
+        int radius = (int) Math.ceil(3 * sigma);
+        int size = 2 * radius + 1;
+        double[][] kernel = new double[size][size];
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                int dx = i - radius, dy = j - radius;
+                kernel[i][j] = Math.exp(-(dx * dx + dy * dy) / (2 * sigma * sigma));
+                sum += kernel[i][j];
+            }
+        }
+        return scale(kernel, 1 / sum);
+    }
+
+    public static double[][] laplacianOfGaussian(double sigma) {
+        requirePositive(sigma, "sigma");
+        int radius = (int) Math.ceil(3 * sigma);
+        int size = 2 * radius + 1;
+        double[][] kernel = new double[size][size];
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                int dx = i - radius, dy = j - radius;
+                double r2 = (dx * dx + dy * dy) / (2 * sigma * sigma);
+                kernel[i][j] = (1 - r2) * Math.exp(-r2) / (Math.PI * Math.pow(sigma, 4));
+                sum += kernel[i][j];
+            }
+        }
+        // Remove the truncation residue so flat regions map to 0, like the 3x3 edge kernel
+        double mean = sum / (size * size);
+        for (double[] column : kernel) {
+            for (int j = 0; j < size; j++) {
+                column[j] -= mean;
+            }
+        }
+        return kernel;
+    }
+
+    public static double[][] motionBlur(int length, double degrees) {
+        if (length < 1) {
+            throw new IllegalArgumentException("Motion blur length must be at least 1");
+        }
+        int size = length % 2 == 0 ? length + 1 : length;
+        int center = size / 2;
+        double[][] kernel = new double[size][size];
+        double cos = Math.cos(Math.toRadians(degrees));
+        double sin = Math.sin(Math.toRadians(degrees));
+        // Sample the line at quarter-pixel steps so every cell it crosses gets weight
+        int samples = 0;
+        for (double t = -(length - 1) / 2.0; t <= (length - 1) / 2.0 + 1e-9; t += 0.25) {
+            int i = (int) Math.round(center + t * cos);
+            int j = (int) Math.round(center - t * sin);
+            kernel[i][j] += 1;
+            samples++;
+        }
+        return scale(kernel, 1.0 / samples);
+    }
+
+    public static double[][] box(int radius) {
+        if (radius < 0) {
+            throw new IllegalArgumentException("Box radius must not be negative");
+        }
+        int size = 2 * radius + 1;
+        double[][] kernel = new double[size][size];
+        for (double[] column : kernel) {
+            Arrays.fill(column, 1.0 / (size * size));
+        }
+        return kernel;
+    }
+
+    public static double[][] load(File file) throws IOException {
+        List<double[]> rows = new ArrayList<>();
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] cells = line.split("[\\s,]+");
+            double[] row = new double[cells.length];
+            for (int i = 0; i < cells.length; i++) {
+                try {
+                    row[i] = parseWeight(cells[i]);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Bad kernel weight '" + cells[i] + "' in " + file);
+                }
+            }
+            if (!rows.isEmpty() && row.length != rows.get(0).length) {
+                throw new IOException("Kernel rows in " + file + " have different lengths");
+            }
+            rows.add(row);
+        }
+        if (rows.isEmpty()) {
+            throw new IOException("Kernel file " + file + " is empty");
+        }
+
+        // The file is written row by row (y), kernels are indexed [x][y]
+        double[][] kernel = new double[rows.get(0).length][rows.size()];
+        for (int j = 0; j < rows.size(); j++) {
+            for (int i = 0; i < kernel.length; i++) {
+                kernel[i][j] = rows.get(j)[i];
+            }
+        }
+        return kernel;
+    }
+
+    // Weights may be written as fractions, e.g. 1/16
+    private static double parseWeight(String cell) {
+        int slash = cell.indexOf('/');
+        if (slash < 0) {
+            return Double.parseDouble(cell);
+        }
+        return Double.parseDouble(cell.substring(0, slash)) / Double.parseDouble(cell.substring(slash + 1));
+    }
+
+    private static double number(String[] params, int index, String spec) {
+        if (index >= params.length || params[index].isEmpty()) {
+            throw new IllegalArgumentException("Missing parameter in kernel spec " + spec);
+        }
+        try {
+            return Double.parseDouble(params[index]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad number '" + params[index] + "' in kernel spec " + spec);
+        }
+    }
+
+    private static void requirePositive(double value, String name) {
+        if (!(value > 0)) {
+            throw new IllegalArgumentException(name + " must be positive");
+        }
+    }
+
+    private static double[][] scale(double[][] kernel, double factor) {
+        for (double[] column : kernel) {
+            for (int j = 0; j < column.length; j++) {
+                column[j] *= factor;
+            }
+        }
+        return kernel;
+    }
+}
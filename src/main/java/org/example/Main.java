@@ -1,22 +1,36 @@
 package org.example;
 
-import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class Main {
     public static void main(String[] args) {
         // Default values
-        String mode = "sequential"; // sequential, parallel
+        String mode = "sequential"; // sequential, parallel, tiled, distributed (jobs for RealDistributedConvolution --serve),
+                                    // stream (strip by strip to a .tif, .ppm or .raw, for images larger than the heap),
+                                    // batch <input dir or glob> <output dir> <operation>... (see BatchProcessor)
         String inputResourceName = "/home/gjore/IdeaProjects/prog3project/src/main/resources/test10(3840-2160).jpg";
         String outputImagePath = "src/main/resources/output4.jpg";
-        String operation = "edge"; // edge, blur, sharpen, mirror
+        String operation = "edge"; // edge, blur, sharpen, mirror, flip-vertical, rotate90/180/270, transpose, sobel, prewitt, median, erode, dilate, percentile, a kernel spec such as gaussian:2.5 (see KernelFactory),
+                                   // or a comma separated pipeline such as blur,edge,mirror (see ImagePipeline)
+
+        // Parse command line arguments; --key=value options may appear anywhere
+        Map<String, String> options = new HashMap<>();
+        args = parseOptions(args, options);
 
-        // Parse command line arguments
         if (args.length > 0) {
             mode = args[0].toLowerCase();
         }
+        if (mode.equals("batch")) {
+            runBatch(args, options);
+            return;
+        }
         if (args.length > 1) {
             inputResourceName = args[1];
         }
@@ -24,34 +38,71 @@ public class Main {
             outputImagePath = args[2];
         }
         if (args.length > 3) {
-            operation = args[3].toLowerCase();
+            // Kernel specs may carry file paths, keep their case
+            operation = KernelFactory.isSpec(args[3]) || ImagePipeline.isPipeline(args[3]) ? args[3] : args[3].toLowerCase();
+        }
+
+        try {
+            TiledExecutor.configure(intOption(options, "tile", 0), intOption(options, "threads", 0));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid tiling options: " + e.getMessage());
+            return;
+        }
+
+        if (mode.equals("distributed")) {
+            submitDistributed(inputResourceName, outputImagePath, operation, options);
+            return;
+        }
+        if (mode.equals("stream")) {
+            processStreaming(inputResourceName, outputImagePath, operation, options);
+            return;
+        }
+
+        FixedPointConvolution.setEnabled(options.containsKey("fixed"));
+        if (!configureCache(options)) {
+            return;
+        }
+        if (options.containsKey("simd")) {
+            if (SimdConvolution.setEnabled(true)) {
+                System.out.println("SIMD backend: " + SimdConvolution.describe());
+            } else {
+                System.out.println("SIMD backend " + SimdConvolution.describe() + "; using scalar code");
+            }
         }
 
         // Define kernels for convolution operations
-        double[][] kernel;
-        switch (operation) {
-            case "blur":
-                kernel = new double[][]{
-                        {1 / 9.0, 1 / 9.0, 1 / 9.0},
-                        {1 / 9.0, 1 / 9.0, 1 / 9.0},
-                        {1 / 9.0, 1 / 9.0, 1 / 9.0}
-                };
-                break;
-            case "sharpen":
-                kernel = new double[][]{
-                        {0, -1, 0},
-                        {-1, 5, -1},
-                        {0, -1, 0}
-                };
-                break;
-            case "edge":
-            default:
-                kernel = new double[][]{
-                        {0, -1, 0},
-                        {-1, 4, -1},
-                        {0, -1, 0}
-                };
-                break;
+        double[][] kernel = null;
+        ImagePipeline pipeline = null;
+        GradientOperator.Type gradient = GradientOperator.Type.forOperation(operation);
+        GeometricTransform.Type transform = GeometricTransform.Type.forOperation(operation);
+        // blur --radius=N is an N-radius box, blur --sigma=S a three-box Gaussian; both cost the same per pixel
+        // Rank filters: median, erode (min), dilate (max) and percentile --percentile=0..100, all with --radius
+        int blurRadius;
+        double blurSigma;
+        double rank;
+        try {
+            blurRadius = intOption(options, "radius", 0);
+            blurSigma = options.containsKey("sigma") ? Double.parseDouble(options.get("sigma")) : 0;
+            rank = rankPercentile(operation, options);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid options: " + e.getMessage());
+            return;
+        }
+        boolean boxBlur = operation.equals("blur") && (blurRadius > 1 || blurSigma > 0);
+        int rankRadius = Math.max(1, blurRadius);
+        try {
+            if (gradient != null) {
+                kernel = gradient.kernelX();
+            } else if (rank >= 0 || transform != null) {
+                kernel = null;
+            } else if (ImagePipeline.isPipeline(operation)) {
+                pipeline = ImagePipeline.parse(operation);
+            } else {
+                kernel = KernelFactory.forOperation(operation);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Invalid kernel: " + e.getMessage());
+            return;
         }
 
         try {
@@ -60,29 +111,120 @@ public class Main {
                 throw new IOException("File not found: " + inputFile.getAbsolutePath());
             }
 
-            BufferedImage inputImage = ImageIO.read(inputFile);
+            BufferedImage inputImage = ImageIOExecutor.readImage(inputFile);
 
             System.out.println("Processing image: " + inputResourceName);
             System.out.println("Image dimensions: " + inputImage.getWidth() + "x" + inputImage.getHeight());
             System.out.println("Mode: " + mode);
             System.out.println("Selected operation: " + operation);
+            if (pipeline != null) {
+                System.out.println("Pipeline: " + pipeline.describe());
+            } else if (rank >= 0) {
+                System.out.println("Rank filter: radius " + rankRadius + ", percentile " + rank * 100);
+            } else if (boxBlur) {
+                System.out.println(blurSigma > 0
+                        ? "Box Gaussian: sigma " + blurSigma + ", box radii "
+                        + Arrays.toString(BoxFilter.gaussianRadii(blurSigma, 3))
+                        : "Box blur: radius " + blurRadius);
+            } else if (gradient != null) {
+                System.out.println("Gradient: " + gradient + " magnitude"
+                        + (options.containsKey("orientation") ? ", orientation to " + options.get("orientation") : ""));
+            } else if (transform != null) {
+                if (options.containsKey("in-place") && transform.transposes()
+                        && inputImage.getWidth() != inputImage.getHeight()) {
+                    System.err.println(transform + " in place needs a square image.");
+                    return;
+                }
+                System.out.println("Transform: " + transform + ", output "
+                        + transform.outputWidth(inputImage.getWidth(), inputImage.getHeight()) + "x"
+                        + transform.outputHeight(inputImage.getWidth(), inputImage.getHeight())
+                        + (options.containsKey("in-place") ? ", in place" : ""));
+            } else {
+                System.out.println("Kernel size: " + kernel.length + "x" + kernel[0].length);
+                if (FixedPointConvolution.isEnabled()) {
+                    FixedPointConvolution.Quantized quantized = FixedPointConvolution.quantize(kernel);
+                    System.out.println(quantized == null ? "Fixed point: weights too large, using double"
+                            : String.format("Fixed point: Q%d weights, error bound %.4f levels",
+                            quantized.getShift(), quantized.getErrorBound()));
+                }
+            }
+            if (mode.equals("tiled") && kernel != null && !boxBlur && gradient == null) {
+                System.out.println("Tile size: " + TiledExecutor.tileSizeFor(kernel.length / 2, kernel[0].length / 2)
+                        + ", pool threads: " + TiledExecutor.getParallelism());
+            }
 
             // Measure execution time
             long startTime = System.nanoTime();
             BufferedImage outputImage;
+            BufferedImage orientation = options.containsKey("orientation") && gradient != null
+                    ? new BufferedImage(inputImage.getWidth(), inputImage.getHeight(), BufferedImage.TYPE_INT_RGB)
+                    : null;
 
-            if (operation.equals("mirror")) {
+            if (pipeline != null) {
                 switch (mode) {
                     case "sequential":
-                        outputImage = ConvolutionProcessor.applyMirror(inputImage);
+                        outputImage = pipeline.apply(inputImage, false);
                         break;
                     case "parallel":
-                        outputImage = ConvolutionProcessor.applyMirrorParallel(inputImage);
+                    case "tiled":
+                        outputImage = pipeline.apply(inputImage, true);
                         break;
                     default:
-                        System.err.println("Mirror operation is only supported in sequential and parallel modes.");
+                        System.err.println("Pipelines are only supported in sequential, parallel and tiled modes.");
                         return;
                 }
+            } else if (rank >= 0) {
+                switch (mode) {
+                    case "sequential":
+                        outputImage = ConvolutionProcessor.applyRankFilter(inputImage, rankRadius, rank);
+                        break;
+                    case "parallel":
+                    case "tiled":
+                        outputImage = ConvolutionProcessor.applyRankFilterParallel(inputImage, rankRadius, rank);
+                        break;
+                    default:
+                        System.err.println("Rank filters are only supported in sequential, parallel and tiled modes.");
+                        return;
+                }
+            } else if (boxBlur) {
+                boolean sequential = mode.equals("sequential");
+                if (!sequential && !mode.equals("parallel") && !mode.equals("tiled")) {
+                    System.err.println("Box blur is only supported in sequential, parallel and tiled modes.");
+                    return;
+                }
+                if (blurSigma > 0) {
+                    outputImage = sequential ? ConvolutionProcessor.applyBoxGaussian(inputImage, blurSigma)
+                            : ConvolutionProcessor.applyBoxGaussianParallel(inputImage, blurSigma);
+                } else {
+                    outputImage = sequential ? ConvolutionProcessor.applyBoxBlur(inputImage, blurRadius)
+                            : ConvolutionProcessor.applyBoxBlurParallel(inputImage, blurRadius);
+                }
+            } else if (gradient != null) {
+                switch (mode) {
+                    case "sequential":
+                        outputImage = ConvolutionProcessor.applyGradient(inputImage, gradient, orientation);
+                        break;
+                    case "parallel":
+                    case "tiled":
+                        outputImage = ConvolutionProcessor.applyGradientParallel(inputImage, gradient, orientation);
+                        break;
+                    default:
+                        System.err.println("Gradients are only supported in sequential, parallel and tiled modes.");
+                        return;
+                }
+            } else if (transform != null) {
+                boolean sequential = mode.equals("sequential");
+                if (!sequential && !mode.equals("parallel") && !mode.equals("tiled")) {
+                    System.err.println("Transforms are only supported in sequential, parallel and tiled modes.");
+                    return;
+                }
+                // --in-place transforms the decoded image in its own buffer instead of allocating the output
+                if (options.containsKey("in-place")) {
+                    ConvolutionProcessor.applyTransformInPlace(inputImage, transform, !sequential);
+                    outputImage = inputImage;
+                } else {
+                    outputImage = ConvolutionProcessor.applyTransform(inputImage, transform, !sequential);
+                }
             } else {
                 switch (mode) {
                     case "sequential":
@@ -91,8 +233,11 @@ public class Main {
                     case "parallel":
                         outputImage = ConvolutionProcessor.applyConvolutionParallel(inputImage, kernel);
                         break;
+                    case "tiled":
+                        outputImage = ConvolutionProcessor.applyConvolutionTiled(inputImage, kernel);
+                        break;
                     default:
-                        System.err.println("Invalid mode: " + mode + ". Use 'sequential' or 'parallel'");
+                        System.err.println("Invalid mode: " + mode + ". Use 'sequential', 'parallel' or 'tiled'");
                         return;
                 }
             }
@@ -101,15 +246,210 @@ public class Main {
             double executionTime = (endTime - startTime) / 1_000_000.0;
 
             // Write the output image
-            ImageIO.write(outputImage, "jpg", new File(outputImagePath));
+            ImageIOExecutor.writeImage(outputImage, "jpg", new File(outputImagePath));
+            if (orientation != null) {
+                ImageIOExecutor.writeImage(orientation, "jpg", new File(options.get("orientation")));
+            }
 
             System.out.println("Image processed successfully! Check " + outputImagePath);
             System.out.println("Execution time: " + String.format("%.3f", executionTime) + " ms");
             System.out.println("Available processors: " + Runtime.getRuntime().availableProcessors());
+            if (ResultCache.isEnabled()) {
+                System.out.println("Result cache: " + ResultCache.describe());
+            }
 
         } catch (IOException e) {
             System.err.println("Error processing image: " + e.getMessage());
             e.printStackTrace();
         }
     }
+
+    // Hands the image to a running distributed service on --port=N; --shutdown stops the service instead
+    private static void submitDistributed(String inputPath, String outputPath, String operation,
+                                          Map<String, String> options) {
+        int port;
+        try {
+            port = intOption(options, "port", DistributedClient.DEFAULT_PORT);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid options: " + e.getMessage());
+            return;
+        }
+        try {
+            if (options.containsKey("shutdown")) {
+                DistributedClient.shutdown(port);
+                System.out.println("Distributed service on port " + port + " stopped");
+                return;
+            }
+            File inputFile = new File(inputPath);
+            if (!inputFile.exists()) {
+                throw new IOException("File not found: " + inputFile.getAbsolutePath());
+            }
+            BufferedImage inputImage = ImageIOExecutor.readImage(inputFile);
+            System.out.println("Processing image: " + inputPath);
+            System.out.println("Image dimensions: " + inputImage.getWidth() + "x" + inputImage.getHeight());
+            System.out.println("Mode: distributed service on port " + port);
+            System.out.println("Selected operation: " + operation);
+
+            long startTime = System.nanoTime();
+            BufferedImage outputImage = DistributedClient.submit(inputImage, operation, port);
+            double executionTime = (System.nanoTime() - startTime) / 1_000_000.0;
+
+            ImageIOExecutor.writeImage(outputImage, "jpg", new File(outputPath));
+            System.out.println("Image processed successfully! Check " + outputPath);
+            System.out.println("Execution time: " + String.format("%.3f", executionTime) + " ms");
+        } catch (IOException e) {
+            System.err.println("Error processing image: " + e.getMessage()
+                    + " (is RealDistributedConvolution --serve running on port " + port + "?)");
+        }
+    }
+
+    // Kernels and gradients strip by strip (--strip=N rows), never holding the whole image
+    private static void processStreaming(String inputPath, String outputPath, String operation,
+                                         Map<String, String> options) {
+        GradientOperator.Type gradient = GradientOperator.Type.forOperation(operation);
+        double[][] kernel = null;
+        int stripRows;
+        try {
+            stripRows = intOption(options, "strip", StreamingConvolution.DEFAULT_STRIP_ROWS);
+            int radius = intOption(options, "radius", 0);
+            if (ImagePipeline.isPipeline(operation) || rankPercentile(operation, options) >= 0
+                    || GeometricTransform.Type.forOperation(operation) != null || options.containsKey("sigma")) {
+                System.err.println("Streaming supports single kernels, blur --radius and gradients only.");
+                return;
+            }
+            if (gradient == null) {
+                kernel = operation.equals("blur") && radius > 1 ? KernelFactory.box(radius)
+                        : KernelFactory.forOperation(operation);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Invalid options: " + e.getMessage());
+            return;
+        }
+        if (!StreamingConvolution.isStreamingOutput(outputPath)) {
+            System.err.println("Streaming output must be a .tif, .tiff, .ppm or .raw file.");
+            return;
+        }
+
+        if (StreamingConvolution.decodesFromTop(inputPath)) {
+            System.err.println("Warning: JPEG, PNG and GIF inputs are decoded from the top again for every strip,"
+                    + " so time grows with the square of the height; convert large inputs to .tif, .ppm or .raw.");
+        }
+        System.out.println("Processing image: " + inputPath);
+        System.out.println("Mode: stream, " + stripRows + " rows per strip");
+        System.out.println("Selected operation: " + operation);
+        try {
+            long startTime = System.nanoTime();
+            StreamingConvolution.process(new File(inputPath), new File(outputPath), kernel, gradient, stripRows, true);
+            double executionTime = (System.nanoTime() - startTime) / 1_000_000.0;
+            System.out.println("Image processed successfully! Check " + outputPath);
+            System.out.println("Execution time: " + String.format("%.3f", executionTime) + " ms");
+        } catch (IOException e) {
+            System.err.println("Error processing image: " + e.getMessage());
+        }
+    }
+
+    // Every operation on every input, decoded once each; --decoders=N, --encoders=N, --log=processing_times.csv
+    private static void runBatch(String[] args, Map<String, String> options) {
+        if (args.length < 3) {
+            System.err.println("Usage: batch <input dir or glob> <output dir> <operation>... [--decoders=N] "
+                    + "[--encoders=N] [--log=file.csv] [--cache[=MB]] [--cache-dir=dir]");
+            return;
+        }
+        if (!configureCache(options)) {
+            return;
+        }
+        List<String> operations = new ArrayList<>();
+        for (int i = 3; i < args.length; i++) {
+            operations.add(KernelFactory.isSpec(args[i]) || ImagePipeline.isPipeline(args[i]) ? args[i] : args[i].toLowerCase());
+        }
+        if (operations.isEmpty()) {
+            operations.add("edge");
+        }
+        try {
+            int decoders = intOption(options, "decoders", BatchProcessor.DEFAULT_DECODE_THREADS);
+            int encoders = intOption(options, "encoders", BatchProcessor.DEFAULT_ENCODE_THREADS);
+            List<File> inputs = BatchProcessor.listInputs(args[1]);
+            System.out.println("Batch: " + inputs.size() + " images x " + operations.size() + " operations "
+                    + operations + ", " + decoders + " decoders, " + encoders + " encoders");
+            BatchProcessor.Summary summary = BatchProcessor.run(inputs, new File(args[2]), operations, options,
+                    decoders, encoders, options.containsKey("log") ? new File(options.get("log")) : null);
+            System.out.println("Batch finished: " + summary.describe());
+            if (ResultCache.isEnabled()) {
+                System.out.println("Result cache: " + ResultCache.describe());
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Batch failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Batch interrupted");
+        }
+    }
+
+    // --cache[=MB] keeps results in memory, --cache-dir=dir also on disk, where later runs find them
+    private static boolean configureCache(Map<String, String> options) {
+        if (!options.containsKey("cache") && !options.containsKey("cache-dir")) {
+            return true;
+        }
+        try {
+            String size = options.getOrDefault("cache", "true");
+            long limit = "true".equals(size) ? ResultCache.DEFAULT_MEMORY_BYTES
+                    : (long) intOption(options, "cache", 0) << 20;
+            ResultCache.configure(limit, options.containsKey("cache-dir") ? new File(options.get("cache-dir")) : null);
+            ResultCache.setEnabled(true);
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Invalid cache options: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Moves --key=value arguments into options and returns the remaining positional arguments
+    static String[] parseOptions(String[] args, Map<String, String> options) {
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                int eq = arg.indexOf('=');
+                String key = (eq < 0 ? arg.substring(2) : arg.substring(2, eq)).toLowerCase();
+                options.put(key, eq < 0 ? "true" : arg.substring(eq + 1));
+            } else {
+                positional.add(arg);
+            }
+        }
+        return positional.toArray(new String[0]);
+    }
+
+    // Percentile in 0..1 for rank filter operations, -1 for anything else
+    static double rankPercentile(String operation, Map<String, String> options) {
+        switch (operation) {
+            case "median":
+                return RankFilter.MEDIAN;
+            case "erode":
+            case "min":
+                return RankFilter.MIN;
+            case "dilate":
+            case "max":
+                return RankFilter.MAX;
+            case "percentile":
+                String value = options.getOrDefault("percentile", "50");
+                try {
+                    return Math.max(0, Math.min(100, Double.parseDouble(value))) / 100;
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("--percentile expects a number, got '" + value + "'");
+                }
+            default:
+                return -1;
+        }
+    }
+
+    static int intOption(Map<String, String> options, String key, int defaultValue) {
+        String value = options.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("--" + key + " expects a number, got '" + value + "'");
+        }
+    }
 }
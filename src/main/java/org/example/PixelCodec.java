@@ -0,0 +1,257 @@
+package org.example;
+
+import java.util.Arrays;
+
+// Wire formats for sending rows of PixelPlanes between ranks as MPI.BYTE:
+//   INT     4 bytes per pixel (0, R, G, B), the size of the original int[] transfers
+//   RGB     3 bytes per pixel, interleaved
+//   PLANAR  3 bytes per pixel, one plane after the other
+//   LZ      PLANAR with every row delta coded against its left neighbour, then LZ4-style compressed.
+//           Smooth rows turn into runs of small deltas that the matcher collapses; noise costs a few
+//           bytes more than PLANAR at worst
+public final class PixelCodec {
+
+    public enum Format {
+        INT, RGB, PLANAR, LZ;
+
+        public static Format parse(String name) {
+            try {
+                return valueOf(name.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown wire format '" + name + "', use int, rgb, planar or lz");
+            }
+        }
+    }
+
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 65535;
+    private static final int HASH_BITS = 14;
+
+    private static final ThreadLocal<int[]> HASH_TABLE = ThreadLocal.withInitial(() -> new int[1 << HASH_BITS]);
+
+    private PixelCodec() {
+    }
+
+    // Upper bound of the encoded size of the given number of pixels
+    public static int maxEncodedSize(int pixels, Format format) {
+        switch (format) {
+            case INT:
+                return 4 * pixels;
+            case LZ:
+                return 3 * pixels + 3 * pixels / 255 + 16;
+            default:
+                return 3 * pixels;
+        }
+    }
+
+    // Rows [y0, y1) of planes
+    public static byte[] encode(PixelPlanes planes, int y0, int y1, Format format) {
+        int width = planes.getWidth();
+        int from = y0 * width;
+        int count = (y1 - y0) * width;
+        byte[] red = planes.getRed();
+        byte[] green = planes.getGreen();
+        byte[] blue = planes.getBlue();
+        switch (format) {
+            case INT: {
+                byte[] out = new byte[4 * count];
+                for (int i = 0, o = 0; i < count; i++, o += 4) {
+                    out[o + 1] = red[from + i];
+                    out[o + 2] = green[from + i];
+                    out[o + 3] = blue[from + i];
+                }
+                return out;
+            }
+            case RGB: {
+                byte[] out = new byte[3 * count];
+                for (int i = 0, o = 0; i < count; i++, o += 3) {
+                    out[o] = red[from + i];
+                    out[o + 1] = green[from + i];
+                    out[o + 2] = blue[from + i];
+                }
+                return out;
+            }
+            case PLANAR: {
+                byte[] out = new byte[3 * count];
+                System.arraycopy(red, from, out, 0, count);
+                System.arraycopy(green, from, out, count, count);
+                System.arraycopy(blue, from, out, 2 * count, count);
+                return out;
+            }
+            default: {
+                byte[] delta = new byte[3 * count];
+                byte[][] source = {red, green, blue};
+                for (int c = 0; c < 3; c++) {
+                    for (int row = 0; row < y1 - y0; row++) {
+                        int in = from + row * width;
+                        int o = c * count + row * width;
+                        byte previous = 0;
+                        for (int x = 0; x < width; x++) {
+                            byte value = source[c][in + x];
+                            delta[o + x] = (byte) (value - previous);
+                            previous = value;
+                        }
+                    }
+                }
+                byte[] out = new byte[maxEncodedSize(count, Format.LZ)];
+                int length = compress(delta, delta.length, out);
+                return Arrays.copyOf(out, length);
+            }
+        }
+    }
+
+    // Fills rows [y0, y1) of planes from the first length bytes of data
+    public static void decode(byte[] data, int length, Format format, PixelPlanes planes, int y0, int y1) {
+        int width = planes.getWidth();
+        int from = y0 * width;
+        int count = (y1 - y0) * width;
+        byte[] red = planes.getRed();
+        byte[] green = planes.getGreen();
+        byte[] blue = planes.getBlue();
+        switch (format) {
+            case INT:
+                for (int i = 0, o = 0; i < count; i++, o += 4) {
+                    red[from + i] = data[o + 1];
+                    green[from + i] = data[o + 2];
+                    blue[from + i] = data[o + 3];
+                }
+                break;
+            case RGB:
+                for (int i = 0, o = 0; i < count; i++, o += 3) {
+                    red[from + i] = data[o];
+                    green[from + i] = data[o + 1];
+                    blue[from + i] = data[o + 2];
+                }
+                break;
+            case PLANAR:
+                System.arraycopy(data, 0, red, from, count);
+                System.arraycopy(data, count, green, from, count);
+                System.arraycopy(data, 2 * count, blue, from, count);
+                break;
+            default: {
+                byte[] delta = new byte[3 * count];
+                int decoded = decompress(data, length, delta);
+                if (decoded != delta.length) {
+                    throw new IllegalStateException("Compressed band holds " + decoded + " bytes, expected " + delta.length);
+                }
+                byte[][] target = {red, green, blue};
+                for (int c = 0; c < 3; c++) {
+                    for (int row = 0; row < y1 - y0; row++) {
+                        int out = from + row * width;
+                        int in = c * count + row * width;
+                        byte previous = 0;
+                        for (int x = 0; x < width; x++) {
+                            previous = (byte) (previous + delta[in + x]);
+                            target[c][out + x] = previous;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // LZ4-style block: each sequence is a token (literal count << 4 | match length - 4), extra length
+    // bytes for counts of 15 and more, the literals, and a 2-byte little-endian match offset. The last
+    // sequence has literals only. Returns the compressed length
+    static int compress(byte[] src, int length, byte[] dst) {
+        int[] table = HASH_TABLE.get();
+        Arrays.fill(table, -1);
+        int anchor = 0;
+        int ip = 0;
+        int op = 0;
+        int limit = length - MIN_MATCH;
+        while (ip <= limit) {
+            int sequence = readInt(src, ip);
+            int hash = (sequence * -1640531535) >>> (32 - HASH_BITS);
+            int candidate = table[hash];
+            table[hash] = ip;
+            if (candidate < 0 || ip - candidate > MAX_OFFSET || readInt(src, candidate) != sequence) {
+                // Step faster through data that does not compress
+                ip += 1 + ((ip - anchor) >> 6);
+                continue;
+            }
+            int matchLength = MIN_MATCH;
+            while (ip + matchLength < length && src[candidate + matchLength] == src[ip + matchLength]) {
+                matchLength++;
+            }
+            op = writeSequence(dst, op, src, anchor, ip - anchor, ip - candidate, matchLength);
+            ip += matchLength;
+            anchor = ip;
+        }
+        return writeSequence(dst, op, src, anchor, length - anchor, 0, 0);
+    }
+
+    // Returns the number of bytes written to dst
+    static int decompress(byte[] src, int length, byte[] dst) {
+        int ip = 0;
+        int op = 0;
+        while (ip < length) {
+            int token = src[ip++] & 0xFF;
+            int literals = token >>> 4;
+            if (literals == 15) {
+                int extra;
+                do {
+                    extra = src[ip++] & 0xFF;
+                    literals += extra;
+                } while (extra == 255);
+            }
+            System.arraycopy(src, ip, dst, op, literals);
+            ip += literals;
+            op += literals;
+            if (ip >= length) {
+                break;
+            }
+            int offset = (src[ip] & 0xFF) | (src[ip + 1] & 0xFF) << 8;
+            ip += 2;
+            int matchLength = token & 15;
+            if (matchLength == 15) {
+                int extra;
+                do {
+                    extra = src[ip++] & 0xFF;
+                    matchLength += extra;
+                } while (extra == 255);
+            }
+            matchLength += MIN_MATCH;
+            // Byte by byte: a match may overlap the bytes it is producing
+            for (int from = op - offset, end = op + matchLength; op < end; ) {
+                dst[op++] = dst[from++];
+            }
+        }
+        return op;
+    }
+
+    private static int writeSequence(byte[] dst, int op, byte[] src, int anchor, int literals, int offset,
+                                     int matchLength) {
+        int tokenAt = op++;
+        int token = Math.min(literals, 15) << 4;
+        if (literals >= 15) {
+            op = writeLength(dst, op, literals - 15);
+        }
+        System.arraycopy(src, anchor, dst, op, literals);
+        op += literals;
+        if (matchLength > 0) {
+            int extra = matchLength - MIN_MATCH;
+            token |= Math.min(extra, 15);
+            dst[op++] = (byte) offset;
+            dst[op++] = (byte) (offset >>> 8);
+            if (extra >= 15) {
+                op = writeLength(dst, op, extra - 15);
+            }
+        }
+        dst[tokenAt] = (byte) token;
+        return op;
+    }
+
+    private static int writeLength(byte[] dst, int op, int remaining) {
+        while (remaining >= 255) {
+            dst[op++] = (byte) 255;
+            remaining -= 255;
+        }
+        dst[op++] = (byte) remaining;
+        return op;
+    }
+
+    private static int readInt(byte[] data, int i) {
+        return (data[i] & 0xFF) | (data[i + 1] & 0xFF) << 8 | (data[i + 2] & 0xFF) << 16 | (data[i + 3] & 0xFF) << 24;
+    }
+}
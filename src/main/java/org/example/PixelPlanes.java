@@ -0,0 +1,234 @@
+package org.example;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+// Planar 8-bit RGB copy of an image. The convolution engines work on these arrays
+// instead of going through getRGB/setRGB for every tap.
+public final class PixelPlanes {
+
+    private static final int STRIP_ROWS = 64;
+
+    private final int width;
+    private final int height;
+    private final byte[] red;
+    private final byte[] green;
+    private final byte[] blue;
+
+    public PixelPlanes(int width, int height) {
+        this(width, height, new byte[width * height], new byte[width * height], new byte[width * height]);
+    }
+
+    public PixelPlanes(int width, int height, byte[] red, byte[] green, byte[] blue) {
+        this.width = width;
+        this.height = height;
+        this.red = red;
+        this.green = green;
+        this.blue = blue;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public byte[] getRed() {
+        return red;
+    }
+
+    public byte[] getGreen() {
+        return green;
+    }
+
+    public byte[] getBlue() {
+        return blue;
+    }
+
+    public static PixelPlanes fromImage(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        PixelPlanes planes = new PixelPlanes(width, height);
+
+        WritableRaster raster = image.getRaster();
+        ColorModel cm = image.getColorModel();
+        SampleModel sm = raster.getSampleModel();
+        DataBuffer db = raster.getDataBuffer();
+
+        if (isPackedInt(cm, sm, db)) {
+            DirectColorModel dcm = (DirectColorModel) cm;
+            SinglePixelPackedSampleModel sppsm = (SinglePixelPackedSampleModel) sm;
+            int[] data = ((DataBufferInt) db).getData();
+            int rs = Integer.numberOfTrailingZeros(dcm.getRedMask());
+            int gs = Integer.numberOfTrailingZeros(dcm.getGreenMask());
+            int bs = Integer.numberOfTrailingZeros(dcm.getBlueMask());
+            for (int y = 0; y < height; y++) {
+                int src = rowOffset(raster, sppsm.getScanlineStride(), 1, y);
+                int dst = y * width;
+                for (int x = 0; x < width; x++, src++, dst++) {
+                    int p = data[src];
+                    planes.red[dst] = (byte) (p >>> rs);
+                    planes.green[dst] = (byte) (p >>> gs);
+                    planes.blue[dst] = (byte) (p >>> bs);
+                }
+            }
+        } else if (isInterleavedByte(cm, sm, db)) {
+            ComponentSampleModel csm = (ComponentSampleModel) sm;
+            byte[] data = ((DataBufferByte) db).getData();
+            int stride = csm.getPixelStride();
+            int[] bandOffsets = csm.getBandOffsets();
+            for (int y = 0; y < height; y++) {
+                int src = rowOffset(raster, csm.getScanlineStride(), stride, y);
+                int dst = y * width;
+                for (int x = 0; x < width; x++, src += stride, dst++) {
+                    planes.red[dst] = data[src + bandOffsets[0]];
+                    planes.green[dst] = data[src + bandOffsets[1]];
+                    planes.blue[dst] = data[src + bandOffsets[2]];
+                }
+            }
+        } else {
+            // Any other layout goes through the ColorModel, a strip at a time
+            int[] strip = new int[width * Math.min(STRIP_ROWS, height)];
+            for (int y = 0; y < height; y += STRIP_ROWS) {
+                int rows = Math.min(STRIP_ROWS, height - y);
+                image.getRGB(0, y, width, rows, strip, 0, width);
+                planes.unpack(strip, y * width, width * rows);
+            }
+        }
+
+        return planes;
+    }
+
+    // Writes the planes the way setRGB((r << 16) | (g << 8) | b) does, so any alpha channel ends up 0
+    public void writeTo(BufferedImage image) {
+        WritableRaster raster = image.getRaster();
+        ColorModel cm = image.getColorModel();
+        SampleModel sm = raster.getSampleModel();
+        DataBuffer db = raster.getDataBuffer();
+
+        if (isPackedInt(cm, sm, db)) {
+            DirectColorModel dcm = (DirectColorModel) cm;
+            SinglePixelPackedSampleModel sppsm = (SinglePixelPackedSampleModel) sm;
+            int[] data = ((DataBufferInt) db).getData();
+            int rs = Integer.numberOfTrailingZeros(dcm.getRedMask());
+            int gs = Integer.numberOfTrailingZeros(dcm.getGreenMask());
+            int bs = Integer.numberOfTrailingZeros(dcm.getBlueMask());
+            for (int y = 0; y < height; y++) {
+                int dst = rowOffset(raster, sppsm.getScanlineStride(), 1, y);
+                int src = y * width;
+                for (int x = 0; x < width; x++, src++, dst++) {
+                    data[dst] = ((red[src] & 0xFF) << rs) | ((green[src] & 0xFF) << gs) | ((blue[src] & 0xFF) << bs);
+                }
+            }
+        } else if (isInterleavedByte(cm, sm, db)) {
+            ComponentSampleModel csm = (ComponentSampleModel) sm;
+            byte[] data = ((DataBufferByte) db).getData();
+            int stride = csm.getPixelStride();
+            int[] bandOffsets = csm.getBandOffsets();
+            boolean hasAlpha = csm.getNumBands() > 3;
+            for (int y = 0; y < height; y++) {
+                int dst = rowOffset(raster, csm.getScanlineStride(), stride, y);
+                int src = y * width;
+                for (int x = 0; x < width; x++, dst += stride, src++) {
+                    data[dst + bandOffsets[0]] = red[src];
+                    data[dst + bandOffsets[1]] = green[src];
+                    data[dst + bandOffsets[2]] = blue[src];
+                    if (hasAlpha) {
+                        data[dst + bandOffsets[3]] = 0;
+                    }
+                }
+            }
+        } else {
+            int[] strip = new int[width * Math.min(STRIP_ROWS, height)];
+            for (int y = 0; y < height; y += STRIP_ROWS) {
+                int rows = Math.min(STRIP_ROWS, height - y);
+                pack(strip, y * width, width * rows);
+                image.setRGB(0, y, width, rows, strip, 0, width);
+            }
+        }
+    }
+
+    public BufferedImage toImage(int imageType) {
+        BufferedImage image = new BufferedImage(width, height, imageType);
+        writeTo(image);
+        return image;
+    }
+
+    public void unpack(int[] rgb, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            int p = rgb[i];
+            red[offset + i] = (byte) (p >> 16);
+            green[offset + i] = (byte) (p >> 8);
+            blue[offset + i] = (byte) p;
+        }
+    }
+
+    public void pack(int[] rgb, int offset, int length) {
+        pack(rgb, 0, offset, length);
+    }
+
+    // Packs pixels [offset, offset + length) into rgb starting at rgbOffset
+    public void pack(int[] rgb, int rgbOffset, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            rgb[rgbOffset + i] = ((red[offset + i] & 0xFF) << 16) | ((green[offset + i] & 0xFF) << 8)
+                    | (blue[offset + i] & 0xFF);
+        }
+    }
+
+    // Index of the first pixel of row y in the backing array; sub-images share their parent's buffer
+    private static int rowOffset(WritableRaster raster, int scanlineStride, int pixelStride, int y) {
+        int smX = raster.getMinX() - raster.getSampleModelTranslateX();
+        int smY = y + raster.getMinY() - raster.getSampleModelTranslateY();
+        return raster.getDataBuffer().getOffset() + smY * scanlineStride + smX * pixelStride;
+    }
+
+    // 8-bit-per-channel, non-premultiplied sRGB packed into one int per pixel (INT_RGB, INT_ARGB, INT_BGR)
+    private static boolean isPackedInt(ColorModel cm, SampleModel sm, DataBuffer db) {
+        if (!(cm instanceof DirectColorModel) || !(sm instanceof SinglePixelPackedSampleModel) || !(db instanceof DataBufferInt)) {
+            return false;
+        }
+        DirectColorModel dcm = (DirectColorModel) cm;
+        return dcm.getColorSpace().isCS_sRGB()
+                && !dcm.isAlphaPremultiplied()
+                && isByteMask(dcm.getRedMask())
+                && isByteMask(dcm.getGreenMask())
+                && isByteMask(dcm.getBlueMask())
+                && (!dcm.hasAlpha() || isByteMask(dcm.getAlphaMask()));
+    }
+
+    // 8-bit interleaved sRGB in a single byte bank (3BYTE_BGR, 4BYTE_ABGR)
+    private static boolean isInterleavedByte(ColorModel cm, SampleModel sm, DataBuffer db) {
+        if (!(cm instanceof ComponentColorModel) || !(sm instanceof ComponentSampleModel) || !(db instanceof DataBufferByte)) {
+            return false;
+        }
+        ComponentSampleModel csm = (ComponentSampleModel) sm;
+        if (!cm.getColorSpace().isCS_sRGB() || cm.isAlphaPremultiplied() || db.getNumBanks() != 1) {
+            return false;
+        }
+        int bands = csm.getNumBands();
+        if (bands != cm.getNumComponents() || (bands != 3 && !(bands == 4 && cm.hasAlpha()))) {
+            return false;
+        }
+        for (int size : cm.getComponentSize()) {
+            if (size != 8) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isByteMask(int mask) {
+        return mask != 0 && (mask >>> Integer.numberOfTrailingZeros(mask)) == 0xFF;
+    }
+}
@@ -0,0 +1,104 @@
+package org.example;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+// Reduced copy of an image for display: every pixel is the mean of a factor x factor block of the full
+// image (clipped at the right and bottom edges), which is as smooth as getScaledInstance(SCALE_SMOOTH)
+// for a fraction of the cost. Regions of a full-size result can be painted in while it is computed;
+// regions whose corners are multiples of the factor (or the image edge) cover whole blocks, so tiles
+// painted from several threads never share a pixel.
+public final class PreviewImage {
+
+    private final int factor;
+    private final int fullWidth;
+    private final int fullHeight;
+    private final BufferedImage image;
+    private final int[] pixels;
+    // Full-size pixels painted so far; painted regions do not overlap
+    private final AtomicLong painted = new AtomicLong();
+
+    // Fits maxSize x maxSize; images that already fit keep their size
+    public PreviewImage(int fullWidth, int fullHeight, int maxSize) {
+        this.fullWidth = fullWidth;
+        this.fullHeight = fullHeight;
+        this.factor = Math.max(1, (Math.max(fullWidth, fullHeight) + maxSize - 1) / maxSize);
+        this.image = new BufferedImage((fullWidth + factor - 1) / factor, (fullHeight + factor - 1) / factor,
+                BufferedImage.TYPE_INT_RGB);
+        this.pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+
+    public static PreviewImage of(BufferedImage full, int maxSize) {
+        PreviewImage preview = new PreviewImage(full.getWidth(), full.getHeight(), maxSize);
+        preview.paint(PixelPlanes.fromImage(full), 0, 0, full.getWidth(), full.getHeight());
+        return preview;
+    }
+
+    public int getFactor() {
+        return factor;
+    }
+
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    // The reduced pixels, to be filtered at this size
+    public PixelPlanes toPlanes() {
+        PixelPlanes planes = new PixelPlanes(image.getWidth(), image.getHeight());
+        planes.unpack(pixels, 0, pixels.length);
+        return planes;
+    }
+
+    // Planes of the reduced size, e.g. toPlanes() filtered
+    public void show(PixelPlanes reduced) {
+        reduced.pack(pixels, 0, pixels.length);
+    }
+
+    // Whether paint has covered the whole image
+    public boolean isComplete() {
+        return painted.get() >= (long) fullWidth * fullHeight;
+    }
+
+    // Region [x0, x1) x [y0, y1) of full, an image of the full size
+    public void paint(PixelPlanes full, int x0, int y0, int x1, int y1) {
+        int px0 = x0 / factor;
+        int px1 = (x1 + factor - 1) / factor;
+        int py0 = y0 / factor;
+        int py1 = (y1 + factor - 1) / factor;
+        // Whole images come from the GUI thread or a finished job, tiles from pool threads that are busy already
+        IntStream rows = IntStream.range(py0, py1);
+        (x1 - x0 == fullWidth && y1 - y0 == fullHeight ? rows.parallel() : rows).forEach(py ->
+                paintRow(full, py, px0, px1, x0, x1, Math.max(y0, py * factor), Math.min(y1, (py + 1) * factor)));
+        painted.addAndGet((long) (x1 - x0) * (y1 - y0));
+    }
+
+    private void paintRow(PixelPlanes full, int py, int px0, int px1, int x0, int x1, int y0, int y1) {
+        int count = px1 - px0;
+        int[] red = new int[count];
+        int[] green = new int[count];
+        int[] blue = new int[count];
+        byte[] r = full.getRed();
+        byte[] g = full.getGreen();
+        byte[] b = full.getBlue();
+        for (int y = y0; y < y1; y++) {
+            int row = y * fullWidth;
+            for (int x = x0; x < x1; x++) {
+                int i = (x / factor) - px0;
+                red[i] += r[row + x] & 0xFF;
+                green[i] += g[row + x] & 0xFF;
+                blue[i] += b[row + x] & 0xFF;
+            }
+        }
+        int width = image.getWidth();
+        for (int i = 0; i < count; i++) {
+            int bx0 = Math.max(x0, (px0 + i) * factor);
+            int bx1 = Math.min(x1, (px0 + i + 1) * factor);
+            int area = (bx1 - bx0) * (y1 - y0);
+            int half = area / 2;
+            pixels[py * width + px0 + i] = ((red[i] + half) / area) << 16 | ((green[i] + half) / area) << 8
+                    | (blue[i] + half) / area;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package org.example;
+
+import java.util.Arrays;
+
+// Median, min/max and percentile filters over a (2r + 1) x (2r + 1) window in constant time per pixel
+// (Perreault and Hebert, "Median Filtering in Constant Time"). Every column keeps a 256-bin histogram
+// of the 2r + 1 rows around the current row; moving down a row adds one pixel to each column histogram
+// and removes one. The window histogram moves right by adding the entering column and removing the
+// leaving one. Only the 16-bin coarse level is moved eagerly; a fine segment of 16 bins is brought up
+// to date (incrementally, or from scratch if it is far behind) only when the rank search lands in it.
+//
+// Edges follow the engine: ZERO leaves pixels outside the image out of the window, so the rank is
+// taken among fewer values, and CLAMP repeats the edge pixels.
+public final class RankFilter {
+
+    public static final double MIN = 0.0;
+    public static final double MEDIAN = 0.5;
+    public static final double MAX = 1.0;
+
+    private static final int BINS = 256;
+    private static final int COARSE = 16;
+
+    private RankFilter() {
+    }
+
+    // percentile in 0..1; stripes are processed top to bottom, so they should be tall rather than wide
+    public static void rankRegion(PixelPlanes src, PixelPlanes dst, int radius, double percentile,
+                                  ConvolutionEngine.EdgeMode edges, int x0, int y0, int x1, int y1) {
+        if (radius < 0 || !(percentile >= 0 && percentile <= 1)) {
+            throw new IllegalArgumentException("Rank filter needs a radius >= 0 and a percentile in 0..1");
+        }
+        if (x0 >= x1 || y0 >= y1) {
+            return;
+        }
+        byte[][] in = {src.getRed(), src.getGreen(), src.getBlue()};
+        byte[][] out = {dst.getRed(), dst.getGreen(), dst.getBlue()};
+        Histograms histograms = new Histograms(src.getWidth(), src.getHeight(), radius, edges, x0, x1);
+        for (int c = 0; c < 3; c++) {
+            histograms.run(in[c], out[c], percentile, y0, y1);
+        }
+    }
+
+    private static final class Histograms {
+        private final int width;
+        private final int height;
+        private final int radius;
+        private final boolean zero;
+        private final int x0;
+        private final int x1;
+        // Image columns that can enter the window, [firstColumn, lastColumn)
+        private final int firstColumn;
+        private final int lastColumn;
+        private final int[] columnFine;
+        private final int[] columnCoarse;
+        private final int[] columnCount;
+        private final int[] fine = new int[BINS];
+        private final int[] coarse = new int[COARSE];
+        private final int[] fineAt = new int[COARSE];
+
+        Histograms(int width, int height, int radius, ConvolutionEngine.EdgeMode edges, int x0, int x1) {
+            this.width = width;
+            this.height = height;
+            this.radius = radius;
+            this.zero = edges == ConvolutionEngine.EdgeMode.ZERO;
+            this.x0 = x0;
+            this.x1 = x1;
+            firstColumn = Math.max(0, x0 - radius);
+            lastColumn = Math.min(width, x1 + radius);
+            int columns = lastColumn - firstColumn;
+            columnFine = new int[columns * BINS];
+            columnCoarse = new int[columns * COARSE];
+            columnCount = new int[columns];
+        }
+
+        void run(byte[] plane, byte[] target, double percentile, int y0, int y1) {
+            Arrays.fill(columnFine, 0);
+            Arrays.fill(columnCoarse, 0);
+            Arrays.fill(columnCount, 0);
+            for (int pixelY = y0 - radius; pixelY <= y0 + radius; pixelY++) {
+                updateColumns(plane, pixelY, 1);
+            }
+            for (int y = y0; y < y1; y++) {
+                if (y > y0) {
+                    updateColumns(plane, y + radius, 1);
+                    updateColumns(plane, y - radius - 1, -1);
+                }
+                filterRow(target, percentile, y);
+            }
+        }
+
+        // Adds (sign 1) or removes (sign -1) one image row from every column histogram
+        private void updateColumns(byte[] plane, int pixelY, int sign) {
+            if (zero && (pixelY < 0 || pixelY >= height)) {
+                return;
+            }
+            int row = ConvolutionEngine.clamp(pixelY, 0, height - 1) * width;
+            for (int x = firstColumn; x < lastColumn; x++) {
+                int value = plane[row + x] & 0xFF;
+                int column = x - firstColumn;
+                columnFine[column * BINS + value] += sign;
+                columnCoarse[column * COARSE + (value >> 4)] += sign;
+                columnCount[column] += sign;
+            }
+        }
+
+        // Histogram column for an image x, or -1 if it lies outside the image under ZERO
+        private int column(int x) {
+            if (x < 0 || x >= width) {
+                if (zero) {
+                    return -1;
+                }
+                x = ConvolutionEngine.clamp(x, 0, width - 1);
+            }
+            return x - firstColumn;
+        }
+
+        private void filterRow(byte[] target, double percentile, int y) {
+            Arrays.fill(coarse, 0);
+            Arrays.fill(fineAt, Integer.MIN_VALUE);
+            int count = 0;
+            for (int x = x0 - radius; x <= x0 + radius; x++) {
+                int column = column(x);
+                if (column >= 0) {
+                    addCoarse(column, 1);
+                    count += columnCount[column];
+                }
+            }
+
+            int row = y * width;
+            for (int x = x0; x < x1; x++) {
+                if (x > x0) {
+                    int entering = column(x + radius);
+                    int leaving = column(x - radius - 1);
+                    if (entering >= 0) {
+                        addCoarse(entering, 1);
+                        count += columnCount[entering];
+                    }
+                    if (leaving >= 0) {
+                        addCoarse(leaving, -1);
+                        count -= columnCount[leaving];
+                    }
+                }
+
+                // Zero-based rank of the wanted value, e.g. (count - 1) / 2 for the median of an odd window
+                int rank = (int) Math.round(percentile * (count - 1));
+                int bin = 0;
+                while (rank >= coarse[bin]) {
+                    rank -= coarse[bin];
+                    bin++;
+                }
+                refreshFine(bin, x);
+                int value = bin * 16;
+                while (rank >= fine[value]) {
+                    rank -= fine[value];
+                    value++;
+                }
+                target[row + x] = (byte) value;
+            }
+        }
+
+        private void addCoarse(int column, int sign) {
+            int base = column * COARSE;
+            for (int b = 0; b < COARSE; b++) {
+                coarse[b] += sign * columnCoarse[base + b];
+            }
+        }
+
+        // Brings the fine bins of one coarse bin to the window centered at x
+        private void refreshFine(int bin, int x) {
+            int from = fineAt[bin];
+            int lo = bin * 16;
+            if (from == Integer.MIN_VALUE || x - from > 2 * radius + 1) {
+                Arrays.fill(fine, lo, lo + 16, 0);
+                for (int cx = x - radius; cx <= x + radius; cx++) {
+                    addFine(column(cx), lo, 1);
+                }
+            } else {
+                for (int step = from + 1; step <= x; step++) {
+                    addFine(column(step + radius), lo, 1);
+                    addFine(column(step - radius - 1), lo, -1);
+                }
+            }
+            fineAt[bin] = x;
+        }
+
+        private void addFine(int column, int lo, int sign) {
+            if (column < 0) {
+                return;
+            }
+            int base = column * BINS + lo;
+            for (int v = 0; v < 16; v++) {
+                fine[lo + v] += sign * columnFine[base + v];
+            }
+        }
+    }
+}
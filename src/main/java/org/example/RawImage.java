@@ -0,0 +1,246 @@
+package org.example;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+// Uncompressed 8-bit RGB for handing images between runs and stages without a codec or JPEG loss.
+// A 32-byte big-endian header (magic, version, width, height, channels, layout) is followed by the
+// samples, either interleaved (RGB triples, row by row) or planar (the red plane, then green, then
+// blue, as in PixelPlanes). Everything goes through FileChannel.map, and a Reader maps only the rows
+// it is asked for, so a stage that needs a band of a large image never touches the rest of the file.
+public final class RawImage {
+
+    public enum Layout {
+        INTERLEAVED, PLANAR
+    }
+
+    public static final String EXTENSION = ".raw";
+
+    private static final int MAGIC = 0x52415749; // "RAWI"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final int CHANNELS = 3;
+    // Reads and writes are mapped this much at a time
+    private static final int MAP_BYTES = 1 << 24;
+
+    private RawImage() {
+    }
+
+    public static boolean isRaw(File file) {
+        return file.getName().toLowerCase(Locale.ROOT).endsWith(EXTENSION);
+    }
+
+    public static BufferedImage read(File file) throws IOException {
+        return readPlanes(file).toImage(BufferedImage.TYPE_INT_RGB);
+    }
+
+    public static PixelPlanes readPlanes(File file) throws IOException {
+        try (Reader reader = Reader.open(file)) {
+            PixelPlanes planes = new PixelPlanes(reader.getWidth(), reader.getHeight());
+            reader.read(0, reader.getHeight(), planes, 0);
+            return planes;
+        }
+    }
+
+    // Planar, the layout the convolution engines and the distributed bands use
+    public static void write(BufferedImage image, File file) throws IOException {
+        write(PixelPlanes.fromImage(image), file, Layout.PLANAR);
+    }
+
+    public static void write(PixelPlanes planes, File file, Layout layout) throws IOException {
+        try (Writer writer = Writer.create(file, planes.getWidth(), planes.getHeight(), layout)) {
+            writer.write(planes, 0, planes.getHeight(), 0);
+        }
+    }
+
+    // File offset of row y of plane (0 red, 1 green, 2 blue; always 0 when interleaved)
+    private static long offset(Layout layout, int width, int height, int plane, int y) {
+        return layout == Layout.PLANAR ? HEADER_BYTES + ((long) plane * height + y) * width
+                : HEADER_BYTES + (long) CHANNELS * y * width;
+    }
+
+    private static int rowBytes(Layout layout, int width) {
+        return layout == Layout.PLANAR ? width : CHANNELS * width;
+    }
+
+    public static final class Reader implements Closeable {
+        private final FileChannel channel;
+        private final int width;
+        private final int height;
+        private final Layout layout;
+        private byte[] buffer = new byte[0];
+
+        private Reader(FileChannel channel, int width, int height, Layout layout) {
+            this.channel = channel;
+            this.width = width;
+            this.height = height;
+            this.layout = layout;
+        }
+
+        public static Reader open(File file) throws IOException {
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try {
+                if (channel.size() < HEADER_BYTES) {
+                    throw new IOException(file + " is not a raw image");
+                }
+                ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+                if (header.getInt() != MAGIC) {
+                    throw new IOException(file + " is not a raw image");
+                }
+                int version = header.getInt();
+                int width = header.getInt();
+                int height = header.getInt();
+                int channels = header.getInt();
+                int layout = header.getInt();
+                if (version != VERSION || channels != CHANNELS || layout < 0 || layout >= Layout.values().length) {
+                    throw new IOException(file + ": unsupported raw image (version " + version + ", " + channels
+                            + " channels, layout " + layout + ")");
+                }
+                if (width <= 0 || height <= 0
+                        || channel.size() < HEADER_BYTES + (long) CHANNELS * width * height) {
+                    throw new IOException(file + " is truncated or has an invalid size");
+                }
+                return new Reader(channel, width, height, Layout.values()[layout]);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public Layout getLayout() {
+            return layout;
+        }
+
+        // Rows [y0, y1) of plane mapped straight from the file; RGB triples when interleaved
+        private MappedByteBuffer mapRows(int plane, int y0, int y1) throws IOException {
+            if (y0 < 0 || y1 > height || y0 > y1 || plane < 0 || plane >= (layout == Layout.PLANAR ? CHANNELS : 1)) {
+                throw new IllegalArgumentException("Rows " + y0 + ".." + y1 + " of plane " + plane
+                        + " are outside a " + width + "x" + height + " " + layout + " image");
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset(layout, width, height, plane, y0),
+                    (long) rowBytes(layout, width) * (y1 - y0));
+        }
+
+        // Image rows [y0, y1) into planes from row planeRow on
+        public void read(int y0, int y1, PixelPlanes planes, int planeRow) throws IOException {
+            int chunk = Math.max(1, MAP_BYTES / rowBytes(layout, width));
+            byte[][] targets = {planes.getRed(), planes.getGreen(), planes.getBlue()};
+            for (int y = y0; y < y1; y += chunk) {
+                int end = Math.min(y1, y + chunk);
+                int to = (planeRow + y - y0) * width;
+                int count = (end - y) * width;
+                if (layout == Layout.PLANAR) {
+                    for (int c = 0; c < CHANNELS; c++) {
+                        mapRows(c, y, end).get(targets[c], to, count);
+                    }
+                } else {
+                    if (buffer.length < CHANNELS * count) {
+                        buffer = new byte[CHANNELS * count];
+                    }
+                    mapRows(0, y, end).get(buffer, 0, CHANNELS * count);
+                    for (int i = 0, b = 0; i < count; i++, b += CHANNELS) {
+                        targets[0][to + i] = buffer[b];
+                        targets[1][to + i] = buffer[b + 1];
+                        targets[2][to + i] = buffer[b + 2];
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    // Rows may come in any order; the file has its full size once the header is written
+    public static final class Writer implements Closeable {
+        private final FileChannel channel;
+        private final int width;
+        private final int height;
+        private final Layout layout;
+        private byte[] buffer = new byte[0];
+
+        private Writer(FileChannel channel, int width, int height, Layout layout) {
+            this.channel = channel;
+            this.width = width;
+            this.height = height;
+            this.layout = layout;
+        }
+
+        public static Writer create(File file, int width, int height, Layout layout) throws IOException {
+            if (width <= 0 || height <= 0) {
+                throw new IllegalArgumentException("Invalid image size " + width + "x" + height);
+            }
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                // Mapping past the end grows the file
+                ByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+                header.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height).putInt(CHANNELS)
+                        .putInt(layout.ordinal());
+                long size = HEADER_BYTES + (long) CHANNELS * width * height;
+                channel.write(ByteBuffer.allocate(1), size - 1);
+                return new Writer(channel, width, height, layout);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        // Rows [row0, row1) of planes, which are image rows from y on
+        public void write(PixelPlanes planes, int row0, int row1, int y) throws IOException {
+            if (planes.getWidth() != width || y < 0 || y + row1 - row0 > height) {
+                throw new IllegalArgumentException("Rows do not fit a " + width + "x" + height + " image");
+            }
+            int chunk = Math.max(1, MAP_BYTES / rowBytes(layout, width));
+            byte[][] sources = {planes.getRed(), planes.getGreen(), planes.getBlue()};
+            for (int row = row0; row < row1; row += chunk) {
+                int end = Math.min(row1, row + chunk);
+                int from = row * width;
+                int count = (end - row) * width;
+                int target = y + row - row0;
+                if (layout == Layout.PLANAR) {
+                    for (int c = 0; c < CHANNELS; c++) {
+                        map(c, target, end - row).put(sources[c], from, count);
+                    }
+                } else {
+                    if (buffer.length < CHANNELS * count) {
+                        buffer = new byte[CHANNELS * count];
+                    }
+                    for (int i = 0, b = 0; i < count; i++, b += CHANNELS) {
+                        buffer[b] = sources[0][from + i];
+                        buffer[b + 1] = sources[1][from + i];
+                        buffer[b + 2] = sources[2][from + i];
+                    }
+                    map(0, target, end - row).put(buffer, 0, CHANNELS * count);
+                }
+            }
+        }
+
+        private MappedByteBuffer map(int plane, int y, int rows) throws IOException {
+            return channel.map(FileChannel.MapMode.READ_WRITE, offset(layout, width, height, plane, y),
+                    (long) rowBytes(layout, width) * rows);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
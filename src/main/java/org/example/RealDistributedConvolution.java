@@ -1,22 +1,53 @@
 package org.example;
 
 import mpi.*;
-import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.Scanner;
 
 public class RealDistributedConvolution {
 
+    static final int MASTER = 0;
+
+    // Message tags
+    private static final int TAG_BAND = 0;     // band geometry, an empty band means stop
+    private static final int TAG_PIXELS = 1;   // band rows with ghost rows, encoded by PixelCodec
+    private static final int TAG_RESULT = 3;   // processed rows
+    private static final int TAG_TIMING = 4;   // compute seconds and result payload length for the band
+    private static final int TAG_HALO = 5;     // rows a neighbouring band needs for the next pass
+    // Band geometry: width, padded height, first row, ghost rows on top, valid rows, payload bytes
+    // (0 when streamed, every block then has its own message)
+    private static final int META_LENGTH = 6;
+    // Job descriptor: kernel count, gradient type, wire format, stream block rows, geometric transform
+    // (0 = none, else ordinal + 1); all zero means stop. Kernel jobs broadcast the kernel sizes and
+    // weights next, transforms the row bounds of every rank
+    private static final int DESCRIPTOR_LENGTH = 5;
+
+    private static final int DEFAULT_QUEUE_ROWS = 64;
+    private static final int DEFAULT_STREAM_ROWS = 16;
+    private static final int WARM_UP_SIZE = 512;
+    private static final int WARM_UP_JOBS = 3;
+    // Per-rank throughput of the last run; the next static split is proportional to it
+    static final String THROUGHPUT_FILE = "results/timing_logs/rank_throughput.csv";
+
     public static void main(String[] args) throws Exception {
         MPI.Init(args);
 
         int rank = MPI.COMM_WORLD.Rank();
         int size = MPI.COMM_WORLD.Size();
 
-        final int MASTER = 0;
-        BufferedImage inputImage = null;
-
         // 🧠 Filter out MPJ prepended args (like "0", "4", "smpdev")
         int offset = 0;
         while (offset < args.length && (args[offset].matches("\\d+") || args[offset].equalsIgnoreCase("smpdev"))) {
@@ -24,185 +55,1223 @@ public class RealDistributedConvolution {
         }
         String[] realArgs = new String[Math.max(0, args.length - offset)];
         System.arraycopy(args, offset, realArgs, 0, realArgs.length);
+        // --queue switches to the work-queue schedule, --band=N sets its band height,
+        // --wire=int|rgb|planar|lz picks the pixel wire format (see PixelCodec),
+        // --stream[=N] pipelines every static band in blocks of N rows, --threads=N runs every rank's
+        // rows on N threads (0 = all cores of that node, default 1) with --tile=N tiles,
+        // --serve keeps the ranks up and takes jobs from DistributedClient on --port=N.
+        // Comma separated operations (see ImagePipeline) keep every band on its rank for all passes.
+        // mirror, flip-vertical, rotate90/180/270 and transpose run on all ranks (see GeometricTransform)
+        Map<String, String> options = new HashMap<>();
+        realArgs = Main.parseOptions(realArgs, options);
 
         if (rank == MASTER) {
             System.out.println("===== FILTERED USER ARGS =====");
             for (int i = 0; i < realArgs.length; i++) {
                 System.out.println("realArgs[" + i + "] = " + realArgs[i]);
             }
+            try {
+                if (options.containsKey("serve")) {
+                    serve(size, options);
+                } else {
+                    runOnce(size, realArgs, options);
+                }
+            } finally {
+                stopWorkers();
+            }
+        } else {
+            try {
+                runWorkers(options);
+            } catch (Exception e) {
+                System.err.println("Worker " + rank + " error:");
+                e.printStackTrace();
+            }
+        }
+
+        MPI.Finalize();
+    }
+
+    // How jobs are split and moved; the same for every job of a service
+    private static final class Settings {
+        PixelCodec.Format format = PixelCodec.Format.INT;
+        int blockRows;
+        boolean queue;
+        int bandRows = DEFAULT_QUEUE_ROWS;
+
+        static Settings parse(Map<String, String> options) {
+            Settings settings = new Settings();
+            configureThreads(options);
+            settings.format = PixelCodec.Format.parse(options.getOrDefault("wire", "int"));
+            if (options.containsKey("stream")) {
+                settings.blockRows = "true".equals(options.get("stream")) ? DEFAULT_STREAM_ROWS
+                        : Math.max(1, Main.intOption(options, "stream", DEFAULT_STREAM_ROWS));
+            }
+            settings.queue = options.containsKey("queue");
+            settings.bandRows = Math.max(1, Main.intOption(options, "band", DEFAULT_QUEUE_ROWS));
+            return settings;
+        }
+
+        String describe() {
+            if (blockRows > 0) {
+                return "static, streamed in " + blockRows + "-row blocks";
+            }
+            return queue ? "work queue, " + bandRows + "-row bands" : "static, split by measured throughput";
         }
+    }
+
+    // One image from a file to a file, the original command line mode
+    private static void runOnce(int size, String[] realArgs, Map<String, String> options) throws Exception {
+        double startTime = MPI.Wtime();
+        // Nothing writes an input for this mode any more (the GUI submits to --serve), so there is no default
+        if (realArgs.length == 0) {
+            System.out.println("Usage: RealDistributedConvolution <input image or .raw> [output] [operation] "
+                    + "[--queue] [--band=N] [--wire=F] [--stream[=N]] [--threads=N] [--tile=N], or --serve [--port=N]");
+            return;
+        }
+        String inputPath = realArgs[0];
+        String outputPath = (realArgs.length > 1) ? realArgs[1] : "src/main/resources/output_real_distributed.jpg";
+        String operationArg = (realArgs.length > 2) ? realArgs[2] : null;
+
+        System.out.println("Resolved input path: " + inputPath);
+        System.out.println("Resolved output path: " + outputPath);
+
+        Settings settings;
+        try {
+            settings = Settings.parse(options);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            return;
+        }
+
+        File inputFile = new File(inputPath);
+        if (!inputFile.exists()) {
+            System.out.println("Input file not found: " + inputPath);
+            return;
+        }
+        // A raw input is copied plane by plane from the mapped file, with no decode or BufferedImage
+        PixelPlanes input = RawImage.isRaw(inputFile) ? RawImage.readPlanes(inputFile)
+                : PixelPlanes.fromImage(ImageIOExecutor.readImage(inputFile));
+        System.out.println("Image dimensions: " + input.getWidth() + "x" + input.getHeight());
+
+        Band job;
+        try {
+            job = prepareJob(operationArg, input, settings.format);
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Invalid kernel: " + e.getMessage());
+            return;
+        }
+        System.out.println("Starting real distributed convolution with " + size + " processes");
+        System.out.println("Operation: " + job.operation);
+        if (job.transform != null) {
+            System.out.println("Output dimensions: " + job.output.getWidth() + "x" + job.output.getHeight());
+        }
+        for (double[][] kernel : job.kernels) {
+            System.out.println("Kernel size: " + kernel.length + "x" + kernel[0].length);
+        }
+        System.out.println("Wire format: " + settings.format);
+        System.out.println("Threads per rank: " + TiledExecutor.getParallelism());
+        System.out.println("Schedule: " + (job.kernels.length > 1
+                ? "resident bands, " + job.kernels.length + " passes with halo exchange" : settings.describe()));
+
+        BufferedImage outputImage = new BufferedImage(job.output.getWidth(), job.output.getHeight(),
+                BufferedImage.TYPE_INT_RGB);
+        job.raster = ((DataBufferInt) outputImage.getRaster().getDataBuffer()).getData();
+        double setupEnd = MPI.Wtime();
+        runJob(job, size, settings);
+        double computeEnd = MPI.Wtime();
+
+        ImageIOExecutor.writeImage(outputImage, "jpg", new File(outputPath));
+        System.out.println("Output saved to: " + outputPath);
+        System.out.printf("Setup: %.3f ms, distributed compute: %.3f ms%n",
+                (setupEnd - startTime) * 1000, (computeEnd - setupEnd) * 1000);
+        reportThroughput(job, size);
+        if (job.kernels.length > 1) {
+            // Without resident bands every pass would scatter and gather the image once
+            System.out.printf("Halo exchange: %.2f MB, instead of %.2f MB through the master%n",
+                    job.haloBytes / 1e6, 2.0 * 3 * job.width * job.height * (job.kernels.length - 1) / 1e6);
+        }
+        // The int[] transfers this replaced moved 4 bytes per pixel each way, ghost rows included
+        if (job.pixelsSent > 0) {
+            System.out.printf("Wire: %.2f MB sent, %.2f MB received (%.1f%% / %.1f%% of int[] transfers)%n",
+                    job.bytesSent / 1e6, job.bytesReceived / 1e6, 100.0 * job.bytesSent / (4.0 * job.pixelsSent),
+                    100.0 * job.bytesReceived / (4.0 * job.pixelsReceived));
+        }
+    }
+
+    // Long-lived mode: the ranks stay up between jobs, so a job pays neither the MPI bootstrap nor JIT
+    // warm-up. Jobs come one connection at a time (see DistributedClient) and run on all ranks in turn
+    private static void serve(int size, Map<String, String> options) throws Exception {
+        Settings settings;
+        int port;
+        try {
+            settings = Settings.parse(options);
+            port = Main.intOption(options, "port", DistributedClient.DEFAULT_PORT);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            return;
+        }
+
+        // A few throwaway jobs get the hot loops of every rank compiled before the first real one
+        double warmStart = MPI.Wtime();
+        PixelPlanes sample = new PixelPlanes(WARM_UP_SIZE, WARM_UP_SIZE);
+        new Random(0).nextBytes(sample.getRed());
+        for (int i = 0; i < WARM_UP_JOBS; i++) {
+            runJob(prepareJob(null, sample, settings.format), size, settings);
+        }
+        System.out.printf("Warm-up: %.3f ms%n", (MPI.Wtime() - warmStart) * 1000);
+
+        try (ServerSocket server = new ServerSocket(port, 0, InetAddress.getLoopbackAddress())) {
+            System.out.println("Distributed service on localhost:" + port + ", " + size + " ranks, "
+                    + TiledExecutor.getParallelism() + " threads per rank, schedule: " + settings.describe());
+            int jobs = 0;
+            while (true) {
+                try (Socket socket = server.accept()) {
+                    socket.setTcpNoDelay(true);
+                    DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                    int request = in.readInt();
+                    if (request == DistributedClient.JOB) {
+                        serveJob(in, out, size, settings, ++jobs);
+                    } else if (request != DistributedClient.PING && request != DistributedClient.SHUTDOWN) {
+                        throw new IOException("Unknown request " + request);
+                    } else {
+                        out.writeInt(DistributedClient.OK);
+                    }
+                    out.flush();
+                    if (request == DistributedClient.SHUTDOWN) {
+                        System.out.println("Shutting down after " + jobs + " jobs");
+                        return;
+                    }
+                } catch (IOException e) {
+                    System.out.println("Connection failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // A job that fails before it is broadcast costs the client an ERROR and nothing more. Once runJob
+    // has started, the other ranks are somewhere inside the job's messages and no stop descriptor can
+    // reach them, so a failure there aborts every rank instead of leaving them hanging
+    private static void serveJob(DataInputStream in, DataOutputStream out, int size, Settings settings, int number)
+            throws IOException, MPIException {
+        String operation = in.readUTF();
+        double start = MPI.Wtime();
+        PixelPlanes source;
+        Band job;
+        try {
+            source = DistributedClient.readPlanes(in);
+        } catch (RuntimeException | OutOfMemoryError e) {
+            System.out.println("Job " + number + " failed: " + e);
+            reject(out, "Job failed: " + e);
+            return;
+        }
+        try {
+            job = prepareJob(operation, source, settings.format);
+        } catch (IOException | IllegalArgumentException e) {
+            reject(out, "Invalid kernel: " + e.getMessage());
+            return;
+        } catch (RuntimeException | OutOfMemoryError e) {
+            System.out.println("Job " + number + " failed: " + e);
+            reject(out, "Job failed: " + e);
+            return;
+        }
+        try {
+            runJob(job, size, settings);
+        } catch (RuntimeException | Error e) {
+            System.out.println("Job " + number + " failed, stopping all ranks: " + e);
+            try {
+                reject(out, "Job failed, distributed service stopped: " + e);
+                out.flush();
+            } finally {
+                MPI.COMM_WORLD.Abort(1);
+            }
+            throw e;
+        }
+        out.writeInt(DistributedClient.OK);
+        DistributedClient.writePlanes(out, job.output);
+        System.out.printf("Job %d: %s, %dx%d, %.3f ms%n", number, operation, source.getWidth(), source.getHeight(),
+                (MPI.Wtime() - start) * 1000);
+        reportThroughput(job, size);
+    }
+
+    private static void reject(DataOutputStream out, String message) throws IOException {
+        out.writeInt(DistributedClient.ERROR);
+        out.writeUTF(message);
+    }
 
-        // Default operation and kernel
+    // The kernel for an operation name or spec, or the transform; anything unknown is edge detection
+    private static Band prepareJob(String operationArg, PixelPlanes source, PixelCodec.Format format)
+            throws IOException {
+        GeometricTransform.Type transform = operationArg == null ? null
+                : GeometricTransform.Type.forOperation(operationArg);
+        if (transform != null) {
+            return prepareTransform(operationArg, transform, source, format);
+        }
+        if (operationArg != null && !KernelFactory.isSpec(operationArg)) {
+            operationArg = operationArg.toLowerCase();
+        }
+        if (operationArg != null && ImagePipeline.isPipeline(operationArg)) {
+            ImagePipeline pipeline = ImagePipeline.parse(operationArg);
+            if (pipeline.getStageKernels().isEmpty() && pipeline.isMirrored()) {
+                return prepareTransform(operationArg, GeometricTransform.Type.MIRROR, source, format);
+            }
+            Band job = new Band(operationArg, source.getWidth(), source.getHeight(),
+                    pipeline.getStageKernels().toArray(new double[0][][]), 0, format);
+            job.mirror = pipeline.isMirrored();
+            job.source = source;
+            job.output = new PixelPlanes(job.width, job.height);
+            return job;
+        }
+        String operation = "Edge Detection";
         double[][] kernel = {
                 {0, -1, 0},
                 {-1, 4, -1},
                 {0, -1, 0}
         };
-        String operation = "Edge Detection";
+        GradientOperator.Type gradient = null;
+        if (operationArg != null && GradientOperator.Type.forOperation(operationArg) != null) {
+            gradient = GradientOperator.Type.forOperation(operationArg);
+            operation = gradient + " gradient";
+            kernel = gradient.kernelX();
+        } else if (operationArg != null && KernelFactory.isSpec(operationArg)) {
+            operation = operationArg;
+            kernel = KernelFactory.parse(operationArg);
+        } else if (operationArg != null) {
+            switch (operationArg) {
+                case "blur":
+                    operation = "Blur";
+                    kernel = new double[][]{
+                            {1 / 16.0, 2 / 16.0, 1 / 16.0},
+                            {2 / 16.0, 4 / 16.0, 2 / 16.0},
+                            {1 / 16.0, 2 / 16.0, 1 / 16.0}
+                    };
+                    break;
+                case "sharpen":
+                    operation = "Sharpen";
+                    kernel = new double[][]{
+                            {0, -1, 0},
+                            {-1, 5, -1},
+                            {0, -1, 0}
+                    };
+                    break;
+                case "edge":
+                case "edge detection":
+                default:
+                    operation = "Edge Detection";
+                    break;
+            }
+        }
+        Band job = new Band(operation, source.getWidth(), source.getHeight(), new double[][][]{kernel},
+                gradient == null ? 0 : gradient.ordinal() + 1, format);
+        job.source = source;
+        job.output = new PixelPlanes(job.width, job.height);
+        return job;
+    }
 
-        if (rank == MASTER) {
-            String inputPath = (realArgs.length > 0) ? realArgs[0] : "src/main/resources/gui_input_temp.jpg";
-            String outputPath = (realArgs.length > 1) ? realArgs[1] : "src/main/resources/output_real_distributed.jpg";
-            String operationArg = (realArgs.length > 2) ? realArgs[2].toLowerCase() : null;
-
-            System.out.println("Resolved input path: " + inputPath);
-            System.out.println("Resolved output path: " + outputPath);
-
-            if ("mirror".equals(operationArg)) {
-                operation = "Mirror";
-                System.out.println("Performing mirror operation...");
-
-                File inputFile = new File(inputPath);
-                if (!inputFile.exists()) {
-                    System.out.println("Input file not found: " + inputPath);
-                    MPI.Finalize();
-                    return;
-                }
+    private static Band prepareTransform(String operation, GeometricTransform.Type transform, PixelPlanes source,
+                                         PixelCodec.Format format) {
+        Band job = new Band(operation, source.getWidth(), source.getHeight(), new double[0][][], 0, format);
+        job.transform = transform;
+        job.source = source;
+        job.output = new PixelPlanes(transform.outputWidth(job.width, job.height),
+                transform.outputHeight(job.width, job.height));
+        return job;
+    }
 
-                inputImage = ImageIO.read(inputFile);
-                int width = inputImage.getWidth();
-                int height = inputImage.getHeight();
+    // Broadcast the descriptor (kernel count, gradient type (0 = plain kernel), wire format and stream
+    // block rows), every kernel's size and then the weights, and run the job on every rank. Gradients
+    // send their X kernel, which sets the halo.
+    private static void runJob(Band job, int size, Settings settings) throws MPIException {
+        if (job.transform != null) {
+            MPI.COMM_WORLD.Bcast(new int[]{0, 0, job.format.ordinal(), 0, job.transform.ordinal() + 1}, 0,
+                    DESCRIPTOR_LENGTH, MPI.INT, MASTER);
+            runTransform(job, size);
+            return;
+        }
+        if (job.kernels.length == 0) {
+            // A pipeline of mirrors that cancel out: nothing for the workers
+            job.prepare(size);
+            copyRows(job.source, job.output, 0, job.height, 0, job.mirror);
+            publish(job, 0, job.height);
+            return;
+        }
+        broadcastKernels(new int[]{job.kernels.length, job.gradient, job.format.ordinal(), settings.blockRows, 0},
+                job.kernels);
+        if (job.kernels.length > 1) {
+            runResident(job, size);
+        } else if (settings.blockRows > 0) {
+            runStreamed(job, size, settings.blockRows);
+        } else if (settings.queue) {
+            runQueue(job, size, settings.bandRows);
+        } else {
+            runStatic(job, size);
+        }
+    }
 
-                BufferedImage mirrored = new BufferedImage(width, height, inputImage.getType());
-                for (int y = 0; y < height; y++) {
-                    for (int x = 0; x < width; x++) {
-                        int pixel = inputImage.getRGB(x, y);
-                        mirrored.setRGB(width - x - 1, y, pixel);
-                    }
-                }
+    private static void broadcastKernels(int[] descriptor, double[][][] kernels) throws MPIException {
+        MPI.COMM_WORLD.Bcast(descriptor, 0, DESCRIPTOR_LENGTH, MPI.INT, MASTER);
+        int[] sizes = new int[2 * kernels.length];
+        int total = 0;
+        for (int k = 0; k < kernels.length; k++) {
+            sizes[2 * k] = kernels[k].length;
+            sizes[2 * k + 1] = kernels[k][0].length;
+            total += sizes[2 * k] * sizes[2 * k + 1];
+        }
+        double[] flatKernel = new double[total];
+        int idx = 0;
+        for (double[][] kernel : kernels)
+            for (int i = 0; i < kernel.length; i++)
+                for (int j = 0; j < kernel[0].length; j++)
+                    flatKernel[idx++] = kernel[i][j];
+        MPI.COMM_WORLD.Bcast(sizes, 0, sizes.length, MPI.INT, MASTER);
+        MPI.COMM_WORLD.Bcast(flatKernel, 0, flatKernel.length, MPI.DOUBLE, MASTER);
+    }
 
-                ImageIO.write(mirrored, "jpg", new File(outputPath));
-                System.out.println("Mirror output saved to: " + outputPath);
+    // An all-zero descriptor tells the workers to exit
+    private static void stopWorkers() throws MPIException {
+        MPI.COMM_WORLD.Bcast(new int[DESCRIPTOR_LENGTH], 0, DESCRIPTOR_LENGTH, MPI.INT, MASTER);
+    }
 
-                MPI.Finalize();
+    // Jobs until the master broadcasts an all-zero descriptor
+    private static void runWorkers(Map<String, String> options) throws MPIException {
+        while (true) {
+            int[] descriptor = new int[DESCRIPTOR_LENGTH];
+            MPI.COMM_WORLD.Bcast(descriptor, 0, DESCRIPTOR_LENGTH, MPI.INT, MASTER);
+            int count = descriptor[0];
+            if (descriptor[4] != 0) {
+                runTransformWorker(GeometricTransform.Type.values()[descriptor[4] - 1],
+                        PixelCodec.Format.values()[descriptor[2]]);
+                continue;
+            }
+            if (count == 0) {
                 return;
             }
+            int[] sizes = new int[2 * count];
+            MPI.COMM_WORLD.Bcast(sizes, 0, sizes.length, MPI.INT, MASTER);
+            int total = 0;
+            for (int k = 0; k < count; k++) {
+                total += sizes[2 * k] * sizes[2 * k + 1];
+            }
+            double[] flatKernel = new double[total];
+            MPI.COMM_WORLD.Bcast(flatKernel, 0, flatKernel.length, MPI.DOUBLE, MASTER);
 
-            // Choose kernel based on operation
-            if (operationArg != null) {
-                switch (operationArg) {
-                    case "blur":
-                        operation = "Blur";
-                        kernel = new double[][]{
-                                {1 / 16.0, 2 / 16.0, 1 / 16.0},
-                                {2 / 16.0, 4 / 16.0, 2 / 16.0},
-                                {1 / 16.0, 2 / 16.0, 1 / 16.0}
-                        };
-                        break;
-                    case "sharpen":
-                        operation = "Sharpen";
-                        kernel = new double[][]{
-                                {0, -1, 0},
-                                {-1, 5, -1},
-                                {0, -1, 0}
-                        };
-                        break;
-                    case "edge":
-                    case "edge detection":
-                    default:
-                        operation = "Edge Detection";
-                        break;
+            // Every rank gets the same arguments and the master has already checked them
+            configureThreads(options);
+            double[][][] kernels = new double[count][][];
+            for (int k = 0, idx = 0; k < count; k++) {
+                kernels[k] = new double[sizes[2 * k]][sizes[2 * k + 1]];
+                for (int i = 0; i < kernels[k].length; i++)
+                    for (int j = 0; j < kernels[k][0].length; j++)
+                        kernels[k][i][j] = flatKernel[idx++];
+            }
+
+            PixelCodec.Format format = PixelCodec.Format.values()[descriptor[2]];
+            if (count > 1) {
+                runResidentWorker(kernels, format);
+            } else {
+                runWorker(kernels[0], descriptor[1], format, descriptor[3]);
+            }
+        }
+    }
+
+    // One job as the master sees it: the whole image, the kernel, and per-rank accounting
+    private static final class Band {
+        final String operation;
+        final int width;
+        final int height;
+        final double[][][] kernels;
+        // The only kernel of a single pass job
+        final double[][] kernel;
+        final int gradient;
+        // Pipelines: flip the result once all passes are done
+        boolean mirror;
+        // Geometric jobs have no kernels and an output of their own size
+        GeometricTransform.Type transform;
+        long haloBytes;
+        final PixelCodec.Format format;
+        PixelPlanes source;
+        PixelPlanes output;
+        // Pixels of the output image, if any; rows are packed into it as soon as they are final
+        int[] raster;
+        long[] rows;
+        double[] seconds;
+        long bytesSent;
+        long bytesReceived;
+        long pixelsSent;
+        long pixelsReceived;
+        final List<Request> sends = new ArrayList<>();
+        // Per worker rank: the rows in flight, their receive buffer and the requests that complete them
+        Request[] results;
+        Request[] timings;
+        double[][] timing;
+        byte[][] buffers;
+        int[] inFlightStart;
+        int[] inFlightEnd;
+
+        Band(String operation, int width, int height, double[][][] kernels, int gradient, PixelCodec.Format format) {
+            this.operation = operation;
+            this.width = width;
+            this.height = height;
+            this.kernels = kernels;
+            this.kernel = kernels.length > 0 ? kernels[0] : null;
+            this.gradient = gradient;
+            this.format = format;
+        }
+
+        void prepare(int size) {
+            rows = new long[size];
+            seconds = new double[size];
+            results = new Request[size];
+            timings = new Request[size];
+            timing = new double[size][2];
+            buffers = new byte[size][0];
+            inFlightStart = new int[size];
+            inFlightEnd = new int[size];
+        }
+    }
+
+    // One band per rank, master included, sized by the throughput the previous run measured
+    private static void runStatic(Band job, int size) throws MPIException {
+        job.prepare(size);
+        int[] bounds = splitRows(job.height, loadThroughput(size));
+        // Ranks left without rows (more ranks than rows) only get the stop
+        List<Integer> workers = new ArrayList<>();
+        for (int w = 1; w < size; w++) {
+            if (bounds[w] < bounds[w + 1]) {
+                assign(job, w, bounds[w], bounds[w + 1]);
+                workers.add(w);
+            }
+            stop(job, w);
+        }
+        computeOwn(job, bounds[0], bounds[1]);
+        Request[] results = new Request[workers.size()];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = job.results[workers.get(i)];
+        }
+        for (int done = 0; done < results.length; done++) {
+            Status status = Request.Waitany(results);
+            complete(job, workers.get(status.index));
+        }
+        Request.Waitall(job.sends.toArray(new Request[0]));
+    }
+
+    // Small bands handed out on demand; the master works through the queue between replies,
+    // so a slow rank only ever holds up one band
+    private static void runQueue(Band job, int size, int bandRows) throws MPIException {
+        job.prepare(size);
+        int next = 0;
+        int busy = 0;
+        for (int w = 1; w < size; w++) {
+            if (next < job.height) {
+                assign(job, w, next, Math.min(job.height, next + bandRows));
+                next += bandRows;
+                busy++;
+            } else {
+                stop(job, w);
+            }
+        }
+        while (busy > 0 || next < job.height) {
+            Status status = busy > 0 ? Request.Testany(job.results) : null;
+            if (status != null) {
+                int w = status.index;
+                complete(job, w);
+                if (next < job.height) {
+                    assign(job, w, next, Math.min(job.height, next + bandRows));
+                    next += bandRows;
+                } else {
+                    stop(job, w);
+                    busy--;
                 }
+            } else if (next < job.height) {
+                computeOwn(job, next, Math.min(job.height, next + bandRows));
+                next += bandRows;
+            } else {
+                Thread.onSpinWait();
             }
+        }
+        Request.Waitall(job.sends.toArray(new Request[0]));
+    }
+
+    // Sends rows [yStart, yEnd) plus ghost rows to a worker and posts the receive for the result
+    private static void assign(Band job, int worker, int yStart, int yEnd) throws MPIException {
+        int kernelHeight = job.kernel[0].length;
+        int yStartPad = Math.max(0, yStart - kernelHeight / 2);
+        int yEndPad = Math.min(job.height, yEnd + kernelHeight - 1 - kernelHeight / 2);
+        byte[] payload = PixelCodec.encode(job.source, yStartPad, yEndPad, job.format);
+        int[] meta = {job.width, yEndPad - yStartPad, yStart, yStart - yStartPad, yEnd - yStart, payload.length};
+        job.sends.add(MPI.COMM_WORLD.Isend(meta, 0, META_LENGTH, MPI.INT, worker, TAG_BAND));
+        job.sends.add(MPI.COMM_WORLD.Isend(payload, 0, payload.length, MPI.BYTE, worker, TAG_PIXELS));
+        job.bytesSent += payload.length;
+        job.pixelsSent += (long) (yEndPad - yStartPad) * job.width;
+
+        int capacity = PixelCodec.maxEncodedSize((yEnd - yStart) * job.width, job.format);
+        if (job.buffers[worker].length < capacity) {
+            job.buffers[worker] = new byte[capacity];
+        }
+        job.results[worker] = MPI.COMM_WORLD.Irecv(job.buffers[worker], 0, capacity, MPI.BYTE, worker, TAG_RESULT);
+        job.timings[worker] = MPI.COMM_WORLD.Irecv(job.timing[worker], 0, 2, MPI.DOUBLE, worker, TAG_TIMING);
+        job.inFlightStart[worker] = yStart;
+        job.inFlightEnd[worker] = yEnd;
+    }
 
-            System.out.println("Starting real distributed convolution with " + size + " processes");
-            System.out.println("Operation: " + operation);
+    // The timing message carries the payload length, so the result is decoded once it is in.
+    // The finished request stays in results: Waitany and Testany skip completed requests, not nulls
+    private static void complete(Band job, int worker) throws MPIException {
+        job.timings[worker].Wait();
+        int yStart = job.inFlightStart[worker];
+        int yEnd = job.inFlightEnd[worker];
+        int length = (int) job.timing[worker][1];
+        PixelCodec.decode(job.buffers[worker], length, job.format, job.output, yStart, yEnd);
+        finishRows(job, yStart, yEnd);
+        job.bytesReceived += length;
+        job.pixelsReceived += (long) (yEnd - yStart) * job.width;
+        job.rows[worker] += yEnd - yStart;
+        job.seconds[worker] += job.timing[worker][0];
+    }
+
+    // An empty band tells the worker there is nothing more
+    private static void stop(Band job, int worker) throws MPIException {
+        job.sends.add(MPI.COMM_WORLD.Isend(new int[META_LENGTH], 0, META_LENGTH, MPI.INT, worker, TAG_BAND));
+    }
 
-            File inputFile = new File(inputPath);
-            if (!inputFile.exists()) {
-                System.out.println("Input file not found: " + inputPath);
-                MPI.Finalize();
+    // The master's share runs on the whole image directly; ghost rows are only a worker concern
+    private static void computeOwn(Band job, int yStart, int yEnd) {
+        if (yStart >= yEnd) {
+            return;
+        }
+        double start = MPI.Wtime();
+        computeRows(job.source, job.output, yStart, yEnd, job.kernel, job.gradient);
+        job.seconds[MASTER] += MPI.Wtime() - start;
+        job.rows[MASTER] += yEnd - yStart;
+        finishRows(job, yStart, yEnd);
+    }
+
+    // Rows [yStart, yEnd) of the output are final; a pipeline that ends in a mirror flips them first
+    private static void finishRows(Band job, int yStart, int yEnd) {
+        if (job.mirror) {
+            copyRows(job.output, job.output, yStart, yEnd, yStart, true);
+        }
+        publish(job, yStart, yEnd);
+    }
+
+    // Packs finished rows into the output image, so only the file encoding is left at the end
+    private static void publish(Band job, int yStart, int yEnd) {
+        if (job.raster == null) {
+            return;
+        }
+        int width = job.output.getWidth();
+        job.output.pack(job.raster, yStart * width, yStart * width, (yEnd - yStart) * width);
+    }
+
+    // Static bands, each moved in blocks of blockRows: the input of block k + 1 is on its way while a
+    // worker computes block k and block k - 1 travels back, so a band costs about max(comm, compute)
+    // instead of their sum. The master sends the next block of every band before computing its own
+    // and decodes results as they land
+    private static void runStreamed(Band job, int size, int blockRows) throws MPIException {
+        job.prepare(size);
+        int[] bounds = splitRows(job.height, loadThroughput(size));
+        int kernelHeight = job.kernel[0].length;
+        int top = kernelHeight / 2;
+        int bottom = kernelHeight - 1 - top;
+
+        // Every result block gets its receive up front; they complete in any order
+        List<Request> receives = new ArrayList<>();
+        List<int[]> blocks = new ArrayList<>();
+        List<byte[]> buffers = new ArrayList<>();
+        int capacity = PixelCodec.maxEncodedSize(blockRows * job.width, job.format);
+        int maxBlocks = blockCount(bounds[1] - bounds[0], blockRows);
+        for (int w = 1; w < size; w++) {
+            int yStart = bounds[w];
+            int yEnd = bounds[w + 1];
+            if (yStart < yEnd) {
+                int yStartPad = Math.max(0, yStart - top);
+                int yEndPad = Math.min(job.height, yEnd + bottom);
+                int[] meta = {job.width, yEndPad - yStartPad, yStart, yStart - yStartPad, yEnd - yStart, 0};
+                job.sends.add(MPI.COMM_WORLD.Isend(meta, 0, META_LENGTH, MPI.INT, w, TAG_BAND));
+                for (int y = yStart; y < yEnd; y += blockRows) {
+                    byte[] buffer = new byte[capacity];
+                    receives.add(MPI.COMM_WORLD.Irecv(buffer, 0, capacity, MPI.BYTE, w, TAG_RESULT));
+                    blocks.add(new int[]{w, y, Math.min(yEnd, y + blockRows)});
+                    buffers.add(buffer);
+                }
+                job.timings[w] = MPI.COMM_WORLD.Irecv(job.timing[w], 0, 2, MPI.DOUBLE, w, TAG_TIMING);
+                maxBlocks = Math.max(maxBlocks, blockCount(yEnd - yStart, blockRows));
+            }
+            stop(job, w);
+        }
+        Request[] pending = receives.toArray(new Request[0]);
+
+        int received = 0;
+        for (int k = 0; k < maxBlocks; k++) {
+            for (int w = 1; w < size; w++) {
+                int yStart = bounds[w];
+                int yEnd = bounds[w + 1];
+                if (k < blockCount(yEnd - yStart, blockRows)) {
+                    int yStartPad = Math.max(0, yStart - top);
+                    int paddedHeight = Math.min(job.height, yEnd + bottom) - yStartPad;
+                    int from = yStartPad + chunkEnd(k - 1, yStart - yStartPad, yEnd - yStart, paddedHeight, blockRows, bottom);
+                    int to = yStartPad + chunkEnd(k, yStart - yStartPad, yEnd - yStart, paddedHeight, blockRows, bottom);
+                    byte[] payload = PixelCodec.encode(job.source, from, to, job.format);
+                    job.sends.add(MPI.COMM_WORLD.Isend(payload, 0, payload.length, MPI.BYTE, w, TAG_PIXELS));
+                    job.bytesSent += payload.length;
+                    job.pixelsSent += (long) (to - from) * job.width;
+                }
+            }
+            int ownStart = bounds[0] + k * blockRows;
+            computeOwn(job, ownStart, Math.min(bounds[1], ownStart + blockRows));
+            Status status;
+            while ((status = Request.Testany(pending)) != null) {
+                receiveBlock(job, blocks.get(status.index), buffers.get(status.index), status);
+                received++;
+            }
+        }
+        for (; received < pending.length; received++) {
+            Status status = Request.Waitany(pending);
+            receiveBlock(job, blocks.get(status.index), buffers.get(status.index), status);
+        }
+
+        for (int w = 1; w < size; w++) {
+            if (bounds[w] < bounds[w + 1]) {
+                job.timings[w].Wait();
+                job.rows[w] += bounds[w + 1] - bounds[w];
+                job.seconds[w] += job.timing[w][0];
+            }
+        }
+        Request.Waitall(job.sends.toArray(new Request[0]));
+    }
+
+    // block = {worker, first row, end row}
+    private static void receiveBlock(Band job, int[] block, byte[] buffer, Status status) throws MPIException {
+        int length = status.Get_count(MPI.BYTE);
+        PixelCodec.decode(buffer, length, job.format, job.output, block[1], block[2]);
+        finishRows(job, block[1], block[2]);
+        job.bytesReceived += length;
+        job.pixelsReceived += (long) (block[2] - block[1]) * job.width;
+    }
+
+    private static int blockCount(int rows, int blockRows) {
+        return (rows + blockRows - 1) / blockRows;
+    }
+
+    // End of the padded band rows block k needs (block -1 needs none); chunk k is the rows from the
+    // end for block k - 1 to this one, so every input row crosses the wire once
+    static int chunkEnd(int k, int paddingTop, int validHeight, int paddedHeight, int blockRows, int bottom) {
+        if (k < 0) {
+            return 0;
+        }
+        int validEnd = Math.min(validHeight, (k + 1) * blockRows);
+        return Math.min(paddedHeight, paddingTop + validEnd + bottom);
+    }
+
+    private static void runWorker(double[][] kernel, int gradient, PixelCodec.Format format, int blockRows)
+            throws MPIException {
+        int[] meta = new int[META_LENGTH];
+        while (true) {
+            MPI.COMM_WORLD.Recv(meta, 0, META_LENGTH, MPI.INT, MASTER, TAG_BAND);
+            int width = meta[0];
+            int paddedHeight = meta[1];
+            int paddingTop = meta[3];
+            int validHeight = meta[4];
+            if (validHeight == 0) {
                 return;
             }
+            if (blockRows > 0) {
+                runStreamedBand(meta, kernel, gradient, format, blockRows);
+                continue;
+            }
 
-            inputImage = ImageIO.read(inputFile);
-            int height = inputImage.getHeight();
-            int width = inputImage.getWidth();
-            System.out.println("Image dimensions: " + width + "x" + height);
+            byte[] payload = new byte[meta[5]];
+            MPI.COMM_WORLD.Recv(payload, 0, payload.length, MPI.BYTE, MASTER, TAG_PIXELS);
+            double start = MPI.Wtime();
+            PixelPlanes band = new PixelPlanes(width, paddedHeight);
+            PixelCodec.decode(payload, payload.length, format, band, 0, paddedHeight);
+            PixelPlanes result = new PixelPlanes(width, paddedHeight);
+            computeRows(band, result, paddingTop, paddingTop + validHeight, kernel, gradient);
+            byte[] encoded = PixelCodec.encode(result, paddingTop, paddingTop + validHeight, format);
+            double[] timing = {MPI.Wtime() - start, encoded.length};
+            MPI.COMM_WORLD.Send(encoded, 0, encoded.length, MPI.BYTE, MASTER, TAG_RESULT);
+            MPI.COMM_WORLD.Send(timing, 0, 2, MPI.DOUBLE, MASTER, TAG_TIMING);
+        }
+    }
 
-            // Send kernel to workers
-            double[] flatKernel = new double[9];
-            for (int i = 0, idx = 0; i < 3; i++)
-                for (int j = 0; j < 3; j++)
-                    flatKernel[idx++] = kernel[i][j];
-            for (int i = 1; i < size; i++)
-                MPI.COMM_WORLD.Send(flatKernel, 0, 9, MPI.DOUBLE, i, 99);
+    // Worker side of runStreamed: two block receives stay posted, so the next block arrives while this
+    // one is computed, and results go back without waiting for the send
+    private static void runStreamedBand(int[] meta, double[][] kernel, int gradient, PixelCodec.Format format,
+                                        int blockRows) throws MPIException {
+        int width = meta[0];
+        int paddedHeight = meta[1];
+        int paddingTop = meta[3];
+        int validHeight = meta[4];
+        int bottom = kernel[0].length - 1 - kernel[0].length / 2;
+        int blocks = blockCount(validHeight, blockRows);
+        PixelPlanes band = new PixelPlanes(width, paddedHeight);
+        PixelPlanes result = new PixelPlanes(width, paddedHeight);
 
-            // Distribute chunks
-            int kernelRadius = 1;
-            int chunkHeight = height / (size - 1);
-            int remainder = height % (size - 1);
+        byte[][] inbox = new byte[2][];
+        Request[] arriving = new Request[2];
+        for (int k = 0; k < Math.min(2, blocks); k++) {
+            inbox[k] = new byte[PixelCodec.maxEncodedSize((blockRows + paddingTop + bottom) * width, format)];
+            arriving[k] = MPI.COMM_WORLD.Irecv(inbox[k], 0, inbox[k].length, MPI.BYTE, MASTER, TAG_PIXELS);
+        }
+        List<Request> sends = new ArrayList<>();
+        long bytes = 0;
+        double seconds = 0;
+        for (int k = 0; k < blocks; k++) {
+            int slot = k % 2;
+            int length = arriving[slot].Wait().Get_count(MPI.BYTE);
+            double start = MPI.Wtime();
+            int from = chunkEnd(k - 1, paddingTop, validHeight, paddedHeight, blockRows, bottom);
+            int to = chunkEnd(k, paddingTop, validHeight, paddedHeight, blockRows, bottom);
+            PixelCodec.decode(inbox[slot], length, format, band, from, to);
+            if (k + 2 < blocks) {
+                arriving[slot] = MPI.COMM_WORLD.Irecv(inbox[slot], 0, inbox[slot].length, MPI.BYTE, MASTER, TAG_PIXELS);
+            }
 
-            for (int i = 1; i < size; i++) {
-                int yStart = (i - 1) * chunkHeight;
-                int yEnd = yStart + chunkHeight + (i == size - 1 ? remainder : 0);
-                int yStartPad = Math.max(0, yStart - kernelRadius);
-                int yEndPad = Math.min(height, yEnd + kernelRadius);
+            int y0 = paddingTop + k * blockRows;
+            int y1 = paddingTop + Math.min(validHeight, (k + 1) * blockRows);
+            computeRows(band, result, y0, y1, kernel, gradient);
+            byte[] encoded = PixelCodec.encode(result, y0, y1, format);
+            seconds += MPI.Wtime() - start;
+            sends.add(MPI.COMM_WORLD.Isend(encoded, 0, encoded.length, MPI.BYTE, MASTER, TAG_RESULT));
+            bytes += encoded.length;
+        }
+        Request.Waitall(sends.toArray(new Request[0]));
+        double[] timing = {seconds, bytes};
+        MPI.COMM_WORLD.Send(timing, 0, 2, MPI.DOUBLE, MASTER, TAG_TIMING);
+    }
 
-                int paddedHeight = yEndPad - yStartPad;
-                int[] pixels = new int[width * paddedHeight];
-                inputImage.getRGB(0, yStartPad, width, paddedHeight, pixels, 0, width);
+    // Geometric transforms on row bands. Flips and rotate 180 stay inside a band; transpose and the
+    // quarter turns swap axes, so every rank cuts its band into one block per rank's output band and
+    // one Alltoallv moves them all. Output bands go straight to their final rows in the output
+    private static void runTransform(Band job, int size) throws MPIException {
+        job.prepare(size);
+        GeometricTransform.Type type = job.transform;
+        int outputHeight = job.output.getHeight();
+        int outputWidth = job.output.getWidth();
+        double[] weights = loadThroughput(size);
+        // Input row bounds of every rank, then the bounds of their bands before the flips
+        int[] bounds = new int[2 * (size + 1)];
+        System.arraycopy(splitRows(job.height, weights), 0, bounds, 0, size + 1);
+        System.arraycopy(type.transposes() ? splitRows(outputHeight, weights) : Arrays.copyOf(bounds, size + 1),
+                0, bounds, size + 1, size + 1);
+        MPI.COMM_WORLD.Bcast(bounds, 0, bounds.length, MPI.INT, MASTER);
 
-                int paddingTop = yStart - yStartPad;
-                int validHeight = yEnd - yStart;
+        List<Integer> workers = new ArrayList<>();
+        for (int w = 1; w < size; w++) {
+            int yStart = bounds[w];
+            int yEnd = bounds[w + 1];
+            byte[] payload = yStart < yEnd ? PixelCodec.encode(job.source, yStart, yEnd, job.format) : new byte[0];
+            int[] meta = {job.width, job.height, yStart, 0, yEnd - yStart, payload.length};
+            job.sends.add(MPI.COMM_WORLD.Isend(meta, 0, META_LENGTH, MPI.INT, w, TAG_BAND));
+            if (payload.length > 0) {
+                job.sends.add(MPI.COMM_WORLD.Isend(payload, 0, payload.length, MPI.BYTE, w, TAG_PIXELS));
+                job.bytesSent += payload.length;
+                job.pixelsSent += (long) (yEnd - yStart) * job.width;
+            }
+            int outStart = bounds[size + 1 + w];
+            int outEnd = bounds[size + 2 + w];
+            if (outStart < outEnd) {
+                int capacity = PixelCodec.maxEncodedSize((outEnd - outStart) * outputWidth, job.format);
+                job.buffers[w] = new byte[capacity];
+                job.results[w] = MPI.COMM_WORLD.Irecv(job.buffers[w], 0, capacity, MPI.BYTE, w, TAG_RESULT);
+                job.timings[w] = MPI.COMM_WORLD.Irecv(job.timing[w], 0, 2, MPI.DOUBLE, w, TAG_TIMING);
+                job.inFlightStart[w] = outStart;
+                job.inFlightEnd[w] = outEnd;
+                workers.add(w);
+            }
+        }
 
-                int[] meta = {width, paddedHeight, yStart, paddingTop, validHeight};
-                MPI.COMM_WORLD.Send(meta, 0, 5, MPI.INT, i, 0);
-                MPI.COMM_WORLD.Send(pixels, 0, pixels.length, MPI.INT, i, 1);
+        PixelPlanes band = new PixelPlanes(job.width, bounds[1] - bounds[0]);
+        copyRows(job.source, band, bounds[0], bounds[1], 0, false);
+        double start = MPI.Wtime();
+        PixelPlanes result = transformBand(band, bounds, size, MASTER, type);
+        job.seconds[MASTER] += MPI.Wtime() - start;
+        job.rows[MASTER] += bounds[1] - bounds[0];
+        int target = transformTarget(type, bounds[size + 1], bounds[size + 2], outputHeight);
+        copyRows(result, job.output, 0, result.getHeight(), target, false);
+        publish(job, target, target + result.getHeight());
+
+        Request[] results = new Request[workers.size()];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = job.results[workers.get(i)];
+        }
+        for (int done = 0; done < results.length; done++) {
+            int w = workers.get(Request.Waitany(results).index);
+            job.timings[w].Wait();
+            int rows = job.inFlightEnd[w] - job.inFlightStart[w];
+            int length = (int) job.timing[w][1];
+            target = transformTarget(type, job.inFlightStart[w], job.inFlightEnd[w], outputHeight);
+            PixelCodec.decode(job.buffers[w], length, job.format, job.output, target, target + rows);
+            publish(job, target, target + rows);
+            job.bytesReceived += length;
+            job.pixelsReceived += (long) rows * outputWidth;
+            job.rows[w] += bounds[w + 1] - bounds[w];
+            job.seconds[w] += job.timing[w][0];
+        }
+        Request.Waitall(job.sends.toArray(new Request[0]));
+    }
+
+    private static void runTransformWorker(GeometricTransform.Type type, PixelCodec.Format format)
+            throws MPIException {
+        int size = MPI.COMM_WORLD.Size();
+        int rank = MPI.COMM_WORLD.Rank();
+        int[] bounds = new int[2 * (size + 1)];
+        MPI.COMM_WORLD.Bcast(bounds, 0, bounds.length, MPI.INT, MASTER);
+        int[] meta = new int[META_LENGTH];
+        MPI.COMM_WORLD.Recv(meta, 0, META_LENGTH, MPI.INT, MASTER, TAG_BAND);
+        PixelPlanes band = new PixelPlanes(meta[0], meta[4]);
+        if (meta[5] > 0) {
+            byte[] payload = new byte[meta[5]];
+            MPI.COMM_WORLD.Recv(payload, 0, payload.length, MPI.BYTE, MASTER, TAG_PIXELS);
+            PixelCodec.decode(payload, payload.length, format, band, 0, meta[4]);
+        }
+
+        // Every rank takes part in the exchange, with or without rows of its own
+        double start = MPI.Wtime();
+        PixelPlanes result = transformBand(band, bounds, size, rank, type);
+        if (result.getHeight() == 0) {
+            return;
+        }
+        byte[] encoded = PixelCodec.encode(result, 0, result.getHeight(), format);
+        double[] timing = {MPI.Wtime() - start, encoded.length};
+        MPI.COMM_WORLD.Send(encoded, 0, encoded.length, MPI.BYTE, MASTER, TAG_RESULT);
+        MPI.COMM_WORLD.Send(timing, 0, 2, MPI.DOUBLE, MASTER, TAG_TIMING);
+    }
+
+    // This rank's output band: its input band transposed across all ranks if needed, then flipped
+    private static PixelPlanes transformBand(PixelPlanes band, int[] bounds, int size, int rank,
+                                             GeometricTransform.Type type) throws MPIException {
+        PixelPlanes result = type.transposes() ? transposeBands(band, bounds, size, rank) : band;
+        GeometricTransform.flipRows(result, 0, result.getHeight(), type.flipsX(), type.flipsY());
+        return result;
+    }
+
+    // Rank q's output rows are input columns [out[q], out[q + 1]): every rank sends q that slice of
+    // its band, transposed, and q lays the slices side by side
+    private static PixelPlanes transposeBands(PixelPlanes band, int[] bounds, int size, int rank)
+            throws MPIException {
+        int rows = band.getHeight();
+        int outputRows = bounds[size + 2 + rank] - bounds[size + 1 + rank];
+        int[] sendCounts = new int[size];
+        int[] sendOffsets = new int[size];
+        int[] recvCounts = new int[size];
+        int[] recvOffsets = new int[size];
+        for (int q = 0, sent = 0, received = 0; q < size; q++) {
+            sendCounts[q] = 3 * (bounds[size + 2 + q] - bounds[size + 1 + q]) * rows;
+            sendOffsets[q] = sent;
+            sent += sendCounts[q];
+            recvCounts[q] = 3 * outputRows * (bounds[q + 1] - bounds[q]);
+            recvOffsets[q] = received;
+            received += recvCounts[q];
+        }
+        byte[] outgoing = new byte[sendOffsets[size - 1] + sendCounts[size - 1]];
+        for (int q = 0; q < size; q++) {
+            GeometricTransform.transposeBlock(band, bounds[size + 1 + q], 0, bounds[size + 2 + q], rows,
+                    outgoing, sendOffsets[q]);
+        }
+        byte[] incoming = new byte[recvOffsets[size - 1] + recvCounts[size - 1]];
+        MPI.COMM_WORLD.Alltoallv(outgoing, 0, sendCounts, sendOffsets, MPI.BYTE,
+                incoming, 0, recvCounts, recvOffsets, MPI.BYTE);
+
+        PixelPlanes result = new PixelPlanes(bounds[size], outputRows);
+        for (int r = 0; r < size; r++) {
+            GeometricTransform.placeBlock(incoming, recvOffsets[r], result, bounds[r], 0, outputRows,
+                    bounds[r + 1] - bounds[r]);
+        }
+        return result;
+    }
+
+    // First output row of the band that covers rows [start, end) before the flips
+    private static int transformTarget(GeometricTransform.Type type, int start, int end, int outputHeight) {
+        return type.flipsY() ? outputHeight - end : start;
+    }
+
+    // Multi-pass jobs: every rank keeps its band for all passes. Before each pass neighbouring ranks
+    // swap just the rows that pass's kernel reaches across the band edge, so the image is scattered and
+    // gathered once however many passes there are. Bands must be at least as tall as the largest halo,
+    // so small images use fewer ranks
+    private static void runResident(Band job, int size) throws MPIException {
+        job.prepare(size);
+        int[] halo = residentHalo(job.kernels);
+        int active = Math.max(1, Math.min(size, job.height / Math.max(1, Math.max(halo[0], halo[1]))));
+        int[] activeBounds = splitRows(job.height, Arrays.copyOf(loadThroughput(size), active));
+        for (int r = 0; r < active; r++) {
+            if (activeBounds[r + 1] - activeBounds[r] < Math.max(halo[0], halo[1])) {
+                double[] equal = new double[active];
+                Arrays.fill(equal, 1);
+                activeBounds = splitRows(job.height, equal);
+                break;
+            }
+        }
+        int[] bounds = Arrays.copyOf(activeBounds, size + 1);
+        Arrays.fill(bounds, active + 1, size + 1, job.height);
+
+        List<Integer> workers = new ArrayList<>();
+        for (int w = 1; w < size; w++) {
+            int yStart = bounds[w];
+            int yEnd = bounds[w + 1];
+            byte[] payload = yStart < yEnd ? PixelCodec.encode(job.source, yStart, yEnd, job.format) : new byte[0];
+            int[] meta = {job.width, job.height, yStart, 0, yEnd - yStart, payload.length};
+            job.sends.add(MPI.COMM_WORLD.Isend(meta, 0, META_LENGTH, MPI.INT, w, TAG_BAND));
+            if (yStart < yEnd) {
+                job.sends.add(MPI.COMM_WORLD.Isend(payload, 0, payload.length, MPI.BYTE, w, TAG_PIXELS));
+                job.bytesSent += payload.length;
+                job.pixelsSent += (long) (yEnd - yStart) * job.width;
+                int capacity = PixelCodec.maxEncodedSize((yEnd - yStart) * job.width, job.format);
+                job.buffers[w] = new byte[capacity];
+                job.results[w] = MPI.COMM_WORLD.Irecv(job.buffers[w], 0, capacity, MPI.BYTE, w, TAG_RESULT);
+                job.timings[w] = MPI.COMM_WORLD.Irecv(job.timing[w], 0, 2, MPI.DOUBLE, w, TAG_TIMING);
+                job.inFlightStart[w] = yStart;
+                job.inFlightEnd[w] = yEnd;
+                workers.add(w);
             }
+        }
+
+        // The master's band, straight from the source image
+        int planeTop = Math.max(0, bounds[0] - halo[0]);
+        int planeBottom = Math.min(job.height, bounds[1] + halo[1]);
+        PixelPlanes band = new PixelPlanes(job.width, planeBottom - planeTop);
+        copyRows(job.source, band, bounds[0], bounds[1], bounds[0] - planeTop, false);
+        double start = MPI.Wtime();
+        PixelPlanes result = runPasses(band, planeTop, bounds[0], bounds[1], job.height, job.kernels);
+        job.seconds[MASTER] += MPI.Wtime() - start;
+        job.rows[MASTER] += bounds[1] - bounds[0];
+        copyRows(result, job.output, bounds[0] - planeTop, bounds[1] - planeTop, bounds[0], job.mirror);
+        publish(job, bounds[0], bounds[1]);
 
-            // Collect results
-            BufferedImage outputImage = new BufferedImage(width, height, inputImage.getType());
-            for (int i = 1; i < size; i++) {
-                int[] meta = new int[3];
-                MPI.COMM_WORLD.Recv(meta, 0, 3, MPI.INT, i, 2);
-                int w = meta[0], h = meta[1], y = meta[2];
+        Request[] results = new Request[workers.size()];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = job.results[workers.get(i)];
+        }
+        for (int done = 0; done < results.length; done++) {
+            int w = workers.get(Request.Waitany(results).index);
+            job.timings[w].Wait();
+            int yStart = job.inFlightStart[w];
+            int yEnd = job.inFlightEnd[w];
+            int length = (int) job.timing[w][1];
+            PixelCodec.decode(job.buffers[w], length, job.format, job.output, yStart, yEnd);
+            finishRows(job, yStart, yEnd);
+            job.bytesReceived += length;
+            job.pixelsReceived += (long) (yEnd - yStart) * job.width;
+            job.rows[w] += yEnd - yStart;
+            job.seconds[w] += job.timing[w][0];
+        }
+        Request.Waitall(job.sends.toArray(new Request[0]));
+
+        // Every boundary between active bands carries each pass's top and bottom halo once
+        for (double[][] kernel : job.kernels) {
+            int rows = kernel[0].length - 1;
+            job.haloBytes += 3L * rows * job.width * (active - 1);
+        }
+    }
+
+    private static void runResidentWorker(double[][][] kernels, PixelCodec.Format format) throws MPIException {
+        int[] meta = new int[META_LENGTH];
+        MPI.COMM_WORLD.Recv(meta, 0, META_LENGTH, MPI.INT, MASTER, TAG_BAND);
+        int width = meta[0];
+        int height = meta[1];
+        int yStart = meta[2];
+        int yEnd = yStart + meta[4];
+        if (yStart == yEnd) {
+            return;
+        }
+        byte[] payload = new byte[meta[5]];
+        MPI.COMM_WORLD.Recv(payload, 0, payload.length, MPI.BYTE, MASTER, TAG_PIXELS);
+
+        int[] halo = residentHalo(kernels);
+        int planeTop = Math.max(0, yStart - halo[0]);
+        int planeBottom = Math.min(height, yEnd + halo[1]);
+        double start = MPI.Wtime();
+        PixelPlanes band = new PixelPlanes(width, planeBottom - planeTop);
+        PixelCodec.decode(payload, payload.length, format, band, yStart - planeTop, yEnd - planeTop);
+        PixelPlanes result = runPasses(band, planeTop, yStart, yEnd, height, kernels);
+        byte[] encoded = PixelCodec.encode(result, yStart - planeTop, yEnd - planeTop, format);
+        double[] timing = {MPI.Wtime() - start, encoded.length};
+        MPI.COMM_WORLD.Send(encoded, 0, encoded.length, MPI.BYTE, MASTER, TAG_RESULT);
+        MPI.COMM_WORLD.Send(timing, 0, 2, MPI.DOUBLE, MASTER, TAG_TIMING);
+    }
 
-                int[] resultPixels = new int[w * h];
-                MPI.COMM_WORLD.Recv(resultPixels, 0, resultPixels.length, MPI.INT, i, 3);
-                outputImage.setRGB(0, y, w, h, resultPixels, 0, w);
+    // Largest halo above and below over all passes
+    private static int[] residentHalo(double[][][] kernels) {
+        int[] halo = new int[2];
+        for (double[][] kernel : kernels) {
+            int top = kernel[0].length / 2;
+            halo[0] = Math.max(halo[0], top);
+            halo[1] = Math.max(halo[1], kernel[0].length - 1 - top);
+        }
+        return halo;
+    }
+
+    // Runs every pass on rows [yStart, yEnd) of the image, held in band from image row planeTop on.
+    // Rows of band outside the image never exist, so the zero edges of the whole image still apply
+    private static PixelPlanes runPasses(PixelPlanes band, int planeTop, int yStart, int yEnd, int height,
+                                         double[][][] kernels) throws MPIException {
+        int rank = MPI.COMM_WORLD.Rank();
+        int width = band.getWidth();
+        PixelPlanes current = band;
+        PixelPlanes next = new PixelPlanes(width, band.getHeight());
+        for (double[][] kernel : kernels) {
+            int top = kernel[0].length / 2;
+            int bottom = kernel[0].length - 1 - top;
+            boolean hasAbove = yStart > 0;
+            boolean hasBelow = yEnd < height;
+            // My last rows go down as the next band's top halo, my first rows go up as its bottom halo
+            exchange(current, width, hasBelow ? rank + 1 : -1, yEnd - top - planeTop,
+                    hasAbove ? rank - 1 : -1, yStart - top - planeTop, top);
+            exchange(current, width, hasAbove ? rank - 1 : -1, yStart - planeTop,
+                    hasBelow ? rank + 1 : -1, yEnd - planeTop, bottom);
+            computeRows(current, next, yStart - planeTop, yEnd - planeTop, kernel, 0);
+            PixelPlanes done = next;
+            next = current;
+            current = done;
+        }
+        return current;
+    }
+
+    // Sends rows [sendRow, sendRow + rows) to dest and receives as many rows from source into recvRow;
+    // -1 means no such neighbour
+    private static void exchange(PixelPlanes planes, int width, int dest, int sendRow, int source, int recvRow,
+                                 int rows) throws MPIException {
+        if (rows == 0 || (dest < 0 && source < 0)) {
+            return;
+        }
+        int count = 3 * rows * width;
+        byte[] outgoing = dest < 0 ? null : PixelCodec.encode(planes, sendRow, sendRow + rows, PixelCodec.Format.PLANAR);
+        byte[] incoming = source < 0 ? null : new byte[count];
+        if (dest >= 0 && source >= 0) {
+            MPI.COMM_WORLD.Sendrecv(outgoing, 0, count, MPI.BYTE, dest, TAG_HALO,
+                    incoming, 0, count, MPI.BYTE, source, TAG_HALO);
+        } else if (dest >= 0) {
+            MPI.COMM_WORLD.Send(outgoing, 0, count, MPI.BYTE, dest, TAG_HALO);
+        } else {
+            MPI.COMM_WORLD.Recv(incoming, 0, count, MPI.BYTE, source, TAG_HALO);
+        }
+        if (incoming != null) {
+            PixelCodec.decode(incoming, count, PixelCodec.Format.PLANAR, planes, recvRow, recvRow + rows);
+        }
+    }
+
+    // Rows [y0, y1) of from into to starting at row toY, optionally flipped left to right.
+    // from and to may be the same planes
+    private static void copyRows(PixelPlanes from, PixelPlanes to, int y0, int y1, int toY, boolean mirror) {
+        int width = from.getWidth();
+        byte[][] in = {from.getRed(), from.getGreen(), from.getBlue()};
+        byte[][] out = {to.getRed(), to.getGreen(), to.getBlue()};
+        for (int c = 0; c < 3; c++) {
+            for (int y = y0; y < y1; y++) {
+                int src = y * width;
+                int dst = (toY + y - y0) * width;
+                if (!mirror) {
+                    System.arraycopy(in[c], src, out[c], dst, width);
+                    continue;
+                }
+                for (int left = 0, right = width - 1; left <= right; left++, right--) {
+                    byte a = in[c][src + left];
+                    out[c][dst + left] = in[c][src + right];
+                    out[c][dst + right] = a;
+                }
             }
+        }
+    }
+
+    // One rank per node with --threads=0 uses the whole machine without a JVM (and its setup) per core
+    private static void configureThreads(Map<String, String> options) {
+        TiledExecutor.configure(Main.intOption(options, "tile", 0), Main.intOption(options, "threads", 1));
+    }
+
+    // Rows [y0, y1) of src into dst with the sequential edge and rounding rules, which is what
+    // applyConvolution does; ghost rows make a band's result match the whole image's. With more than
+    // one thread the rows are cut into tiles for TiledExecutor, which gives the same pixels
+    static void computeRows(PixelPlanes src, PixelPlanes dst, int y0, int y1, double[][] kernel, int gradient) {
+        int width = src.getWidth();
+        if (TiledExecutor.getParallelism() == 1) {
+            computeRegion(src, dst, 0, y0, width, y1, kernel, gradient);
+            return;
+        }
+        int tile = TiledExecutor.tileSizeFor(kernel.length / 2, kernel[0].length / 2);
+        TiledExecutor.forEachTile(width, y1 - y0, tile, tile, (x0, ty0, x1, ty1) ->
+                computeRegion(src, dst, x0, y0 + ty0, x1, y0 + ty1, kernel, gradient));
+    }
 
-            ImageIO.write(outputImage, "jpg", new File(outputPath));
-            System.out.println("Output saved to: " + outputPath);
+    private static void computeRegion(PixelPlanes src, PixelPlanes dst, int x0, int y0, int x1, int y1,
+                                      double[][] kernel, int gradient) {
+        if (gradient == 0) {
+            ConvolutionEngine.convolveRegion(src, dst, kernel, ConvolutionEngine.EdgeMode.ZERO,
+                    ConvolutionEngine.Rounding.TRUNCATE, x0, y0, x1, y1);
         } else {
-            try {
-                double[] flatKernel = new double[9];
-                MPI.COMM_WORLD.Recv(flatKernel, 0, 9, MPI.DOUBLE, MASTER, 99);
-
-                double[][] kernelRecv = new double[3][3];
-                for (int i = 0, idx = 0; i < 3; i++)
-                    for (int j = 0; j < 3; j++)
-                        kernelRecv[i][j] = flatKernel[idx++];
-
-                int[] meta = new int[5];
-                MPI.COMM_WORLD.Recv(meta, 0, 5, MPI.INT, MASTER, 0);
-                int width = meta[0];
-                int paddedHeight = meta[1];
-                int yStart = meta[2];
-                int paddingTop = meta[3];
-                int validHeight = meta[4];
-
-                int[] receivedPixels = new int[width * paddedHeight];
-                MPI.COMM_WORLD.Recv(receivedPixels, 0, receivedPixels.length, MPI.INT, MASTER, 1);
-
-                BufferedImage chunk = new BufferedImage(width, paddedHeight, BufferedImage.TYPE_INT_RGB);
-                chunk.setRGB(0, 0, width, paddedHeight, receivedPixels, 0, width);
-
-                BufferedImage processed = ConvolutionProcessor.applyConvolution(chunk, kernelRecv);
-                BufferedImage validRegion = processed.getSubimage(0, paddingTop, width, validHeight);
-                int[] resultPixels = new int[width * validHeight];
-                validRegion.getRGB(0, 0, width, validHeight, resultPixels, 0, width);
-
-                int[] resultMeta = {width, validHeight, yStart};
-                MPI.COMM_WORLD.Send(resultMeta, 0, 3, MPI.INT, MASTER, 2);
-                MPI.COMM_WORLD.Send(resultPixels, 0, resultPixels.length, MPI.INT, MASTER, 3);
-            } catch (Exception e) {
-                System.err.println("Worker " + rank + " error:");
-                e.printStackTrace();
+            GradientOperator.gradientRegion(src, dst, null, GradientOperator.Type.values()[gradient - 1],
+                    ConvolutionEngine.EdgeMode.ZERO, ConvolutionEngine.Rounding.TRUNCATE, x0, y0, x1, y1);
+        }
+    }
+
+    // Row boundaries for size ranks, proportional to their weights; leftover rows go one each to the
+    // first ranks instead of all to the last
+    static int[] splitRows(int height, double[] weights) {
+        double total = 0;
+        for (double weight : weights) {
+            total += weight;
+        }
+        int[] bounds = new int[weights.length + 1];
+        int[] shares = new int[weights.length];
+        int assigned = 0;
+        for (int r = 0; r < weights.length; r++) {
+            shares[r] = (int) Math.floor(height * weights[r] / total);
+            assigned += shares[r];
+        }
+        for (int r = 0; assigned < height; r = (r + 1) % weights.length) {
+            shares[r]++;
+            assigned++;
+        }
+        for (int r = 0; r < weights.length; r++) {
+            bounds[r + 1] = bounds[r] + shares[r];
+        }
+        return bounds;
+    }
+
+    // Pixels per second per rank from the last run, or equal weights if there is no matching record
+    static double[] loadThroughput(int size) {
+        double[] weights = new double[size];
+        Arrays.fill(weights, 1);
+        File file = new File(THROUGHPUT_FILE);
+        if (!file.exists()) {
+            return weights;
+        }
+        try {
+            List<String> lines = Files.readAllLines(file.toPath());
+            if (lines.size() != size + 1) {
+                return weights;
             }
+            for (int r = 0; r < size; r++) {
+                double value = Double.parseDouble(lines.get(r + 1).split(",")[1]);
+                if (value > 0) {
+                    weights[r] = value;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Ignoring " + THROUGHPUT_FILE + ": " + e.getMessage());
+            Arrays.fill(weights, 1);
         }
+        return weights;
+    }
 
-        MPI.Finalize();
+    // Logs what every rank did and keeps it for the next static split
+    private static void reportThroughput(Band job, int size) {
+        StringBuilder csv = new StringBuilder("rank,pixels_per_second\n");
+        for (int r = 0; r < size; r++) {
+            double pixels = (double) job.rows[r] * job.width;
+            double rate = job.seconds[r] > 0 ? pixels / job.seconds[r] : 0;
+            System.out.printf("Rank %d: %d rows, %.3f ms compute, %.2f Mpx/s%n",
+                    r, job.rows[r], job.seconds[r] * 1000, rate / 1e6);
+            csv.append(r).append(',').append(rate).append('\n');
+        }
+        try {
+            File file = new File(THROUGHPUT_FILE);
+            if (file.getParentFile() != null) {
+                file.getParentFile().mkdirs();
+            }
+            Files.write(file.toPath(), csv.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            System.out.println("Could not save throughput: " + e.getMessage());
+        }
     }
 }
@@ -0,0 +1,249 @@
+package org.example;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+// Results of ConvolutionProcessor keyed by content: SHA-256 over the input's size, type and pixels
+// plus a description of the operation (kernel weights, edge and rounding semantics, backend flags),
+// so the same filter on the same pixels is computed once whatever file or window it came from.
+// The memory tier holds up to a byte limit and evicts least recently used results; the optional disk
+// tier keeps results as RawImage files named by key, which outlive the process. Hashing a 4K frame
+// takes tens of milliseconds, a hit costs that plus a copy.
+//
+// Callers own what they get: results are copied in and out of the memory tier.
+public final class ResultCache {
+
+    public static final long DEFAULT_MEMORY_BYTES = 256L << 20;
+
+    private static final int HASH_CHUNK = 1 << 16;
+
+    private static final LinkedHashMap<String, BufferedImage> MEMORY = new LinkedHashMap<>(16, 0.75f, true);
+    private static long memoryLimit = DEFAULT_MEMORY_BYTES;
+    private static long memoryBytes;
+    private static File directory;
+    private static volatile boolean enabled = false;
+
+    private static final LongAdder MEMORY_HITS = new LongAdder();
+    private static final LongAdder DISK_HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+    private static final LongAdder EVICTIONS = new LongAdder();
+
+    private ResultCache() {
+    }
+
+    // directory may be null for memory only; a limit of 0 keeps nothing in memory
+    public static synchronized void configure(long memoryLimit, File directory) throws IOException {
+        if (memoryLimit < 0) {
+            throw new IllegalArgumentException("Cache size must not be negative");
+        }
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create cache directory " + directory);
+        }
+        ResultCache.memoryLimit = memoryLimit;
+        ResultCache.directory = directory;
+        evict();
+    }
+
+    public static void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static synchronized void clear() {
+        MEMORY.clear();
+        memoryBytes = 0;
+    }
+
+    // The cached result for input and operation, or compute's, which is then cached
+    public static BufferedImage apply(BufferedImage input, String operation, Supplier<BufferedImage> compute) {
+        if (!enabled) {
+            return compute.get();
+        }
+        String key = key(input, operation);
+        BufferedImage cached;
+        synchronized (ResultCache.class) {
+            cached = MEMORY.get(key);
+        }
+        if (cached != null) {
+            MEMORY_HITS.increment();
+            return copy(cached);
+        }
+        BufferedImage fromDisk = readDisk(key, input.getType());
+        if (fromDisk != null) {
+            DISK_HITS.increment();
+            store(key, copy(fromDisk));
+            return fromDisk;
+        }
+        MISSES.increment();
+        BufferedImage result = compute.get();
+        store(key, copy(result));
+        writeDisk(key, result);
+        return result;
+    }
+
+    // Edge and rounding semantics plus the backends that change results
+    public static String kernelKey(double[][] kernel, ConvolutionEngine.EdgeMode edges,
+                                   ConvolutionEngine.Rounding rounding) {
+        return edges + " " + rounding + (FixedPointConvolution.isEnabled() ? " fixed" : "")
+                + (SimdConvolution.isEnabled() ? " simd" : "") + " " + Arrays.deepToString(kernel);
+    }
+
+    public static long getHits() {
+        return MEMORY_HITS.sum() + DISK_HITS.sum();
+    }
+
+    public static long getMisses() {
+        return MISSES.sum();
+    }
+
+    public static synchronized String describe() {
+        return String.format("%d hits (%d from disk), %d misses, %d evictions, %d results in %.1f of %.1f MB%s",
+                getHits(), DISK_HITS.sum(), MISSES.sum(), EVICTIONS.sum(), MEMORY.size(), memoryBytes / 1e6,
+                memoryLimit / 1e6, directory != null ? ", disk " + directory : "");
+    }
+
+    private static synchronized void store(String key, BufferedImage image) {
+        long size = sizeOf(image);
+        if (size > memoryLimit) {
+            return;
+        }
+        BufferedImage previous = MEMORY.put(key, image);
+        if (previous != null) {
+            memoryBytes -= sizeOf(previous);
+        }
+        memoryBytes += size;
+        evict();
+    }
+
+    // Least recently used first: an access-ordered LinkedHashMap iterates in that order
+    private static synchronized void evict() {
+        Iterator<Map.Entry<String, BufferedImage>> entries = MEMORY.entrySet().iterator();
+        while (memoryBytes > memoryLimit && entries.hasNext()) {
+            memoryBytes -= sizeOf(entries.next().getValue());
+            entries.remove();
+            EVICTIONS.increment();
+        }
+    }
+
+    // RawImage keeps RGB only, so images with alpha or without a standard type stay in memory
+    private static boolean fitsDisk(int type) {
+        return type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_BGR
+                || type == BufferedImage.TYPE_3BYTE_BGR;
+    }
+
+    private static synchronized File diskFile(String key) {
+        return directory == null ? null : new File(directory, key + RawImage.EXTENSION);
+    }
+
+    private static BufferedImage readDisk(String key, int type) {
+        File file = diskFile(key);
+        if (file == null || !fitsDisk(type) || !file.isFile()) {
+            return null;
+        }
+        try {
+            return RawImage.readPlanes(file).toImage(type);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Written under a temporary name and renamed, so a reader never maps half a file
+    private static void writeDisk(String key, BufferedImage image) {
+        File file = diskFile(key);
+        if (file == null || !fitsDisk(image.getType())) {
+            return;
+        }
+        File partial = null;
+        try {
+            // A unique name, so writers of the same key in any thread or process never share a file
+            partial = Files.createTempFile(file.getParentFile().toPath(), file.getName() + ".", ".tmp").toFile();
+            RawImage.write(image, partial);
+            if (!partial.renameTo(file)) {
+                partial.delete();
+            }
+        } catch (IOException e) {
+            if (partial != null) {
+                partial.delete();
+            }
+        }
+    }
+
+    private static String key(BufferedImage image, String operation) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer chunk = ByteBuffer.allocate(HASH_CHUNK);
+        chunk.putInt(image.getWidth()).putInt(image.getHeight()).putInt(image.getType()).flip();
+        digest.update(chunk);
+
+        WritableRaster raster = image.getRaster();
+        DataBuffer db = raster.getDataBuffer();
+        boolean whole = image.getType() != BufferedImage.TYPE_CUSTOM && raster.getParent() == null
+                && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+                && db.getNumBanks() == 1 && db.getOffset() == 0;
+        if (whole && db instanceof DataBufferByte) {
+            digest.update(((DataBufferByte) db).getData());
+        } else if (whole && db instanceof DataBufferInt) {
+            int[] data = ((DataBufferInt) db).getData();
+            for (int i = 0; i < data.length; ) {
+                int count = Math.min(data.length - i, HASH_CHUNK / 4);
+                chunk.clear();
+                chunk.asIntBuffer().put(data, i, count);
+                chunk.limit(4 * count);
+                digest.update(chunk);
+                i += count;
+            }
+        } else {
+            // Anything else is hashed as the ARGB values getRGB returns, a row at a time
+            int width = image.getWidth();
+            int[] row = new int[width];
+            ByteBuffer bytes = ByteBuffer.allocate(4 * width);
+            for (int y = 0; y < image.getHeight(); y++) {
+                image.getRGB(0, y, width, 1, row, 0, width);
+                bytes.clear();
+                bytes.asIntBuffer().put(row);
+                digest.update(bytes);
+            }
+        }
+        digest.update(operation.getBytes(StandardCharsets.UTF_8));
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static long sizeOf(BufferedImage image) {
+        DataBuffer db = image.getRaster().getDataBuffer();
+        return (long) db.getNumBanks() * db.getSize() * DataBuffer.getDataTypeSize(db.getDataType()) / 8;
+    }
+
+    private static BufferedImage copy(BufferedImage image) {
+        ColorModel cm = image.getColorModel();
+        return new BufferedImage(cm, image.copyData(null), cm.isAlphaPremultiplied(), null);
+    }
+}
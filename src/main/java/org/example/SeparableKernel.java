@@ -0,0 +1,64 @@
+package org.example;
+
+// A rank-1 kernel split into its two 1D factors: kernel[i][j] == horizontal[i] * vertical[j]
+public final class SeparableKernel {
+
+    // Relative to the largest weight; absorbs the rounding in kernels like 1/9 or 1/16
+    private static final double TOLERANCE = 1e-9;
+
+    private final double[] horizontal;
+    private final double[] vertical;
+
+    private SeparableKernel(double[] horizontal, double[] vertical) {
+        this.horizontal = horizontal;
+        this.vertical = vertical;
+    }
+
+    public double[] getHorizontal() {
+        return horizontal;
+    }
+
+    public double[] getVertical() {
+        return vertical;
+    }
+
+    // Returns the factors if the kernel is an outer product, otherwise null
+    public static SeparableKernel detect(double[][] kernel) {
+        int kernelWidth = kernel.length;
+        int kernelHeight = kernel[0].length;
+
+        // Factor through the largest weight so the division is as well conditioned as possible
+        int pivotI = 0, pivotJ = 0;
+        double max = 0;
+        for (int i = 0; i < kernelWidth; i++) {
+            for (int j = 0; j < kernelHeight; j++) {
+                if (Math.abs(kernel[i][j]) > max) {
+                    max = Math.abs(kernel[i][j]);
+                    pivotI = i;
+                    pivotJ = j;
+                }
+            }
+        }
+        if (max == 0 || Double.isNaN(max) || Double.isInfinite(max)) {
+            return null;
+        }
+
+        double[] horizontal = new double[kernelWidth];
+        double[] vertical = new double[kernelHeight];
+        for (int i = 0; i < kernelWidth; i++) {
+            horizontal[i] = kernel[i][pivotJ];
+        }
+        for (int j = 0; j < kernelHeight; j++) {
+            vertical[j] = kernel[pivotI][j] / kernel[pivotI][pivotJ];
+        }
+
+        for (int i = 0; i < kernelWidth; i++) {
+            for (int j = 0; j < kernelHeight; j++) {
+                if (Math.abs(kernel[i][j] - horizontal[i] * vertical[j]) > TOLERANCE * max) {
+                    return null;
+                }
+            }
+        }
+        return new SeparableKernel(horizontal, vertical);
+    }
+}
@@ -0,0 +1,68 @@
+package org.example;
+
+// Opt-in SIMD backend for the direct convolution path. The implementation (VectorConvolution) lives in
+// src/main/java-vector and is only compiled by the 'vector' Maven profile, because it needs a JDK with
+// the jdk.incubator.vector module. When the class or the module is missing, everything stays scalar.
+public final class SimdConvolution {
+
+    public interface Backend {
+        void convolveRegion(PixelPlanes src, PixelPlanes dst, double[][] kernel, ConvolutionEngine.EdgeMode edges,
+                            ConvolutionEngine.Rounding rounding, int x0, int y0, int x1, int y1);
+
+        String describe();
+    }
+
+    // Why the backend failed to load although it was built, set by load()
+    private static String loadFailure;
+    private static final Backend BACKEND = load();
+    private static volatile boolean enabled = false;
+
+    private SimdConvolution() {
+    }
+
+    public static boolean isAvailable() {
+        return BACKEND != null;
+    }
+
+    // Returns whether SIMD is actually in use afterwards
+    public static boolean setEnabled(boolean enable) {
+        enabled = enable && BACKEND != null;
+        return enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static String describe() {
+        if (BACKEND != null) {
+            return BACKEND.describe();
+        }
+        return loadFailure != null ? "failed to load: " + loadFailure
+                : "unavailable (build with -Pvector, run with --add-modules jdk.incubator.vector)";
+    }
+
+    static Backend backend() {
+        return enabled ? BACKEND : null;
+    }
+
+    private static Backend load() {
+        if (!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            return null;
+        }
+        Class<?> implementation;
+        try {
+            implementation = Class.forName("org.example.VectorConvolution", false,
+                    SimdConvolution.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+        try {
+            return (Backend) implementation.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            Throwable cause = e instanceof ExceptionInInitializerError && e.getCause() != null ? e.getCause() : e;
+            loadFailure = cause.toString();
+            return null;
+        }
+    }
+}
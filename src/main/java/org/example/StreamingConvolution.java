@@ -0,0 +1,462 @@
+package org.example;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.stream.IntStream;
+
+// Convolution of images that do not fit in the heap. The input is read strip by strip (ImageReader
+// with setSourceRegion, or straight from a binary PPM), only the strip and the kernel's halo rows
+// above and below it are held, and every finished strip is written out before the next one is read
+// (ImageWriter.replacePixels into an empty TIFF, appended to a PPM, or mapped into a RawImage). Strips
+// are computed in tiles of a few rows and at most as many columns as keep the engines' scratch (separable
+// rows, FFT accumulators, SIMD padding) near SCRATCH_BYTES per worker thread. Peak memory is about
+//   6 x width x (strip rows + kernel height)          window and result
+// + 3 x width x (strip rows + kernel height)          PPM read buffer (8 x for ImageIO inputs, 0 for raw)
+// + (common-pool parallelism + 1) x SCRATCH_BYTES     engine scratch, the caller's thread included
+// whatever the image height.
+//
+// Edges are ZERO and rounding TRUNCATE, so the output equals the sequential mode's. Formats that can
+// only be decoded from the top (JPEG, PNG, GIF) decode the rows above every strip again, which makes
+// the time quadratic in the height; TIFF, PPM and raw inputs read just the strip.
+public final class StreamingConvolution {
+
+    public static final int DEFAULT_STRIP_ROWS = 64;
+
+    // Rows per parallel task inside a strip
+    private static final int BAND_ROWS = 8;
+    // Engine scratch per task: three doubles per column for every row the task reads
+    private static final int SCRATCH_BYTES = 1 << 20;
+    private static final int MIN_COLUMNS = 64;
+
+    private StreamingConvolution() {
+    }
+
+    // Either kernel or gradient is null
+    public static void process(File input, File output, double[][] kernel, GradientOperator.Type gradient,
+                               int stripRows, boolean parallel) throws IOException {
+        if (stripRows < 1) {
+            throw new IllegalArgumentException("Strip rows must be at least 1");
+        }
+        int kernelHeight = kernel != null ? kernel[0].length : 3;
+        int top = kernelHeight / 2;
+        int bottom = kernelHeight - 1 - top;
+        // Separable rows cover the task plus its halo, the FFT accumulator one block of fftSize rows
+        int scratchRows = kernel != null
+                ? Math.max(BAND_ROWS + kernelHeight - 1, FftConvolution.fftSize(kernel.length, kernelHeight))
+                : BAND_ROWS + kernelHeight - 1;
+        int columns = Math.max(MIN_COLUMNS, SCRATCH_BYTES / (3 * Double.BYTES * scratchRows));
+
+        try (StripSource source = StripSource.open(input);
+             StripSink sink = StripSink.create(output, source.width, source.height, stripRows)) {
+            int width = source.width;
+            int height = source.height;
+            int capacity = stripRows + top + bottom;
+            PixelPlanes window = new PixelPlanes(width, capacity);
+            PixelPlanes result = new PixelPlanes(width, capacity);
+            // Input rows [windowStart, windowEnd) are in window, from its first row on
+            int windowStart = 0;
+            int windowEnd = 0;
+
+            for (int y0 = 0; y0 < height; y0 += stripRows) {
+                int y1 = Math.min(height, y0 + stripRows);
+                int from = Math.max(0, y0 - top);
+                int to = Math.min(height, y1 + bottom);
+                // Halo rows of the previous strip move to the front instead of being read again
+                int kept = Math.max(0, windowEnd - from);
+                if (kept > 0 && from > windowStart) {
+                    moveRows(window, from - windowStart, 0, kept);
+                }
+                source.read(from + kept, to, window, kept);
+                windowStart = from;
+                windowEnd = to;
+
+                PixelPlanes src = view(window, to - from);
+                PixelPlanes dst = view(result, to - from);
+                int first = y0 - from;
+                int last = y1 - from;
+                int bands = (last - first + BAND_ROWS - 1) / BAND_ROWS;
+                int chunks = (width + columns - 1) / columns;
+                IntStream stream = IntStream.range(0, bands * chunks);
+                (parallel ? stream.parallel() : stream).forEach(t -> {
+                    int r0 = first + (t / chunks) * BAND_ROWS;
+                    int r1 = Math.min(last, r0 + BAND_ROWS);
+                    int x0 = (t % chunks) * columns;
+                    int x1 = Math.min(width, x0 + columns);
+                    if (kernel != null) {
+                        ConvolutionEngine.convolveRegion(src, dst, kernel, ConvolutionEngine.EdgeMode.ZERO,
+                                ConvolutionEngine.Rounding.TRUNCATE, x0, r0, x1, r1);
+                    } else {
+                        GradientOperator.gradientRegion(src, dst, null, gradient, ConvolutionEngine.EdgeMode.ZERO,
+                                ConvolutionEngine.Rounding.TRUNCATE, x0, r0, x1, r1);
+                    }
+                });
+                sink.write(dst, first, last, y0);
+            }
+        }
+    }
+
+    // Inputs whose decoder starts from the top for every strip
+    public static boolean decodesFromTop(String path) {
+        String name = path.toLowerCase(Locale.ROOT);
+        return name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".png") || name.endsWith(".gif");
+    }
+
+    public static boolean isStreamingOutput(String path) {
+        String name = path.toLowerCase(Locale.ROOT);
+        return name.endsWith(".tif") || name.endsWith(".tiff") || name.endsWith(".ppm")
+                || name.endsWith(RawImage.EXTENSION);
+    }
+
+    // The first rows rows of planes, sharing its arrays
+    private static PixelPlanes view(PixelPlanes planes, int rows) {
+        return new PixelPlanes(planes.getWidth(), rows, planes.getRed(), planes.getGreen(), planes.getBlue());
+    }
+
+    private static void moveRows(PixelPlanes planes, int fromRow, int toRow, int rows) {
+        int width = planes.getWidth();
+        for (byte[] plane : new byte[][]{planes.getRed(), planes.getGreen(), planes.getBlue()}) {
+            System.arraycopy(plane, fromRow * width, plane, toRow * width, rows * width);
+        }
+    }
+
+    private static boolean isPpm(File file) {
+        return file.getName().toLowerCase(Locale.ROOT).endsWith(".ppm");
+    }
+
+    // Reads image rows into PixelPlanes rows
+    private abstract static class StripSource implements Closeable {
+        final int width;
+        final int height;
+
+        StripSource(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        static StripSource open(File file) throws IOException {
+            if (!file.exists()) {
+                throw new IOException("File not found: " + file.getAbsolutePath());
+            }
+            if (RawImage.isRaw(file)) {
+                return new RawSource(RawImage.Reader.open(file));
+            }
+            return isPpm(file) ? PpmSource.open(file) : ImageIOSource.open(file);
+        }
+
+        // Image rows [y0, y1) into planes from row planeRow on
+        abstract void read(int y0, int y1, PixelPlanes planes, int planeRow) throws IOException;
+    }
+
+    private static final class ImageIOSource extends StripSource {
+        private final ImageInputStream stream;
+        private final ImageReader reader;
+        private BufferedImage strip;
+        private int[] rgb = new int[0];
+
+        private ImageIOSource(ImageInputStream stream, ImageReader reader, int width, int height) {
+            super(width, height);
+            this.stream = stream;
+            this.reader = reader;
+        }
+
+        static ImageIOSource open(File file) throws IOException {
+            ImageInputStream stream = ImageIO.createImageInputStream(file);
+            if (stream == null) {
+                throw new IOException("Cannot open " + file);
+            }
+            try {
+                Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+                if (!readers.hasNext()) {
+                    throw new IOException("No image reader for " + file);
+                }
+                ImageReader reader = readers.next();
+                // Not forward only: every strip seeks back into the stream
+                reader.setInput(stream, false, true);
+                return new ImageIOSource(stream, reader, reader.getWidth(0), reader.getHeight(0));
+            } catch (IOException | RuntimeException e) {
+                stream.close();
+                throw e;
+            }
+        }
+
+        @Override
+        void read(int y0, int y1, PixelPlanes planes, int planeRow) throws IOException {
+            int rows = y1 - y0;
+            if (rows <= 0) {
+                return;
+            }
+            if (strip == null || strip.getHeight() < rows) {
+                strip = reader.getImageTypes(0).next().createBufferedImage(width, rows);
+                rgb = new int[width * rows];
+            }
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceRegion(new Rectangle(0, y0, width, rows));
+            param.setDestination(strip);
+            reader.read(0, param);
+            strip.getRGB(0, 0, width, rows, rgb, 0, width);
+            planes.unpack(rgb, planeRow * width, rows * width);
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.dispose();
+            stream.close();
+        }
+    }
+
+    // Binary (P6) PPM with 8-bit samples: strips are read from their offset in the file
+    private static final class PpmSource extends StripSource {
+        private final RandomAccessFile file;
+        private final long dataOffset;
+        private byte[] buffer = new byte[0];
+
+        private PpmSource(RandomAccessFile file, int[] header) {
+            super(header[0], header[1]);
+            this.file = file;
+            this.dataOffset = header[2];
+        }
+
+        static PpmSource open(File file) throws IOException {
+            int[] header = readHeader(file);
+            return new PpmSource(new RandomAccessFile(file, "r"), header);
+        }
+
+        @Override
+        void read(int y0, int y1, PixelPlanes planes, int planeRow) throws IOException {
+            int count = (y1 - y0) * width;
+            if (count <= 0) {
+                return;
+            }
+            if (buffer.length < 3 * count) {
+                buffer = new byte[3 * count];
+            }
+            file.seek(dataOffset + 3L * y0 * width);
+            file.readFully(buffer, 0, 3 * count);
+            int offset = planeRow * width;
+            byte[] red = planes.getRed();
+            byte[] green = planes.getGreen();
+            byte[] blue = planes.getBlue();
+            for (int i = 0, b = 0; i < count; i++, b += 3) {
+                red[offset + i] = buffer[b];
+                green[offset + i] = buffer[b + 1];
+                blue[offset + i] = buffer[b + 2];
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+
+    // Only the strip's rows are mapped
+    private static final class RawSource extends StripSource {
+        private final RawImage.Reader reader;
+
+        RawSource(RawImage.Reader reader) {
+            super(reader.getWidth(), reader.getHeight());
+            this.reader = reader;
+        }
+
+        @Override
+        void read(int y0, int y1, PixelPlanes planes, int planeRow) throws IOException {
+            reader.read(y0, y1, planes, planeRow);
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    // {width, height, offset of the pixel data}
+    private static int[] readHeader(File file) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            int[] position = {0};
+            if (!"P6".equals(token(in, position))) {
+                throw new IOException(file + " is not a binary (P6) PPM");
+            }
+            int width = Integer.parseInt(token(in, position));
+            int height = Integer.parseInt(token(in, position));
+            int maxValue = Integer.parseInt(token(in, position));
+            if (width <= 0 || height <= 0 || maxValue != 255) {
+                throw new IOException(file + ": only 8-bit PPMs with a positive size are supported");
+            }
+            // A single whitespace byte ends the header, token() has consumed it
+            return new int[]{width, height, position[0]};
+        }
+    }
+
+    // Next header token; skips whitespace and # comments and consumes the byte after the token
+    private static String token(InputStream in, int[] position) throws IOException {
+        StringBuilder token = new StringBuilder();
+        while (true) {
+            int c = in.read();
+            position[0]++;
+            if (c < 0) {
+                throw new EOFException("PPM header ends early");
+            }
+            if (c == '#' && token.length() == 0) {
+                while (c >= 0 && c != '\n') {
+                    c = in.read();
+                    position[0]++;
+                }
+            } else if (Character.isWhitespace(c)) {
+                if (token.length() > 0) {
+                    return token.toString();
+                }
+            } else {
+                token.append((char) c);
+            }
+        }
+    }
+
+    // Takes finished rows in order, top to bottom
+    private abstract static class StripSink implements Closeable {
+
+        static StripSink create(File file, int width, int height, int stripRows) throws IOException {
+            if (isPpm(file)) {
+                return new PpmSink(file, width, height);
+            }
+            if (RawImage.isRaw(file)) {
+                return new RawSink(RawImage.Writer.create(file, width, height, RawImage.Layout.PLANAR));
+            }
+            if (!isStreamingOutput(file.getPath())) {
+                throw new IOException("Streaming output must be a .tif, .tiff, .ppm or .raw file, got " + file);
+            }
+            return new TiffSink(file, width, height, stripRows);
+        }
+
+        // Rows [row0, row1) of planes, which are image rows from y on
+        abstract void write(PixelPlanes planes, int row0, int row1, int y) throws IOException;
+    }
+
+    // An empty TIFF of the full size whose pixels are replaced one strip at a time
+    private static final class TiffSink extends StripSink {
+        private final ImageOutputStream stream;
+        private final ImageWriter writer;
+        private final BufferedImage strip;
+
+        TiffSink(File file, int width, int height, int stripRows) throws IOException {
+            Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("tiff");
+            if (!writers.hasNext()) {
+                throw new IOException("No TIFF writer available");
+            }
+            if (file.exists() && !file.delete()) {
+                throw new IOException("Cannot replace " + file);
+            }
+            writer = writers.next();
+            stream = ImageIO.createImageOutputStream(file);
+            writer.setOutput(stream);
+            writer.prepareWriteEmpty(null, ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_3BYTE_BGR),
+                    width, height, null, null, writer.getDefaultWriteParam());
+            strip = new BufferedImage(width, Math.min(stripRows, height), BufferedImage.TYPE_3BYTE_BGR);
+        }
+
+        @Override
+        void write(PixelPlanes planes, int row0, int row1, int y) throws IOException {
+            int width = planes.getWidth();
+            int rows = row1 - row0;
+            byte[] data = ((DataBufferByte) strip.getRaster().getDataBuffer()).getData();
+            byte[] red = planes.getRed();
+            byte[] green = planes.getGreen();
+            byte[] blue = planes.getBlue();
+            for (int i = 0, from = row0 * width, b = 0; i < rows * width; i++, b += 3) {
+                data[b] = blue[from + i];
+                data[b + 1] = green[from + i];
+                data[b + 2] = red[from + i];
+            }
+            writer.prepareReplacePixels(0, new Rectangle(0, y, width, rows));
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setSourceRegion(new Rectangle(0, 0, width, rows));
+            param.setDestinationOffset(new Point(0, y));
+            writer.replacePixels(strip.getRaster(), param);
+            writer.endReplacePixels();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                writer.endWriteEmpty();
+            } finally {
+                writer.dispose();
+                stream.close();
+            }
+        }
+    }
+
+    private static final class PpmSink extends StripSink {
+        private final OutputStream out;
+        private byte[] buffer = new byte[0];
+
+        PpmSink(File file, int width, int height) throws IOException {
+            out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+            out.write(("P6\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII));
+        }
+
+        @Override
+        void write(PixelPlanes planes, int row0, int row1, int y) throws IOException {
+            int count = (row1 - row0) * planes.getWidth();
+            if (buffer.length < 3 * count) {
+                buffer = new byte[3 * count];
+            }
+            int from = row0 * planes.getWidth();
+            byte[] red = planes.getRed();
+            byte[] green = planes.getGreen();
+            byte[] blue = planes.getBlue();
+            for (int i = 0, b = 0; i < count; i++, b += 3) {
+                buffer[b] = red[from + i];
+                buffer[b + 1] = green[from + i];
+                buffer[b + 2] = blue[from + i];
+            }
+            out.write(buffer, 0, 3 * count);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    private static final class RawSink extends StripSink {
+        private final RawImage.Writer writer;
+
+        RawSink(RawImage.Writer writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        void write(PixelPlanes planes, int row0, int row1, int y) throws IOException {
+            writer.write(planes, row0, row1, y);
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.example;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Cuts an image into 2D tiles and runs them on a dedicated work-stealing pool,
+// so tiled jobs neither compete with nor depend on the common pool.
+public final class TiledExecutor {
+
+    // Per-core cache budget a tile (plus its halo) should fit in
+    private static final int CACHE_BUDGET_BYTES = 256 * 1024;
+    private static final int MIN_TILE = 16;
+
+    public interface TileTask {
+        void run(int x0, int y0, int x1, int y1);
+    }
+
+    private static int tileSize = 0; // 0 picks a size from the cache budget
+    private static int parallelism = Runtime.getRuntime().availableProcessors();
+    private static ForkJoinPool pool;
+
+    private TiledExecutor() {
+    }
+
+    public static synchronized void configure(int tileSize, int threads) {
+        if (tileSize < 0 || threads < 0) {
+            throw new IllegalArgumentException("Tile size and thread count must not be negative");
+        }
+        TiledExecutor.tileSize = tileSize;
+        int newParallelism = threads == 0 ? Runtime.getRuntime().availableProcessors() : threads;
+        if (newParallelism != parallelism && pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+        parallelism = newParallelism;
+    }
+
+    public static synchronized int getTileSize() {
+        return tileSize;
+    }
+
+    public static synchronized int getParallelism() {
+        return parallelism;
+    }
+
+    public static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+        }
+        return pool;
+    }
+
+    // Square tile side for a kernel halo: input tile with halo plus output tile, 3 bytes each per pixel
+    public static int tileSizeFor(int haloX, int haloY) {
+        int configured = getTileSize();
+        if (configured > 0) {
+            return configured;
+        }
+        int side = (int) Math.sqrt(CACHE_BUDGET_BYTES / 6.0) - Math.max(haloX, haloY);
+        return Math.max(MIN_TILE, side & ~(MIN_TILE - 1));
+    }
+
+    public static void forEachTile(int width, int height, int tileWidth, int tileHeight, TileTask task) {
+        int tilesX = (width + tileWidth - 1) / tileWidth;
+        int tilesY = (height + tileHeight - 1) / tileHeight;
+        if (tilesX == 0 || tilesY == 0) {
+            return;
+        }
+        getPool().invoke(new TileRange(width, height, tileWidth, tileHeight, tilesX, 0, tilesX * tilesY, task));
+    }
+
+    // Splits the tile index range in halves until single tiles are left; idle workers steal the other halves
+    private static final class TileRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int width;
+        private final int height;
+        private final int tileWidth;
+        private final int tileHeight;
+        private final int tilesX;
+        private final int from;
+        private final int to;
+        private final TileTask task;
+
+        TileRange(int width, int height, int tileWidth, int tileHeight, int tilesX, int from, int to, TileTask task) {
+            this.width = width;
+            this.height = height;
+            this.tileWidth = tileWidth;
+            this.tileHeight = tileHeight;
+            this.tilesX = tilesX;
+            this.from = from;
+            this.to = to;
+            this.task = task;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                int x0 = (from % tilesX) * tileWidth;
+                int y0 = (from / tilesX) * tileHeight;
+                task.run(x0, y0, Math.min(width, x0 + tileWidth), Math.min(height, y0 + tileHeight));
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new TileRange(width, height, tileWidth, tileHeight, tilesX, from, mid, task),
+                    new TileRange(width, height, tileWidth, tileHeight, tilesX, mid, to, task));
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package org.example;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// File I/O on virtual threads, one per task; ImageIOExecutor loads this class by name
+public final class VirtualThreads implements ImageIOExecutor.IoThreads {
+
+    @Override
+    public ExecutorService newExecutor() {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("image-io-", 0).factory());
+    }
+
+    @Override
+    public String describe() {
+        return "virtual threads";
+    }
+}
@@ -0,0 +1,164 @@
+package org.example;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+// Each path of ConvolutionEngine against a direct convolution written like the original getRGB loops.
+// The plane engine must match it bit for bit; the separable and FFT paths sum in another order and may
+// differ by one level
+public class ConvolutionEngineTest {
+
+    private static final int WIDTH = 90;
+    private static final int HEIGHT = 70;
+
+    private static final ConvolutionEngine.EdgeMode[] EDGES = ConvolutionEngine.EdgeMode.values();
+    private static final ConvolutionEngine.Rounding[] ROUNDINGS = ConvolutionEngine.Rounding.values();
+
+    @Test
+    public void planeEngineMatchesReferenceExactly() throws Exception {
+        PixelPlanes src = randomPlanes(1);
+        // An even width puts the center off the middle column
+        double[][] uneven = {{0.1, -0.2, 0.05}, {0.3, 0.5, -0.1}, {0.2, 0.1, 0.0}, {-0.05, 0.15, 0.25}};
+        double[][][] kernels = {KernelFactory.forOperation("edge"), KernelFactory.forOperation("sharpen"),
+                KernelFactory.forOperation("blur"), uneven};
+        for (double[][] kernel : kernels) {
+            assertFalse(ConvolutionEngine.useSeparable(kernel));
+            assertFalse(FftConvolution.isPreferred(kernel, WIDTH, HEIGHT));
+            for (ConvolutionEngine.EdgeMode edges : EDGES) {
+                for (ConvolutionEngine.Rounding rounding : ROUNDINGS) {
+                    PixelPlanes expected = reference(src, kernel, edges, rounding);
+                    assertIdentical(expected, ConvolutionEngine.convolve(src, kernel, edges, rounding));
+                    assertIdentical(expected, convolveTiles(src, kernel, edges, rounding, 16));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void separablePathMatchesReference() throws Exception {
+        PixelPlanes src = randomPlanes(2);
+        double[] horizontal = {1, 3, 5, 3, 1, 2, 1};
+        double[] vertical = {2, 1, 4, 1, 2};
+        double[][] outer = new double[horizontal.length][vertical.length];
+        for (int i = 0; i < horizontal.length; i++) {
+            for (int j = 0; j < vertical.length; j++) {
+                outer[i][j] = horizontal[i] * vertical[j] / 240.0;
+            }
+        }
+        for (double[][] kernel : new double[][][]{KernelFactory.parse("gaussian:1.5"), outer}) {
+            assertTrue(ConvolutionEngine.useSeparable(kernel));
+            assertNotNull(SeparableKernel.detect(kernel));
+            for (ConvolutionEngine.EdgeMode edges : EDGES) {
+                for (ConvolutionEngine.Rounding rounding : ROUNDINGS) {
+                    PixelPlanes expected = reference(src, kernel, edges, rounding);
+                    assertClose(expected, ConvolutionEngine.convolve(src, kernel, edges, rounding));
+                    assertClose(expected, convolveTiles(src, kernel, edges, rounding, 32));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void fftPathMatchesReference() throws Exception {
+        PixelPlanes src = randomPlanes(3);
+        double[][] kernel = KernelFactory.parse("log:3");
+        assertFalse(ConvolutionEngine.useSeparable(kernel) && SeparableKernel.detect(kernel) != null);
+        assertTrue(FftConvolution.isPreferred(kernel, WIDTH, HEIGHT));
+        for (ConvolutionEngine.EdgeMode edges : EDGES) {
+            for (ConvolutionEngine.Rounding rounding : ROUNDINGS) {
+                assertClose(reference(src, kernel, edges, rounding),
+                        ConvolutionEngine.convolve(src, kernel, edges, rounding));
+            }
+        }
+    }
+
+    // kernel[i][j] weighs the pixel at (x + i - kx, y + j - ky). ZERO skips taps outside the image and
+    // walks i then j, CLAMP clamps them and walks j then i, as the sequential and parallel loops did
+    private static PixelPlanes reference(PixelPlanes src, double[][] kernel, ConvolutionEngine.EdgeMode edges,
+                                         ConvolutionEngine.Rounding rounding) {
+        int width = src.getWidth();
+        int height = src.getHeight();
+        int kernelWidth = kernel.length;
+        int kernelHeight = kernel[0].length;
+        boolean zero = edges == ConvolutionEngine.EdgeMode.ZERO;
+        byte[][] in = {src.getRed(), src.getGreen(), src.getBlue()};
+        PixelPlanes dst = new PixelPlanes(width, height);
+        byte[][] out = {dst.getRed(), dst.getGreen(), dst.getBlue()};
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double[] sums = new double[3];
+                for (int a = 0; a < (zero ? kernelWidth : kernelHeight); a++) {
+                    for (int b = 0; b < (zero ? kernelHeight : kernelWidth); b++) {
+                        int i = zero ? a : b;
+                        int j = zero ? b : a;
+                        int pixelX = x + i - kernelWidth / 2;
+                        int pixelY = y + j - kernelHeight / 2;
+                        if (zero && (pixelX < 0 || pixelX >= width || pixelY < 0 || pixelY >= height)) {
+                            continue;
+                        }
+                        int p = Math.min(height - 1, Math.max(0, pixelY)) * width
+                                + Math.min(width - 1, Math.max(0, pixelX));
+                        for (int c = 0; c < 3; c++) {
+                            sums[c] += (in[c][p] & 0xFF) * kernel[i][j];
+                        }
+                    }
+                }
+                for (int c = 0; c < 3; c++) {
+                    double sum = sums[c];
+                    int value = rounding == ConvolutionEngine.Rounding.ROUND ? (int) Math.round(sum) : (int) sum;
+                    out[c][y * width + x] = (byte) Math.min(255, Math.max(0, value));
+                }
+            }
+        }
+        return dst;
+    }
+
+    // The same image cut into tiles, as the tiled and distributed drivers call it
+    private static PixelPlanes convolveTiles(PixelPlanes src, double[][] kernel, ConvolutionEngine.EdgeMode edges,
+                                             ConvolutionEngine.Rounding rounding, int tile) {
+        PixelPlanes dst = new PixelPlanes(src.getWidth(), src.getHeight());
+        for (int y = 0; y < src.getHeight(); y += tile) {
+            for (int x = 0; x < src.getWidth(); x += tile) {
+                ConvolutionEngine.convolveRegion(src, dst, kernel, edges, rounding, x, y,
+                        Math.min(src.getWidth(), x + tile), Math.min(src.getHeight(), y + tile));
+            }
+        }
+        return dst;
+    }
+
+    private static PixelPlanes randomPlanes(long seed) {
+        Random random = new Random(seed);
+        PixelPlanes planes = new PixelPlanes(WIDTH, HEIGHT);
+        random.nextBytes(planes.getRed());
+        random.nextBytes(planes.getGreen());
+        random.nextBytes(planes.getBlue());
+        return planes;
+    }
+
+    private static void assertIdentical(PixelPlanes expected, PixelPlanes actual) {
+        assertArrayEquals(expected.getRed(), actual.getRed());
+        assertArrayEquals(expected.getGreen(), actual.getGreen());
+        assertArrayEquals(expected.getBlue(), actual.getBlue());
+    }
+
+    private static void assertClose(PixelPlanes expected, PixelPlanes actual) {
+        byte[][] a = {expected.getRed(), expected.getGreen(), expected.getBlue()};
+        byte[][] b = {actual.getRed(), actual.getGreen(), actual.getBlue()};
+        for (int c = 0; c < 3; c++) {
+            for (int i = 0; i < a[c].length; i++) {
+                int difference = Math.abs((a[c][i] & 0xFF) - (b[c][i] & 0xFF));
+                if (difference > 1) {
+                    assertEquals("channel " + c + " at (" + i % WIDTH + ", " + i / WIDTH + ")",
+                            a[c][i] & 0xFF, b[c][i] & 0xFF);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.example;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+// Every wire format must give back the rows it was given, in no more than maxEncodedSize bytes:
+// the master sizes its result receives with that bound
+public class PixelCodecTest {
+
+    // Width x height; 300 x 300 makes LZ matches reach past the 64 KB offset window
+    private static final int[][] SIZES = {{1, 1}, {7, 5}, {300, 40}, {300, 300}};
+
+    @Test
+    public void randomPlanesRoundTrip() {
+        Random random = new Random(13);
+        for (int[] size : SIZES) {
+            PixelPlanes planes = new PixelPlanes(size[0], size[1]);
+            random.nextBytes(planes.getRed());
+            random.nextBytes(planes.getGreen());
+            random.nextBytes(planes.getBlue());
+            checkAllFormats(planes);
+        }
+    }
+
+    @Test
+    public void constantPlanesRoundTrip() {
+        for (int[] size : SIZES) {
+            PixelPlanes planes = new PixelPlanes(size[0], size[1]);
+            Arrays.fill(planes.getRed(), (byte) 200);
+            Arrays.fill(planes.getGreen(), (byte) 17);
+            Arrays.fill(planes.getBlue(), (byte) 255);
+            checkAllFormats(planes);
+        }
+    }
+
+    @Test
+    public void smoothPlanesRoundTrip() {
+        for (int[] size : SIZES) {
+            int width = size[0];
+            PixelPlanes planes = new PixelPlanes(width, size[1]);
+            for (int i = 0; i < width * size[1]; i++) {
+                planes.getRed()[i] = (byte) (i % width);
+                planes.getGreen()[i] = (byte) (i / width);
+                planes.getBlue()[i] = (byte) ((i % width + i / width) / 3);
+            }
+            checkAllFormats(planes);
+        }
+    }
+
+    // The whole image, and a band of rows that starts below the first row
+    private static void checkAllFormats(PixelPlanes planes) {
+        int height = planes.getHeight();
+        for (PixelCodec.Format format : PixelCodec.Format.values()) {
+            checkRows(planes, 0, height, format);
+            if (height > 2) {
+                checkRows(planes, 1, height - 1, format);
+            }
+        }
+    }
+
+    private static void checkRows(PixelPlanes planes, int y0, int y1, PixelCodec.Format format) {
+        int width = planes.getWidth();
+        byte[] encoded = PixelCodec.encode(planes, y0, y1, format);
+        int bound = PixelCodec.maxEncodedSize((y1 - y0) * width, format);
+        String name = format + " " + width + "x" + planes.getHeight() + " rows " + y0 + ".." + y1;
+        assertTrue(name + ": " + encoded.length + " bytes, bound " + bound, encoded.length <= bound);
+
+        // Decoded from a buffer of the bound's size, as the master receives it
+        byte[] received = Arrays.copyOf(encoded, bound);
+        PixelPlanes decoded = new PixelPlanes(width, planes.getHeight());
+        PixelCodec.decode(received, encoded.length, format, decoded, y0, y1);
+        int from = y0 * width;
+        int to = y1 * width;
+        assertArrayEquals(name, Arrays.copyOfRange(planes.getRed(), from, to),
+                Arrays.copyOfRange(decoded.getRed(), from, to));
+        assertArrayEquals(name, Arrays.copyOfRange(planes.getGreen(), from, to),
+                Arrays.copyOfRange(decoded.getGreen(), from, to));
+        assertArrayEquals(name, Arrays.copyOfRange(planes.getBlue(), from, to),
+                Arrays.copyOfRange(decoded.getBlue(), from, to));
+    }
+}